@@ -0,0 +1,155 @@
+package com.eldercare.eldercare.service;
+
+import android.Manifest;
+import android.app.ActivityManager;
+import android.app.Instrumentation;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.eldercare.eldercare.R;
+import com.eldercare.eldercare.detection.LatencyHistogram;
+import com.eldercare.eldercare.receiver.NotificationDismissReceiver;
+import com.eldercare.eldercare.view.V_HomePage;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Time-to-notify microbenchmark for AlertDispatcher, on a device: what is prepared once when
+ * the service starts, against what is left for each alert, the permission check and the
+ * notify call. As a baseline it also times the per-alert path the service had before the
+ * dispatcher, which decoded the icon and built the PendingIntents and the notification for
+ * every alert. The two paths alternate round by round, so both see the same device state.
+ * Results go to logcat under TAG as p50/p90/p99/max lines, with the ratio of the medians.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlertDispatcherBenchmark {
+
+    private static final String TAG = "AlertDispatcherBenchmark";
+    private static final int WARMUP = 20;
+    private static final int ROUNDS = 200;
+    // Apart from the dispatcher's alert, so the two paths do not update one notification
+    private static final int BASELINE_NOTIFICATION_ID = 103;
+
+    private Instrumentation instrumentation;
+    private Context context;
+
+    @Before
+    public void setUp() {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            instrumentation.getUiAutomation().grantRuntimePermission(context.getPackageName(),
+                    Manifest.permission.POST_NOTIFICATIONS);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // The service creates the channel before the dispatcher
+            NotificationChannel channel = new NotificationChannel(AlertDispatcher.CHANNEL_ID,
+                    "Fall Detection", NotificationManager.IMPORTANCE_HIGH);
+            context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+    }
+
+    @Test
+    public void timeToNotify() {
+        LatencyHistogram prepare = new LatencyHistogram("prepare");
+        LatencyHistogram notify = new LatencyHistogram("time_to_notify");
+        LatencyHistogram baseline = new LatencyHistogram("baseline_time_to_notify");
+        instrumentation.runOnMainSync(() -> {
+            for (int i = 0; i < WARMUP + ROUNDS; i++) {
+                long startNs = SystemClock.elapsedRealtimeNanos();
+                AlertDispatcher dispatcher = new AlertDispatcher(context);
+                long preparedNs = SystemClock.elapsedRealtimeNanos();
+
+                long detectedNs = SystemClock.elapsedRealtimeNanos();
+                assertTrue(dispatcher.postAlert(detectedNs, detectedNs));
+                long postedNs = SystemClock.elapsedRealtimeNanos();
+                dispatcher.release();
+
+                long baselineDetectedNs = SystemClock.elapsedRealtimeNanos();
+                assertTrue(postAlertPerAlert());
+                long baselinePostedNs = SystemClock.elapsedRealtimeNanos();
+
+                if (i >= WARMUP) {
+                    prepare.record(preparedNs - startNs);
+                    notify.record(postedNs - detectedNs);
+                    baseline.record(baselinePostedNs - baselineDetectedNs);
+                }
+            }
+        });
+        NotificationManagerCompat.from(context).cancelAll();
+
+        StringBuilder out = new StringBuilder();
+        prepare.dump(out);
+        notify.dump(out);
+        baseline.dump(out);
+        out.append("baseline_to_dispatcher_p50_ratio=")
+                .append((double) baseline.getPercentile(50) / Math.max(1, notify.getPercentile(50)))
+                .append('\n');
+        Log.i(TAG, out.toString());
+        assertEquals(ROUNDS, notify.getCount());
+        assertEquals(ROUNDS, baseline.getCount());
+    }
+
+    /**
+     * The notification path of FallDetectionService before AlertDispatcher, kept as it was:
+     * the foreground query, the permission check, the icon decode, both PendingIntents and a
+     * new builder on every alert. The foreground answer is not acted on, so the notification
+     * is always what is timed, as in postAlert().
+     */
+    private boolean postAlertPerAlert() {
+        ActivityManager.RunningAppProcessInfo appProcessInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(appProcessInfo);
+
+        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+
+        Intent activityIntent = new Intent(context, V_HomePage.class);
+        activityIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        activityIntent.putExtra("SHOW_DIALOG", true);
+
+        PendingIntent activityPendingIntent = PendingIntent.getActivity(
+                context, 0, activityIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        Intent dismissIntent = new Intent(context, NotificationDismissReceiver.class);
+        PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(
+                context, 0, dismissIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, AlertDispatcher.CHANNEL_ID)
+                .setContentTitle("Fall Detected!")
+                .setContentText("Please press on this notification to open Eldercare or dismiss if this is a false fall trigger.")
+                .setSmallIcon(R.drawable.eldercare_notif_small_icon)
+                .setLargeIcon(BitmapFactory.decodeResource(context.getResources(), R.drawable.eldercare_icon))
+                .setDefaults(NotificationCompat.DEFAULT_ALL)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setAutoCancel(true)
+                .setContentIntent(activityPendingIntent)
+                .setDeleteIntent(dismissPendingIntent);
+
+        NotificationManagerCompat.from(context).notify(BASELINE_NOTIFICATION_ID, builder.build());
+        return true;
+    }
+}
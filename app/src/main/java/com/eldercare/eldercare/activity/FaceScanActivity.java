@@ -3,68 +3,145 @@ package com.eldercare.eldercare.activity;
 import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.SurfaceTexture;
-import android.hardware.camera2.*;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
 import android.media.Image;
-import android.media.ImageReader;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.util.Base64;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
 import android.util.Size;
-import android.view.Surface;
-import android.view.TextureView;
 import android.view.View;
 import android.view.animation.AlphaAnimation;
-import android.view.animation.Animation;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
-import androidx.appcompat.app.AppCompatActivity;
+import androidx.annotation.OptIn;
+import androidx.camera.camera2.interop.Camera2CameraControl;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.CaptureRequestOptions;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ExperimentalGetImage;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.AspectRatioStrategy;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.view.PreviewView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import androidx.databinding.DataBindingUtil;
 import com.eldercare.eldercare.R;
 import com.eldercare.eldercare.databinding.ActivityFaceScanBinding;
-import com.eldercare.eldercare.model.FaceScanData;
+import com.eldercare.eldercare.detection.FrameScorer;
+import com.eldercare.eldercare.detection.PulseEstimator;
 import com.eldercare.eldercare.network.RetrofitClient;
 import com.eldercare.eldercare.repository.FaceScanRepository.ApiResponse;
-import com.eldercare.eldercare.utils.FaceOverlayView;
+import com.eldercare.eldercare.utils.FrameEncoder;
 import com.eldercare.eldercare.utils.LocaleHelper;
+import com.eldercare.eldercare.utils.YuvFrameCopy;
 import com.eldercare.eldercare.view.BaseActivity;
-
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.face.Face;
+import com.google.mlkit.vision.face.FaceDetection;
+import com.google.mlkit.vision.face.FaceDetector;
+import com.google.mlkit.vision.face.FaceDetectorOptions;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class FaceScanActivity extends BaseActivity {
+    private static final String TAG = "FaceScanActivity";
     private ActivityFaceScanBinding binding;
     private static final int CAMERA_PERMISSION_CODE = 100;
 
-    private CameraDevice cameraDevice;
-    private CameraCaptureSession cameraCaptureSession;
-    private CaptureRequest.Builder captureRequestBuilder;
-    private Size imageDimension;
-    private ImageReader imageReader;
-    private Handler backgroundHandler;
-    private HandlerThread backgroundThread;
+    // CameraX opens the camera on start and closes it on stop; scans in between reuse it
+    private ProcessCameraProvider cameraProvider;
+    private Camera camera;
+    // When the preview was asked for, until its first frame; 0 when nothing is pending
+    private long previewRequestedNs = 0;
+    private String previewRequestReason;
 
     private boolean isFrontCamera = true;
     private boolean isScanning = false;
     private boolean faceDetected = false;
 
+    // Analysis frames at about the upload size serve face detection, the photo and the pulse scan
+    private static final Size FRAME_SIZE = new Size(640, 480);
+    private static final int UPLOAD_MAX_WIDTH = 480;
+    private static final int UPLOAD_MAX_HEIGHT = 640;
+    private static final int UPLOAD_JPEG_QUALITY = 50;
+    private static final MediaType JPEG = MediaType.get("image/jpeg");
+    private static final MediaType TEXT = MediaType.get("text/plain");
+    // Written on the analysis executor, then read by the upload once the burst is done
+    private final FrameEncoder frameEncoder = new FrameEncoder();
+    // Upload progress is reported from the network thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Photo: a burst of frames, each scored as it arrives, and only the best one encoded
+    private static final int BURST_FRAMES = 8;
+    // Only touched on the analysis executor
+    private final FrameScorer frameScorer = new FrameScorer();
+    private final YuvFrameCopy bestFrame = new YuvFrameCopy();
+    private volatile boolean isCapturingBurst = false;
+    private int burstFramesLeft;
+    private float bestScore;
+    private int bestRotation;
+    private boolean bestMirrored;
+    private long slowestScoreNs;
+
+    // Analysis: YUV frames on their own executor, each one kept open until face detection is done
+    private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
+    private FaceDetector faceDetector;
+
+    // Pulse scan: skin colour from YUV analysis frames over 10-20 s, see PulseEstimator
+    private static final float PULSE_MIN_SECONDS = 10f;
+    private static final float PULSE_MAX_SECONDS = 20f;
+    private static final float PULSE_MAX_FPS = 60f;
+    // Two estimates a second apart that agree this closely end the scan early
+    private static final float PULSE_STABLE_BPM = 3f;
+    // Only touched on the analysis executor
+    private final PulseEstimator pulseEstimator = new PulseEstimator(PULSE_MAX_SECONDS, PULSE_MAX_FPS);
+    private Range<Integer> pulseFpsRange;
+    private volatile boolean isMeasuringPulse = false;
+    private float lastPulseBpm = Float.NaN;
+    private int pulseSecondsShown;
+    // The face of the last detection, upright; a frame is read for the pulse before it is
+    // detected on, so the skin region comes from the frame before. Empty until a face is found
+    private final Rect pulseFace = new Rect();
+    private final int[] pulseRegion = new int[4];
+    private long pulseStartNs;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         binding = DataBindingUtil.setContentView(this, R.layout.activity_face_scan);
 
+        FaceDetectorOptions options = new FaceDetectorOptions.Builder()
+                .setPerformanceMode(FaceDetectorOptions.PERFORMANCE_MODE_FAST)
+                .setContourMode(FaceDetectorOptions.CONTOUR_MODE_ALL)
+                .setExecutor(analysisExecutor)
+                .build();
+        faceDetector = FaceDetection.getClient(options);
+
         setupViews();
         checkCameraPermission();
     }
@@ -73,14 +150,21 @@ public class FaceScanActivity extends BaseActivity {
         binding.btnBack.setOnClickListener(v -> finish());
 
         binding.btnSwitchCamera.setOnClickListener(v -> {
+            cancelPulseScan();
             isFrontCamera = !isFrontCamera;
-            closeCamera();
-            startCamera();
+            requestPreview("switch");
+            bindCameraUseCases();
         });
 
         binding.btnStartScan.setOnClickListener(v -> {
             if (!isScanning) {
-                captureImage();
+                captureBurst();
+            }
+        });
+
+        binding.btnPulseScan.setOnClickListener(v -> {
+            if (!isScanning) {
+                startPulseScan();
             }
         });
 
@@ -92,9 +176,19 @@ public class FaceScanActivity extends BaseActivity {
             Toast.makeText(this, "Upload clicked", Toast.LENGTH_SHORT).show();
         });
 
-        binding.textureView.setSurfaceTextureListener(textureListener);
+        // Time to first preview frame, logged for a cold start, a return to the screen and a camera switch
+        binding.previewView.getPreviewStreamState().observe(this, state -> {
+            if (state == PreviewView.StreamState.STREAMING && previewRequestedNs != 0) {
+                long ms = (SystemClock.elapsedRealtimeNanos() - previewRequestedNs) / 1_000_000;
+                Log.i(TAG, "First preview frame after " + ms + " ms (" + previewRequestReason + ")");
+                previewRequestedNs = 0;
+            }
+        });
+    }
 
-        simulateFaceDetection();
+    private void requestPreview(String reason) {
+        previewRequestedNs = SystemClock.elapsedRealtimeNanos();
+        previewRequestReason = reason;
     }
 
     private void checkCameraPermission() {
@@ -106,309 +200,372 @@ public class FaceScanActivity extends BaseActivity {
     }
 
     private void startCamera() {
-        if (binding.textureView.isAvailable()) {
-            openCamera();
-        } else {
-            binding.textureView.setSurfaceTextureListener(textureListener);
-        }
+        requestPreview("start");
+        ListenableFuture<ProcessCameraProvider> providerFuture = ProcessCameraProvider.getInstance(this);
+        providerFuture.addListener(() -> {
+            try {
+                cameraProvider = providerFuture.get();
+                bindCameraUseCases();
+            } catch (ExecutionException | InterruptedException e) {
+                e.printStackTrace();
+                Toast.makeText(this, "Cannot open camera", Toast.LENGTH_SHORT).show();
+            }
+        }, ContextCompat.getMainExecutor(this));
     }
 
-    private final TextureView.SurfaceTextureListener textureListener = new TextureView.SurfaceTextureListener() {
-        @Override
-        public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
-            openCamera();
-        }
-
-        @Override
-        public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {}
-
-        @Override
-        public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
-            return false;
+    /**
+     * Binds preview and analysis to the activity's lifecycle for the chosen camera.
+     * Called once, and again only when the camera is switched.
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private void bindCameraUseCases() {
+        if (cameraProvider == null) return;
+
+        int rotation = getWindowManager().getDefaultDisplay().getRotation();
+        ResolutionSelector frameResolution = new ResolutionSelector.Builder()
+                .setAspectRatioStrategy(AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                .setResolutionStrategy(new ResolutionStrategy(FRAME_SIZE,
+                        ResolutionStrategy.FALLBACK_RULE_CLOSEST_LOWER_THEN_HIGHER))
+                .build();
+
+        Preview preview = new Preview.Builder()
+                .setResolutionSelector(new ResolutionSelector.Builder()
+                        .setAspectRatioStrategy(AspectRatioStrategy.RATIO_4_3_FALLBACK_AUTO_STRATEGY)
+                        .build())
+                .setTargetRotation(rotation)
+                .build();
+        preview.setSurfaceProvider(binding.previewView.getSurfaceProvider());
+
+        // Only the newest frame waits while one is analysed, so the preview keeps its rate
+        ImageAnalysis imageAnalysis = new ImageAnalysis.Builder()
+                .setResolutionSelector(frameResolution)
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .setTargetRotation(rotation)
+                .build();
+        imageAnalysis.setAnalyzer(analysisExecutor, this::analyzeFrame);
+
+        CameraSelector selector = isFrontCamera
+                ? CameraSelector.DEFAULT_FRONT_CAMERA : CameraSelector.DEFAULT_BACK_CAMERA;
+        cameraProvider.unbindAll();
+        try {
+            camera = cameraProvider.bindToLifecycle(this, selector, preview, imageAnalysis);
+        } catch (IllegalArgumentException e) {
+            // No camera facing that way
+            Log.w(TAG, "Cannot bind camera", e);
+            camera = null;
+            Toast.makeText(this, "Camera not available", Toast.LENGTH_SHORT).show();
+            return;
         }
+        pulseFpsRange = choosePulseFpsRange(Camera2CameraInfo.from(camera.getCameraInfo())
+                .getCameraCharacteristic(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+    }
 
-        @Override
-        public void onSurfaceTextureUpdated(SurfaceTexture surface) {}
-    };
+    /** Starts a burst on the next frames; the best of them becomes the photo. */
+    private void captureBurst() {
+        if (camera == null) return;
 
-    private void openCamera() {
-        CameraManager manager = (CameraManager) getSystemService(CAMERA_SERVICE);
-        try {
-            String cameraId = getCameraId(manager);
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-
-            imageDimension = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
-                    .getOutputSizes(SurfaceTexture.class)[0];
-
-            Size[] jpegSizes = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP)
-                    .getOutputSizes(ImageFormat.JPEG);
-            int width = 640;
-            int height = 480;
-            if (jpegSizes != null && jpegSizes.length > 0) {
-                width = jpegSizes[0].getWidth();
-                height = jpegSizes[0].getHeight();
-            }
+        // Neither scan may start until this one is uploaded or has failed
+        isScanning = true;
+        binding.btnStartScan.setEnabled(false);
+        binding.btnPulseScan.setEnabled(false);
+        binding.tvCameraStatus.setText("Capturing...");
+
+        analysisExecutor.execute(() -> {
+            bestFrame.clear();
+            bestScore = -1f;
+            burstFramesLeft = BURST_FRAMES;
+            slowestScoreNs = 0;
+            isCapturingBurst = true;
+        });
+    }
 
-            if (imageReader != null) {
-                imageReader.close();
+    /** The range with the highest minimum, so frames keep coming at a steady rate. */
+    private Range<Integer> choosePulseFpsRange(Range<Integer>[] ranges) {
+        Range<Integer> best = null;
+        if (ranges == null) return null;
+        for (Range<Integer> range : ranges) {
+            if (best == null || range.getLower() > best.getLower()
+                    || (range.getLower().equals(best.getLower()) && range.getUpper() < best.getUpper())) {
+                best = range;
             }
+        }
+        return best;
+    }
 
-            imageReader = ImageReader.newInstance(width, height, ImageFormat.JPEG, 1);
-            imageReader.setOnImageAvailableListener(reader -> {
-                Image image = null;
-                try {
-                    image = reader.acquireLatestImage();
-                    if (image == null) {
-                        runOnUiThread(() -> {
-                            binding.btnStartScan.setEnabled(true);
-                            Toast.makeText(FaceScanActivity.this, "Failed to get image", Toast.LENGTH_SHORT).show();
-                        });
-                        return;
-                    }
-
-                    ByteBuffer buffer = image.getPlanes()[0].getBuffer();
-                    byte[] bytes = new byte[buffer.capacity()];
-                    buffer.get(bytes);
-
-                    Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                    if (bitmap == null) {
-                        runOnUiThread(() -> {
-                            binding.btnStartScan.setEnabled(true);
-                            Toast.makeText(FaceScanActivity.this, "Failed to decode image", Toast.LENGTH_SHORT).show();
-                        });
-                        return;
-                    }
-
-                    if (isFrontCamera) {
-                        bitmap = flipBitmap(bitmap);
-                    }
-
-                    final Bitmap finalBitmap = bitmap;
-                    runOnUiThread(() -> startProcessingAnimation(finalBitmap));
+    private void startPulseScan() {
+        if (camera == null) return;
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    runOnUiThread(() -> {
-                        binding.btnStartScan.setEnabled(true);
-                        Toast.makeText(FaceScanActivity.this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                    });
-                } finally {
-                    if (image != null) {
-                        image.close();
-                    }
-                }
-            }, backgroundHandler);
+        isScanning = true;
+        binding.btnStartScan.setEnabled(false);
+        binding.btnPulseScan.setEnabled(false);
+        binding.tvCameraStatus.setText("Measuring pulse, keep still...");
+        binding.tvScanMethod.setText("PULSE");
+
+        lockForPulse(true);
+        analysisExecutor.execute(() -> {
+            pulseEstimator.reset();
+            lastPulseBpm = Float.NaN;
+            pulseSecondsShown = 0;
+            pulseFace.setEmpty();
+            pulseStartNs = Long.MIN_VALUE;
+            isMeasuringPulse = true;
+        });
+    }
 
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-                return;
-            }
+    /** Stops a pulse scan without a result, when the camera goes away or changes. */
+    private void cancelPulseScan() {
+        if (!isMeasuringPulse) return;
 
-            manager.openCamera(cameraId, stateCallback, backgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-        }
+        isMeasuringPulse = false;
+        lockForPulse(false);
+        isScanning = false;
+        binding.btnStartScan.setEnabled(true);
+        binding.btnPulseScan.setEnabled(true);
+        binding.tvCameraStatus.setText("Pulse measurement stopped");
     }
 
-    private String getCameraId(CameraManager manager) throws CameraAccessException {
-        for (String cameraId : manager.getCameraIdList()) {
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
-
-            if (isFrontCamera && facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
-                return cameraId;
-            } else if (!isFrontCamera && facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
-                return cameraId;
+    /**
+     * While the pulse is measured, exposure and white balance are locked, as their adjustments
+     * change the skin colour far more than the pulse does, and the frame rate is kept steady.
+     */
+    @OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private void lockForPulse(boolean enabled) {
+        if (camera == null) return;
+
+        Camera2CameraControl control = Camera2CameraControl.from(camera.getCameraControl());
+        if (enabled) {
+            CaptureRequestOptions.Builder options = new CaptureRequestOptions.Builder()
+                    .setCaptureRequestOption(CaptureRequest.CONTROL_AE_LOCK, true)
+                    .setCaptureRequestOption(CaptureRequest.CONTROL_AWB_LOCK, true);
+            if (pulseFpsRange != null) {
+                options.setCaptureRequestOption(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, pulseFpsRange);
             }
+            control.setCaptureRequestOptions(options.build());
+        } else {
+            control.clearCaptureRequestOptions();
         }
-        return manager.getCameraIdList()[0];
     }
 
-    private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
-        @Override
-        public void onOpened(@NonNull CameraDevice camera) {
-            cameraDevice = camera;
-            createCameraPreview();
+    /**
+     * Runs on the analysis executor for each YUV frame: the pulse scan reads it first if one
+     * runs, then it goes to face detection, and a burst scores it against the face found. The
+     * frame is closed when that is done, and until then ImageAnalysis holds back newer frames,
+     * so detection always works on a recent frame and nothing queues up.
+     */
+    @OptIn(markerClass = ExperimentalGetImage.class)
+    private void analyzeFrame(@NonNull ImageProxy frame) {
+        if (isMeasuringPulse) {
+            onPulseFrame(frame);
         }
 
-        @Override
-        public void onDisconnected(@NonNull CameraDevice camera) {
-            cameraDevice.close();
+        Image image = frame.getImage();
+        if (image == null) {
+            frame.close();
+            return;
         }
-
-        @Override
-        public void onError(@NonNull CameraDevice camera, int error) {
-            cameraDevice.close();
-            cameraDevice = null;
+        int rotation = frame.getImageInfo().getRotationDegrees();
+        boolean quarterTurn = rotation % 180 != 0;
+        int frameWidth = quarterTurn ? frame.getHeight() : frame.getWidth();
+        int frameHeight = quarterTurn ? frame.getWidth() : frame.getHeight();
+        boolean mirrored = isFrontCamera;
+        try {
+            faceDetector.process(InputImage.fromMediaImage(image, rotation))
+                    .addOnSuccessListener(this, faces -> showFace(largestFace(faces), frameWidth, frameHeight, mirrored))
+                    .addOnCompleteListener(analysisExecutor, task -> {
+                        Face face = task.isSuccessful() ? largestFace(task.getResult()) : null;
+                        // A face lost for a frame or two has not moved far: its last box is kept
+                        if (isMeasuringPulse && face != null) {
+                            pulseFace.set(face.getBoundingBox());
+                        }
+                        if (isCapturingBurst) {
+                            scoreBurstFrame(frame, rotation, mirrored, face);
+                        }
+                        frame.close();
+                    });
+        } catch (RuntimeException e) {
+            frame.close();
         }
-    };
+    }
 
-    private void createCameraPreview() {
-        try {
-            SurfaceTexture texture = binding.textureView.getSurfaceTexture();
-            texture.setDefaultBufferSize(imageDimension.getWidth(), imageDimension.getHeight());
-
-            Surface surface = new Surface(texture);
-            captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            captureRequestBuilder.addTarget(surface);
-
-            cameraDevice.createCaptureSession(Arrays.asList(surface, imageReader.getSurface()), new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession session) {
-                    if (cameraDevice == null) return;
-
-                    cameraCaptureSession = session;
-                    updatePreview();
-                }
-
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                    Toast.makeText(FaceScanActivity.this, "Configuration failed", Toast.LENGTH_SHORT).show();
-                }
-            }, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+    private static Face largestFace(List<Face> faces) {
+        Face largest = null;
+        for (Face face : faces) {
+            if (largest == null || face.getBoundingBox().width() * face.getBoundingBox().height()
+                    > largest.getBoundingBox().width() * largest.getBoundingBox().height()) {
+                largest = face;
+            }
         }
+        return largest;
     }
 
-    private void updatePreview() {
-        if (cameraDevice == null) return;
+    private void showFace(Face face, int frameWidth, int frameHeight, boolean mirrored) {
+        binding.faceOverlay.setFace(face, frameWidth, frameHeight, mirrored);
+        boolean detected = face != null;
+        if (isScanning || detected == faceDetected) return;
 
-        captureRequestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-        try {
-            cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, backgroundHandler);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+        faceDetected = detected;
+        if (faceDetected) {
+            binding.tvFaceDetected.setVisibility(View.VISIBLE);
+            binding.tvScanMethod.setText("FACE LOCK");
+
+            AlphaAnimation fadeIn = new AlphaAnimation(0.0f, 1.0f);
+            fadeIn.setDuration(300);
+            binding.tvFaceDetected.startAnimation(fadeIn);
+        } else {
+            binding.tvFaceDetected.setVisibility(View.GONE);
+            binding.tvScanMethod.setText("DETECTING...");
         }
     }
 
-    private void captureImage() {
-        if (cameraDevice == null) return;
+    /**
+     * Scores a burst frame on its luma plane and keeps a copy of it while it is the best so
+     * far; the frame itself goes back to the camera. When the burst is done, only the best
+     * frame is encoded for the upload.
+     */
+    private void scoreBurstFrame(ImageProxy frame, int rotation, boolean mirrored, Face face) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        ImageProxy.PlaneProxy[] planes = frame.getPlanes();
+        Rect box = face != null ? face.getBoundingBox() : new Rect();
+        float score = frameScorer.score(planes[0].getBuffer(), planes[0].getRowStride(),
+                frame.getWidth(), frame.getHeight(), rotation, box.left, box.top, box.right, box.bottom);
+        if (score > bestScore) {
+            bestScore = score;
+            bestRotation = rotation;
+            bestMirrored = mirrored;
+            bestFrame.copy(frame.getWidth(), frame.getHeight(), planes[0].getBuffer(), planes[0].getRowStride(),
+                    planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride());
+        }
+        slowestScoreNs = Math.max(slowestScoreNs, SystemClock.elapsedRealtimeNanos() - startNs);
 
+        if (--burstFramesLeft > 0) return;
+        isCapturingBurst = false;
+        Log.d(TAG, "Burst best score " + bestScore + ", slowest frame scored in "
+                + slowestScoreNs / 1000 + " us");
         try {
-            binding.btnStartScan.setEnabled(false);
-            binding.tvCameraStatus.setText("Capturing...");
-
-            final CaptureRequest.Builder captureBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            captureBuilder.addTarget(imageReader.getSurface());
-            captureBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-
-            int rotation = getWindowManager().getDefaultDisplay().getRotation();
-            captureBuilder.set(CaptureRequest.JPEG_ORIENTATION, getOrientation(rotation));
-
-            cameraCaptureSession.stopRepeating();
-            cameraCaptureSession.abortCaptures();
-
-            cameraCaptureSession.capture(captureBuilder.build(), new CameraCaptureSession.CaptureCallback() {
-                @Override
-                public void onCaptureCompleted(@NonNull CameraCaptureSession session,
-                                               @NonNull CaptureRequest request,
-                                               @NonNull TotalCaptureResult result) {
-                    super.onCaptureCompleted(session, request, result);
-                    runOnUiThread(() -> {
-                        binding.tvCameraStatus.setText("Image captured!");
-                    });
-                }
-
-                @Override
-                public void onCaptureFailed(@NonNull CameraCaptureSession session,
-                                            @NonNull CaptureRequest request,
-                                            @NonNull CaptureFailure failure) {
-                    super.onCaptureFailed(session, request, failure);
-                    runOnUiThread(() -> {
-                        binding.btnStartScan.setEnabled(true);
-                        binding.tvCameraStatus.setText("Capture failed, try again");
-                        Toast.makeText(FaceScanActivity.this, "Capture failed", Toast.LENGTH_SHORT).show();
-                    });
-                }
-            }, backgroundHandler);
-
-        } catch (CameraAccessException e) {
+            frameEncoder.encode(bestFrame, bestRotation, bestMirrored,
+                    UPLOAD_MAX_WIDTH, UPLOAD_MAX_HEIGHT, UPLOAD_JPEG_QUALITY);
+            runOnUiThread(this::uploadFaceScan);
+        } catch (Exception e) {
             e.printStackTrace();
-            binding.btnStartScan.setEnabled(true);
-            binding.tvCameraStatus.setText("Error occurred");
+            runOnUiThread(() -> {
+                isScanning = false;
+                binding.btnStartScan.setEnabled(true);
+                binding.btnPulseScan.setEnabled(true);
+                binding.tvCameraStatus.setText("Capture failed, try again");
+                Toast.makeText(FaceScanActivity.this, "Error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            });
         }
     }
 
-    private Bitmap flipBitmap(Bitmap bitmap) {
-        Matrix matrix = new Matrix();
-        matrix.preScale(-1.0f, 1.0f);
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
-    }
+    /** Reads the planes in place; the frame stays open for face detection. */
+    private void onPulseFrame(ImageProxy frame) {
+        long timestampNs = frame.getImageInfo().getTimestamp();
+        if (pulseStartNs == Long.MIN_VALUE) pulseStartNs = timestampNs;
+        // Only skin carries the pulse: background, hair and eyes in the region just add noise
+        if (!PulseEstimator.skinRegion(frame.getWidth(), frame.getHeight(), frame.getImageInfo().getRotationDegrees(),
+                pulseFace.left, pulseFace.top, pulseFace.right, pulseFace.bottom, pulseRegion)) {
+            if (timestampNs - pulseStartNs >= PULSE_MAX_SECONDS * 1e9) {
+                finishPulseScan(Float.NaN, false);
+            }
+            return;
+        }
+        ImageProxy.PlaneProxy[] planes = frame.getPlanes();
+        pulseEstimator.addFrame(timestampNs,
+                planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                pulseRegion[0], pulseRegion[1], pulseRegion[2], pulseRegion[3]);
+
+        int seconds = (int) pulseEstimator.getSeconds();
+        if (seconds <= pulseSecondsShown && !pulseEstimator.isFull()) return;
+        pulseSecondsShown = seconds;
+
+        if (seconds < PULSE_MIN_SECONDS) {
+            runOnUiThread(() -> binding.tvCameraStatus.setText("Measuring pulse, keep still... " + seconds + " s"));
+            return;
+        }
 
-    private int getOrientation(int rotation) {
-        switch (rotation) {
-            case Surface.ROTATION_0:
-                return isFrontCamera ? 270 : 90;
-            case Surface.ROTATION_90:
-                return 0;
-            case Surface.ROTATION_180:
-                return isFrontCamera ? 90 : 270;
-            case Surface.ROTATION_270:
-                return 180;
-            default:
-                return 90;
+        // From the minimum duration on, one estimate a second until two agree or time is up
+        float previous = lastPulseBpm;
+        float bpm = pulseEstimator.estimate();
+        boolean reliable = pulseEstimator.isReliable();
+        lastPulseBpm = reliable ? bpm : Float.NaN;
+        boolean stable = reliable && Math.abs(bpm - previous) <= PULSE_STABLE_BPM;
+        if (stable || seconds >= PULSE_MAX_SECONDS || pulseEstimator.isFull()) {
+            finishPulseScan(bpm, reliable);
+        } else {
+            runOnUiThread(() -> binding.tvCameraStatus.setText("Measuring pulse, keep still... " + seconds + " s"));
         }
     }
 
-    private void startProcessingAnimation(Bitmap capturedImage) {
-        isScanning = true;
-        binding.btnStartScan.setEnabled(false);
-        binding.loadingProgress.setVisibility(View.VISIBLE);
-        binding.tvCameraStatus.setText("Processing face data...");
-        binding.tvScanMethod.setText("ANALYZING");
-
-        binding.faceOverlay.startScanAnimation();
+    private void finishPulseScan(float bpm, boolean reliable) {
+        isMeasuringPulse = false;
 
-        new Handler().postDelayed(() -> {
-            binding.faceOverlay.stopScanAnimation();
-            startSendingAnimation(capturedImage);
-        }, 2500);
+        runOnUiThread(() -> {
+            lockForPulse(false);
+            isScanning = false;
+            binding.btnStartScan.setEnabled(true);
+            binding.btnPulseScan.setEnabled(true);
+            if (reliable) {
+                binding.tvCameraStatus.setText("Pulse: " + Math.round(bpm) + " bpm");
+            } else {
+                binding.tvCameraStatus.setText("Pulse signal too weak. Keep still in good light and try again");
+            }
+        });
     }
 
-    private void startSendingAnimation(Bitmap capturedImage) {
+    /** While the photo is being sent. */
+    private void showSending() {
+        binding.loadingProgress.setVisibility(View.VISIBLE);
         binding.tvCameraStatus.setText("Sending data to server...");
         binding.tvScanMethod.setText("UPLOADING");
-        binding.loadingProgress.setVisibility(View.VISIBLE);
-
-        new Handler().postDelayed(() -> {
-            uploadFaceScan(capturedImage);
-        }, 1500);
     }
 
-    private Bitmap resizeBitmap(Bitmap bitmap, int maxWidth, int maxHeight) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        float ratioBitmap = (float) width / (float) height;
-        float ratioMax = (float) maxWidth / (float) maxHeight;
-
-        int finalWidth = maxWidth;
-        int finalHeight = maxHeight;
-
-        if (ratioMax > ratioBitmap) {
-            finalWidth = (int) ((float)maxHeight * ratioBitmap);
-        } else {
-            finalHeight = (int) ((float)maxWidth / ratioBitmap);
-        }
-
-        return Bitmap.createScaledBitmap(bitmap, finalWidth, finalHeight, true);
+    /** Once the photo is sent, until the server's analysis comes back. */
+    private void showProcessing() {
+        if (!isScanning) return;
+        binding.tvCameraStatus.setText("Processing face data...");
+        binding.tvScanMethod.setText("ANALYZING");
+        binding.faceOverlay.startScanAnimation();
     }
 
-    private void uploadFaceScan(Bitmap bitmap) {
-        String base64Image = bitmapToBase64(bitmap);
+    /**
+     * Sends the photo as soon as it is encoded. The screen follows the request: sending while
+     * the photo is written, then processing until the server answers.
+     */
+    private void uploadFaceScan() {
+        // The JPEG is written to the connection straight from the encoder's buffer, which stays
+        // untouched until the reply, as no new scan can start before then
+        RequestBody jpegBody = RequestBody.create(frameEncoder.getJpeg(), JPEG, 0, frameEncoder.getJpegLength());
+        RequestBody imageBody = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return jpegBody.contentType();
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return jpegBody.contentLength();
+            }
 
-        FaceScanData faceScanData = new FaceScanData();
-        faceScanData.setImage(base64Image);
-        faceScanData.setTimestamp(System.currentTimeMillis());
+            @Override
+            public void writeTo(@NonNull BufferedSink sink) throws IOException {
+                jpegBody.writeTo(sink);
+                mainHandler.post(FaceScanActivity.this::showProcessing);
+            }
+        };
+        MultipartBody.Part image = MultipartBody.Part.createFormData("image", "face.jpg", imageBody);
+        RequestBody timestamp = RequestBody.create(String.valueOf(System.currentTimeMillis()), TEXT);
         String languageCode = LocaleHelper.getLanguage(this);
-        faceScanData.setLanguage(languageCode != null ? languageCode : "en");
+        RequestBody language = RequestBody.create(languageCode != null ? languageCode : "en", TEXT);
+        showSending();
 
         RetrofitClient.getInstance().getApiService()
-                .uploadFaceScan(faceScanData)
+                .uploadFaceScanImage(image, timestamp, language)
                 .enqueue(new Callback<ApiResponse>() {
                     @Override
                     public void onResponse(Call<ApiResponse> call, Response<ApiResponse> response) {
                         isScanning = false;
+                        binding.faceOverlay.stopScanAnimation();
                         binding.loadingProgress.setVisibility(View.GONE);
 
                         Intent intent = new Intent(FaceScanActivity.this, FaceScanResultActivity.class);
@@ -437,6 +594,7 @@ public class FaceScanActivity extends BaseActivity {
                     @Override
                     public void onFailure(Call<ApiResponse> call, Throwable t) {
                         isScanning = false;
+                        binding.faceOverlay.stopScanAnimation();
                         binding.loadingProgress.setVisibility(View.GONE);
 
                         Intent intent = new Intent(FaceScanActivity.this, FaceScanResultActivity.class);
@@ -461,92 +619,26 @@ public class FaceScanActivity extends BaseActivity {
                 });
     }
 
-    private String bitmapToBase64(Bitmap bitmap) {
-        Bitmap resizedBitmap = resizeBitmap(bitmap, 480, 640);
-
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        resizedBitmap.compress(Bitmap.CompressFormat.JPEG, 50, byteArrayOutputStream);
-        byte[] byteArray = byteArrayOutputStream.toByteArray();
-        return Base64.encodeToString(byteArray, Base64.DEFAULT);
-    }
-
-    private void simulateFaceDetection() {
-        new Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (!isScanning) {
-                    faceDetected = !faceDetected;
-
-                    if (faceDetected) {
-                        binding.tvFaceDetected.setVisibility(View.VISIBLE);
-                        binding.tvScanMethod.setText("FACE LOCK");
-                        binding.faceOverlay.setFaceDetected(true);
-
-                        AlphaAnimation fadeIn = new AlphaAnimation(0.0f, 1.0f);
-                        fadeIn.setDuration(300);
-                        binding.tvFaceDetected.startAnimation(fadeIn);
-                    } else {
-                        binding.tvFaceDetected.setVisibility(View.GONE);
-                        binding.tvScanMethod.setText("DETECTING...");
-                        binding.faceOverlay.setFaceDetected(false);
-                    }
-                }
-
-                new Handler().postDelayed(this, 2000);
-            }
-        }, 1000);
-    }
-
-    private void closeCamera() {
-        if (cameraCaptureSession != null) {
-            cameraCaptureSession.close();
-            cameraCaptureSession = null;
-        }
-        if (cameraDevice != null) {
-            cameraDevice.close();
-            cameraDevice = null;
-        }
-        if (imageReader != null) {
-            imageReader.close();
-            imageReader = null;
-        }
-    }
-
     @Override
-    protected void onResume() {
-        super.onResume();
-        startBackgroundThread();
-        if (binding.textureView.isAvailable()) {
-            openCamera();
-        } else {
-            binding.textureView.setSurfaceTextureListener(textureListener);
+    protected void onStart() {
+        super.onStart();
+        // Bound use cases reopen the camera by themselves when the screen comes back
+        if (cameraProvider != null && camera != null) {
+            requestPreview("resume");
         }
     }
 
     @Override
     protected void onPause() {
-        closeCamera();
-        stopBackgroundThread();
+        cancelPulseScan();
         super.onPause();
     }
 
-    private void startBackgroundThread() {
-        backgroundThread = new HandlerThread("Camera Background");
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
-    }
-
-    private void stopBackgroundThread() {
-        if (backgroundThread != null) {
-            backgroundThread.quitSafely();
-            try {
-                backgroundThread.join();
-                backgroundThread = null;
-                backgroundHandler = null;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    protected void onDestroy() {
+        faceDetector.close();
+        analysisExecutor.shutdown();
+        super.onDestroy();
     }
 
     @Override
@@ -561,4 +653,4 @@ public class FaceScanActivity extends BaseActivity {
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Decides whether the fall detection sensors should run at full rate (ACTIVE) or in a
+ * low-rate IDLE mode, based on whether the phone is being moved.
+ * The phone is still while every accelerometer sample stays close to a reference
+ * gravity vector; STILL_TIMEOUT of stillness drops to IDLE and any motion returns to ACTIVE.
+ * Also keeps the transition count and time spent in each state.
+ */
+public class ActivityStateScheduler {
+
+    public static final int STATE_ACTIVE = 0;
+    public static final int STATE_IDLE = 1;
+    private static final int STATE_COUNT = 2;
+
+    public interface Listener {
+        void onStateChanged(int newState, long timestampNs);
+    }
+
+    private static final float G = 9.81f;
+    // Deviation of |a| from 1 g, or of any axis from the reference vector, that counts as motion
+    public static final float DEFAULT_MOTION_THRESHOLD = 0.6f;
+    public static final long DEFAULT_STILL_TIMEOUT_NS = 60_000_000_000L;
+
+    private final float minMagSq;
+    private final float maxMagSq;
+    private final float axisThreshold;
+    private final long stillTimeoutNs;
+    private final Listener listener;
+
+    private int state = STATE_ACTIVE;
+    private long stateEnteredNs = Long.MIN_VALUE;
+    private long lastMotionNs = Long.MIN_VALUE;
+    private boolean hasReference = false;
+    private float refX;
+    private float refY;
+    private float refZ;
+
+    private long transitions = 0;
+    private final long[] timeInStateNs = new long[STATE_COUNT];
+    private final long[] entriesPerState = new long[STATE_COUNT];
+
+    public ActivityStateScheduler(Listener listener) {
+        this(DEFAULT_MOTION_THRESHOLD, DEFAULT_STILL_TIMEOUT_NS, listener);
+    }
+
+    public ActivityStateScheduler(float motionThreshold, long stillTimeoutNs, Listener listener) {
+        this.minMagSq = (G - motionThreshold) * (G - motionThreshold);
+        this.maxMagSq = (G + motionThreshold) * (G + motionThreshold);
+        this.axisThreshold = motionThreshold;
+        this.stillTimeoutNs = stillTimeoutNs;
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds one accelerometer sample (m/s^2). Works at any sampling rate.
+     */
+    public void onAccelerometer(long timestampNs, float x, float y, float z) {
+        if (stateEnteredNs == Long.MIN_VALUE) {
+            stateEnteredNs = timestampNs;
+            lastMotionNs = timestampNs;
+        }
+
+        float magSq = x*x + y*y + z*z;
+        boolean moving = magSq < minMagSq || magSq > maxMagSq || !hasReference
+                || Math.abs(x - refX) > axisThreshold
+                || Math.abs(y - refY) > axisThreshold
+                || Math.abs(z - refZ) > axisThreshold;
+
+        if (moving) {
+            // Stillness is measured against the attitude the phone comes to rest in
+            refX = x;
+            refY = y;
+            refZ = z;
+            hasReference = true;
+            lastMotionNs = timestampNs;
+            if (state == STATE_IDLE) {
+                transition(STATE_ACTIVE, timestampNs);
+            }
+        } else if (state == STATE_ACTIVE && timestampNs - lastMotionNs > stillTimeoutNs) {
+            transition(STATE_IDLE, timestampNs);
+        }
+    }
+
+    /**
+     * Hardware motion trigger (e.g. significant motion) fired while idle.
+     */
+    public void onMotionTrigger(long timestampNs) {
+        lastMotionNs = timestampNs;
+        hasReference = false;
+        if (state == STATE_IDLE) {
+            transition(STATE_ACTIVE, timestampNs);
+        }
+    }
+
+    private void transition(int newState, long timestampNs) {
+        timeInStateNs[state] += Math.max(0, timestampNs - stateEnteredNs);
+        state = newState;
+        stateEnteredNs = timestampNs;
+        entriesPerState[newState]++;
+        transitions++;
+        if (listener != null) {
+            listener.onStateChanged(newState, timestampNs);
+        }
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /** Last sample or trigger that showed motion, Long.MIN_VALUE before the first sample. */
+    public long getLastMotionNs() {
+        return lastMotionNs;
+    }
+
+    public long getTransitions() {
+        return transitions;
+    }
+
+    public long getEntries(int state) {
+        return entriesPerState[state];
+    }
+
+    /**
+     * Total time spent in the given state, including the current stay up to nowNs.
+     */
+    public long getTimeInStateNs(int state, long nowNs) {
+        long total = timeInStateNs[state];
+        if (state == this.state && stateEnteredNs != Long.MIN_VALUE) {
+            total += Math.max(0, nowNs - stateEnteredNs);
+        }
+        return total;
+    }
+
+    public static String stateName(int state) {
+        return state == STATE_IDLE ? "idle" : "active";
+    }
+
+    public void dump(StringBuilder out, long nowNs) {
+        long active = getTimeInStateNs(STATE_ACTIVE, nowNs);
+        long idle = getTimeInStateNs(STATE_IDLE, nowNs);
+        long total = Math.max(1, active + idle);
+        out.append("activity_state=").append(stateName(state)).append('\n');
+        out.append("activity_transitions=").append(transitions).append('\n');
+        out.append("activity_active_s=").append(active / 1_000_000_000L)
+                .append(" (").append(active * 100 / total).append("%)\n");
+        out.append("activity_idle_s=").append(idle / 1_000_000_000L)
+                .append(" (").append(idle * 100 / total).append("%)\n");
+        out.append("activity_idle_entries=").append(entriesPerState[STATE_IDLE]).append('\n');
+    }
+}
@@ -0,0 +1,217 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The threshold rule (a gyroscope spike shortly after an impact) with thresholds derived from
+ * the wearer's own activity. P2 sketches track the 99th percentile of acceleration and rotation
+ * magnitudes while the phone is moving; the thresholds are that percentile times a margin,
+ * clamped to a safe range. Each day's percentiles are folded into a running average, so the
+ * thresholds follow slow changes without reacting to a single unusual day.
+ *
+ * Until MIN_SKETCH_SAMPLES of activity have been seen the ThresholdFallDetector constants apply.
+ * The whole state is a few hundred bytes, see writeState().
+ */
+public class AdaptiveFallDetector implements FallDetector {
+
+    public static final String NAME = "adaptive";
+
+    private static final int STATE_MAGIC = 0x45434154; // "ECAT"
+    private static final short STATE_VERSION = 1;
+
+    private static final float G = 9.81f;
+    private static final double QUANTILE = 0.99;
+    // Threshold = margin * p99 of everyday activity, within these bounds
+    public static final float IMPACT_MARGIN = 1.6f;
+    public static final float MIN_IMPACT_THRESHOLD = 2.0f * G;
+    public static final float MAX_IMPACT_THRESHOLD = 3.5f * G;
+    public static final float GYRO_MARGIN = 1.5f;
+    public static final float MIN_GYRO_THRESHOLD = 1.5f;
+    public static final float MAX_GYRO_THRESHOLD = 5.0f;
+    // One sketched sample in five, 10 Hz on the fused clock
+    private static final int DECIMATION = 5;
+    // Half an hour of movement at the sketch rate before the sketches are trusted
+    public static final long MIN_SKETCH_SAMPLES = 18_000;
+    private static final int RECOMPUTE_EVERY = 600;
+    public static final long DAY_NS = 24L * 3600 * 1_000_000_000L;
+    private static final float DAY_WEIGHT = 0.3f;
+    // Samples this close to rest describe lying around, not activity
+    private static final float REST_BAND = 0.1f * G;
+    private static final float REST_GYRO = 0.3f;
+
+    private final P2Quantile accelSketch = new P2Quantile(QUANTILE);
+    private final P2Quantile gyroSketch = new P2Quantile(QUANTILE);
+    private final long windowNs = ThresholdFallDetector.WINDOW_NS;
+    private final long cooldownNs = ThresholdFallDetector.COOLDOWN_NS;
+
+    private long dayStartNs = Long.MIN_VALUE;
+    private int days = 0;
+    // Running averages of the daily percentiles, NaN until a full day was seen
+    private float averageAccel = Float.NaN;
+    private float averageGyro = Float.NaN;
+
+    private float impactThreshold = ThresholdFallDetector.IMPACT_THRESHOLD;
+    private float gyroThreshold = ThresholdFallDetector.GYRO_THRESHOLD;
+    private float impactSq = impactThreshold * impactThreshold;
+    private float gyroSq = gyroThreshold * gyroThreshold;
+
+    private int samplesUntilSketch = DECIMATION;
+    private int sketchesUntilRecompute = RECOMPUTE_EVERY;
+    private long lastImpactNs = Long.MIN_VALUE;
+    private long lastFallTimeNs = Long.MIN_VALUE;
+    private long detections = 0;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        return onSample(timestampNs, ax, ay, az, gx, gy, gz,
+                ax * ax + ay * ay + az * az, gx * gx + gy * gy + gz * gz);
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                            float accelPeakSq, float gyroPeakSq) {
+        // The baseline is sketched from the fused samples, the checks use the raw peaks
+        if (--samplesUntilSketch == 0) {
+            samplesUntilSketch = DECIMATION;
+            sketch(timestampNs, ax * ax + ay * ay + az * az, gx * gx + gy * gy + gz * gz);
+        }
+
+        if (accelPeakSq > impactSq) {
+            lastImpactNs = timestampNs;
+        }
+        if (gyroPeakSq > gyroSq && lastImpactNs != Long.MIN_VALUE && timestampNs - lastImpactNs < windowNs
+                && (lastFallTimeNs == Long.MIN_VALUE || timestampNs - lastFallTimeNs > cooldownNs)) {
+            lastFallTimeNs = timestampNs;
+            detections++;
+            return true;
+        }
+        return false;
+    }
+
+    private void sketch(long timestampNs, float magSq, float rotSq) {
+        if (dayStartNs == Long.MIN_VALUE || timestampNs < dayStartNs) {
+            // First sample, or the sensor clock restarted with the device
+            dayStartNs = timestampNs;
+        } else if (timestampNs - dayStartNs >= DAY_NS) {
+            endDay();
+            dayStartNs = timestampNs;
+        }
+
+        float mag = (float) Math.sqrt(magSq);
+        float rot = (float) Math.sqrt(rotSq);
+        if (Math.abs(mag - G) < REST_BAND && rot < REST_GYRO) return;
+        accelSketch.add(mag);
+        gyroSketch.add(rot);
+        if (--sketchesUntilRecompute == 0) {
+            sketchesUntilRecompute = RECOMPUTE_EVERY;
+            recomputeThresholds();
+        }
+    }
+
+    private void endDay() {
+        if (accelSketch.getCount() >= MIN_SKETCH_SAMPLES) {
+            float accel = (float) accelSketch.getQuantile();
+            float gyro = (float) gyroSketch.getQuantile();
+            averageAccel = Float.isNaN(averageAccel) ? accel : averageAccel + DAY_WEIGHT * (accel - averageAccel);
+            averageGyro = Float.isNaN(averageGyro) ? gyro : averageGyro + DAY_WEIGHT * (gyro - averageGyro);
+            days++;
+        }
+        accelSketch.reset();
+        gyroSketch.reset();
+        recomputeThresholds();
+    }
+
+    private void recomputeThresholds() {
+        float accel = averageAccel;
+        float gyro = averageGyro;
+        if (Float.isNaN(accel)) {
+            if (accelSketch.getCount() < MIN_SKETCH_SAMPLES) return;
+            accel = (float) accelSketch.getQuantile();
+            gyro = (float) gyroSketch.getQuantile();
+        }
+        impactThreshold = clamp(IMPACT_MARGIN * accel, MIN_IMPACT_THRESHOLD, MAX_IMPACT_THRESHOLD);
+        gyroThreshold = clamp(GYRO_MARGIN * gyro, MIN_GYRO_THRESHOLD, MAX_GYRO_THRESHOLD);
+        impactSq = impactThreshold * impactThreshold;
+        gyroSq = gyroThreshold * gyroThreshold;
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public float getImpactThreshold() {
+        return impactThreshold;
+    }
+
+    public float getGyroThreshold() {
+        return gyroThreshold;
+    }
+
+    /**
+     * Sketches and daily averages, so a restarted service keeps its calibration.
+     * Layout: MAGIC (int), VERSION (short), dayStartNs (long), days (int), the two averages
+     * (float), then the acceleration and rotation sketches as written by P2Quantile.
+     */
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(STATE_MAGIC);
+        out.writeShort(STATE_VERSION);
+        out.writeLong(dayStartNs);
+        out.writeInt(days);
+        out.writeFloat(averageAccel);
+        out.writeFloat(averageGyro);
+        accelSketch.write(out);
+        gyroSketch.write(out);
+    }
+
+    public void readState(DataInput in) throws IOException {
+        if (in.readInt() != STATE_MAGIC) throw new IOException("Not an adaptive detector state");
+        short version = in.readShort();
+        if (version != STATE_VERSION) throw new IOException("Unsupported state version " + version);
+        dayStartNs = in.readLong();
+        days = in.readInt();
+        averageAccel = in.readFloat();
+        averageGyro = in.readFloat();
+        accelSketch.read(in);
+        gyroSketch.read(in);
+        recomputeThresholds();
+    }
+
+    public void dump(StringBuilder out) {
+        out.append("adaptive_impact_threshold_g=").append(impactThreshold / G).append('\n');
+        out.append("adaptive_gyro_threshold=").append(gyroThreshold).append('\n');
+        out.append("adaptive_day_accel_p99_g=").append((float) accelSketch.getQuantile() / G).append('\n');
+        out.append("adaptive_day_gyro_p99=").append((float) gyroSketch.getQuantile()).append('\n');
+        out.append("adaptive_day_samples=").append(accelSketch.getCount()).append('\n');
+        out.append("adaptive_average_accel_p99_g=").append(averageAccel / G).append('\n');
+        out.append("adaptive_average_gyro_p99=").append(averageGyro).append('\n');
+        out.append("adaptive_days=").append(days).append('\n');
+        out.append("adaptive_detections=").append(detections).append('\n');
+    }
+
+    /** Also forgets the calibration, so replayed traces do not influence each other. */
+    @Override
+    public void reset() {
+        accelSketch.reset();
+        gyroSketch.reset();
+        dayStartNs = Long.MIN_VALUE;
+        days = 0;
+        averageAccel = Float.NaN;
+        averageGyro = Float.NaN;
+        impactThreshold = ThresholdFallDetector.IMPACT_THRESHOLD;
+        gyroThreshold = ThresholdFallDetector.GYRO_THRESHOLD;
+        impactSq = impactThreshold * impactThreshold;
+        gyroSq = gyroThreshold * gyroThreshold;
+        samplesUntilSketch = DECIMATION;
+        sketchesUntilRecompute = RECOMPUTE_EVERY;
+        lastImpactNs = Long.MIN_VALUE;
+        lastFallTimeNs = Long.MIN_VALUE;
+        detections = 0;
+    }
+}
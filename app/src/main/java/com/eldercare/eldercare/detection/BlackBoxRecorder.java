@@ -0,0 +1,204 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Continuously records raw sensor events into a fixed-size memory-mapped circular file, so
+ * the signal around a detection can be kept for review. record() only stores primitives
+ * into the mapping: no allocation, no system call. The file survives process restarts.
+ *
+ * freeze() marks a detection; once the samples after it have been recorded, the surrounding
+ * span is written on the given executor to its own file in the binary TraceFormat, which
+ * TraceReplay can read directly. Events are stored in arrival order, which with batching is
+ * one sensor's batch after the other's, so the span is picked by timestamp and sorted.
+ *
+ * Ring file layout: MAGIC (int), VERSION (short), capacity (int), written (long), padding up to
+ * HEADER_BYTES, then capacity records of TraceFormat.RECORD_BYTES.
+ */
+public class BlackBoxRecorder {
+
+    private static final int MAGIC = 0x45434242; // "ECBB"
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int OFFSET_CAPACITY = 6;
+    private static final int OFFSET_WRITTEN = 10;
+    private static final int RECORD = TraceFormat.RECORD_BYTES;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer ring;
+    private final int capacity;
+    private final File freezeDir;
+    private final int maxFrozenFiles;
+    private final Executor executor;
+    private final long beforeNs;
+    private final long afterNs;
+
+    private long written;
+    private long freezeCenterNs = Long.MIN_VALUE;
+    private long freezeUntilNs = Long.MIN_VALUE;
+    // Bit per sensor code recorded since the last write, and those yet to pass freezeUntilNs
+    private int seenSensors = 0;
+    private int waitingSensors = 0;
+    private volatile long frozenCount = 0;
+
+    public BlackBoxRecorder(File ringFile, int capacity, File freezeDir, int maxFrozenFiles,
+                            long beforeNs, long afterNs, Executor executor) throws IOException {
+        this.capacity = capacity;
+        this.freezeDir = freezeDir;
+        this.maxFrozenFiles = maxFrozenFiles;
+        this.beforeNs = beforeNs;
+        this.afterNs = afterNs;
+        this.executor = executor;
+
+        File parent = ringFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        file = new RandomAccessFile(ringFile, "rw");
+        long size = HEADER_BYTES + (long) capacity * RECORD;
+        ring = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        // Resume an existing ring of the same geometry, otherwise start empty
+        if (ring.getInt(0) == MAGIC && ring.getShort(4) == VERSION && ring.getInt(OFFSET_CAPACITY) == capacity) {
+            written = ring.getLong(OFFSET_WRITTEN);
+        } else {
+            ring.putInt(0, MAGIC);
+            ring.putShort(4, VERSION);
+            ring.putInt(OFFSET_CAPACITY, capacity);
+            written = 0;
+            ring.putLong(OFFSET_WRITTEN, 0);
+        }
+    }
+
+    public void record(long timestampNs, byte sensor, float x, float y, float z) {
+        int offset = HEADER_BYTES + (int) (written % capacity) * RECORD;
+        ring.putLong(offset, timestampNs);
+        ring.put(offset + 8, sensor);
+        ring.putFloat(offset + 9, x);
+        ring.putFloat(offset + 13, y);
+        ring.putFloat(offset + 17, z);
+        written++;
+        ring.putLong(OFFSET_WRITTEN, written);
+
+        int bit = 1 << (sensor & 31);
+        seenSensors |= bit;
+        if (freezeUntilNs != Long.MIN_VALUE && timestampNs >= freezeUntilNs) {
+            waitingSensors &= ~bit;
+            // A batch of one sensor can run past the span before the other's batch arrives;
+            // a sensor that went quiet is given up on a whole span later
+            if (waitingSensors == 0 || timestampNs >= freezeUntilNs + afterNs) {
+                final long center = freezeCenterNs;
+                final long end = written;
+                freezeUntilNs = Long.MIN_VALUE;
+                seenSensors = 0;
+                executor.execute(() -> writeFrozen(center, end));
+            }
+        }
+    }
+
+    /**
+     * Keeps beforeNs of samples ahead of timestampNs and afterNs after it.
+     * A second freeze before the first one is written extends the same span.
+     */
+    public void freeze(long timestampNs) {
+        if (freezeUntilNs == Long.MIN_VALUE) {
+            freezeCenterNs = timestampNs;
+        }
+        freezeUntilNs = timestampNs + afterNs;
+        waitingSensors = seenSensors;
+    }
+
+    private void writeFrozen(long centerNs, long end) {
+        long fromNs = centerNs - beforeNs;
+        long untilNs = centerNs + afterNs;
+        long start = Math.max(0, end - capacity);
+        ByteBuffer view = ring.duplicate();
+
+        // Arrival order is not timestamp order across sensors, so every record in the ring is
+        // checked; the sort is stable and keeps each sensor's own order for equal timestamps
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            long timestampNs = view.getLong(offsetOf(sequence));
+            if (timestampNs >= fromNs && timestampNs <= untilNs) count++;
+        }
+        if (count == 0) return;
+        Long[] selected = new Long[count];
+        count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            long timestampNs = view.getLong(offsetOf(sequence));
+            if (timestampNs >= fromNs && timestampNs <= untilNs) selected[count++] = sequence;
+        }
+        Arrays.sort(selected, (a, b) -> Long.compare(view.getLong(offsetOf(a)), view.getLong(offsetOf(b))));
+
+        File out = new File(freezeDir, "fall_" + centerNs + TraceFormat.BINARY_EXTENSION);
+        try {
+            if (!freezeDir.isDirectory() && !freezeDir.mkdirs()) {
+                throw new IOException("Cannot create " + freezeDir);
+            }
+            try (RandomAccessFile target = new RandomAccessFile(out, "rw")) {
+                FileChannel channel = target.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(TraceFormat.HEADER_BYTES);
+                header.putInt(TraceFormat.MAGIC).putShort(TraceFormat.VERSION).flip();
+                channel.write(header);
+                ByteBuffer records = ByteBuffer.allocate(count * RECORD);
+                for (Long sequence : selected) {
+                    int offset = offsetOf(sequence);
+                    view.limit(offset + RECORD);
+                    view.position(offset);
+                    records.put(view);
+                    view.clear();
+                }
+                records.flip();
+                while (records.hasRemaining()) channel.write(records);
+                target.setLength(channel.position());
+            }
+            frozenCount++;
+            pruneFrozen();
+        } catch (IOException e) {
+            out.delete();
+        }
+    }
+
+    private int offsetOf(long sequence) {
+        return HEADER_BYTES + (int) (sequence % capacity) * RECORD;
+    }
+
+    private void pruneFrozen() {
+        File[] frozen = freezeDir.listFiles((dir, name) -> name.startsWith("fall_"));
+        if (frozen == null || frozen.length <= maxFrozenFiles) return;
+        Arrays.sort(frozen, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (int i = 0; i < frozen.length - maxFrozenFiles; i++) {
+            frozen[i].delete();
+        }
+    }
+
+    public File getFreezeDir() {
+        return freezeDir;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getFrozenCount() {
+        return frozenCount;
+    }
+
+    public void dump(StringBuilder out) {
+        out.append("blackbox_records=").append(written).append('\n');
+        out.append("blackbox_capacity=").append(capacity).append('\n');
+        out.append("blackbox_frozen=").append(frozenCount).append('\n');
+    }
+
+    public void close() throws IOException {
+        ring.force();
+        file.close();
+    }
+}
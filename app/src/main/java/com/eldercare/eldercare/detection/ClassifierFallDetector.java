@@ -0,0 +1,102 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Runs a FallClassifier over WindowFeatureExtractor features. The model is evaluated once
+ * per hop rather than on every sample, and only while the window holds an impact-sized peak.
+ */
+public class ClassifierFallDetector implements FallDetector {
+
+    public static final String NAME = "classifier";
+
+    private static final float G = 9.81f;
+    // Two seconds of samples on the 50 Hz fused clock, evaluated every 200 ms
+    private static final int WINDOW_SAMPLES = 100;
+    private static final int HOP_SAMPLES = 10;
+    // Windows without at least this peak are not worth scoring
+    private static final float CANDIDATE_PEAK = 1.8f * G;
+    private static final float CANDIDATE_PEAK_SQ = CANDIDATE_PEAK * CANDIDATE_PEAK;
+    private static final long COOLDOWN_NS = ThresholdFallDetector.COOLDOWN_NS;
+
+    private final FallClassifier model;
+    private final WindowFeatureExtractor features = new WindowFeatureExtractor(WINDOW_SAMPLES);
+    private final float[] featureVector = new float[WindowFeatureExtractor.FEATURE_COUNT];
+    private final int[] scratch;
+
+    private int samplesUntilHop = HOP_SAMPLES;
+    // Samples since a raw peak above CANDIDATE_PEAK, which the fused window may have averaged down
+    private int samplesSinceRawCandidate = WINDOW_SAMPLES;
+    private long lastFallTimeNs = Long.MIN_VALUE;
+    private int lastScore = Integer.MIN_VALUE;
+    private long windowsScored = 0;
+
+    public ClassifierFallDetector(FallClassifier model) {
+        if (model.getFeatureCount() != WindowFeatureExtractor.FEATURE_COUNT) {
+            throw new IllegalArgumentException("Model expects " + model.getFeatureCount()
+                    + " features, extractor provides " + WindowFeatureExtractor.FEATURE_COUNT);
+        }
+        this.model = model;
+        this.scratch = new int[model.getFeatureCount()];
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        return onSample(timestampNs, ax, ay, az, gx, gy, gz, ax * ax + ay * ay + az * az, 0f);
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                            float accelPeakSq, float gyroPeakSq) {
+        features.update(timestampNs, ax, ay, az, gx, gy, gz);
+        if (accelPeakSq > CANDIDATE_PEAK_SQ) {
+            samplesSinceRawCandidate = 0;
+        } else if (samplesSinceRawCandidate < WINDOW_SAMPLES) {
+            samplesSinceRawCandidate++;
+        }
+        if (--samplesUntilHop > 0) return false;
+        samplesUntilHop = HOP_SAMPLES;
+
+        if (features.getPeakMagnitude() < CANDIDATE_PEAK && samplesSinceRawCandidate >= WINDOW_SAMPLES) return false;
+        if (lastFallTimeNs != Long.MIN_VALUE && timestampNs - lastFallTimeNs <= COOLDOWN_NS) return false;
+
+        lastScore = scoreWindow();
+        if (model.isFall(lastScore)) {
+            lastFallTimeNs = timestampNs;
+            return true;
+        }
+        return false;
+    }
+
+    /** Scores the current window; also used by the benchmark. */
+    int scoreWindow() {
+        features.copyFeatures(featureVector);
+        windowsScored++;
+        return model.score(featureVector, scratch);
+    }
+
+    public WindowFeatureExtractor getFeatures() {
+        return features;
+    }
+
+    public int getLastScore() {
+        return lastScore;
+    }
+
+    public long getWindowsScored() {
+        return windowsScored;
+    }
+
+    @Override
+    public void reset() {
+        features.reset();
+        samplesUntilHop = HOP_SAMPLES;
+        samplesSinceRawCandidate = WINDOW_SAMPLES;
+        lastFallTimeNs = Long.MIN_VALUE;
+        lastScore = Integer.MIN_VALUE;
+        windowsScored = 0;
+    }
+}
@@ -0,0 +1,113 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Microbenchmark for the detection hot path on synthetic fused samples.
+ * Reports ns per sample for each engine, the orientation estimator and the gait analyzer,
+ * and ns per scored window for the classifier.
+ *
+ * Usage: DetectorBenchmark [--model file] [--samples n]
+ */
+public class DetectorBenchmark {
+
+    private static final long PERIOD_NS = 20_000_000L;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        String modelPath = "app/src/main/assets/fall_classifier.ecfm";
+        int samples = 2_000_000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--model")) modelPath = args[++i];
+            else if (args[i].equals("--samples")) samples = Integer.parseInt(args[++i]);
+        }
+
+        FallClassifier model;
+        try (InputStream in = new FileInputStream(modelPath)) {
+            model = FallClassifier.read(in);
+        }
+
+        long[] timestamps = new long[samples];
+        float[] accel = new float[samples * 3];
+        float[] gyro = new float[samples * 3];
+        generate(timestamps, accel, gyro);
+
+        for (String name : FallDetectors.names()) {
+            FallDetector detector = FallDetectors.create(name, model);
+            double ns = bestOf(() -> {
+                detector.reset();
+                return detector.process(timestamps, accel, gyro, 0, timestamps.length, null);
+            }) / samples;
+            System.out.printf("%-12s %8.1f ns/sample%n", name, ns);
+        }
+
+        OrientationEstimator orientation = new OrientationEstimator();
+        double nsOrientation = bestOf(() -> {
+            orientation.reset();
+            for (int i = 0, j = 0; i < timestamps.length; i++, j += 3) {
+                orientation.update(timestamps[i], accel[j], accel[j + 1], accel[j + 2],
+                        gyro[j], gyro[j + 1], gyro[j + 2]);
+            }
+            return (long) (orientation.getGravityZ() * 1000);
+        }) / samples;
+        System.out.printf("%-12s %8.1f ns/sample%n", "orientation", nsOrientation);
+
+        // The noise stays in the walking band, so every window is analysed: the worst case
+        GaitAnalyzer gait = new GaitAnalyzer(PERIOD_NS);
+        double nsGait = bestOf(() -> {
+            gait.reset();
+            for (int i = 0, j = 0; i < timestamps.length; i++, j += 3) {
+                gait.onSample(timestamps[i], accel[j], accel[j + 1], accel[j + 2]);
+            }
+            return (long) gait.getCadence();
+        }) / samples;
+        System.out.printf("%-12s %8.1f ns/sample%n", "gait", nsGait);
+
+        ClassifierFallDetector classifier = new ClassifierFallDetector(model);
+        classifier.process(timestamps, accel, gyro, 0, 1000, null);
+        final int windows = 1_000_000;
+        double nsPerWindow = bestOf(() -> {
+            int sink = 0;
+            for (int i = 0; i < windows; i++) sink += classifier.scoreWindow();
+            return sink;
+        }) / windows;
+        System.out.printf("%-12s %8.1f ns/window (features + inference)%n", "classifier", nsPerWindow);
+    }
+
+    interface Body {
+        long run();
+    }
+
+    static double bestOf(Body body) {
+        long best = Long.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 42) System.out.print("");
+        return best;
+    }
+
+    /** Walking-like noise around 1 g with an impact and rotation every 30 s. */
+    static void generate(long[] timestamps, float[] accel, float[] gyro) {
+        Random random = new Random(1);
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = i * PERIOD_NS;
+            int j = i * 3;
+            accel[j] = (float) random.nextGaussian();
+            accel[j + 1] = (float) random.nextGaussian();
+            accel[j + 2] = 9.81f + (float) random.nextGaussian();
+            gyro[j] = (float) random.nextGaussian() * 0.2f;
+            gyro[j + 1] = (float) random.nextGaussian() * 0.2f;
+            gyro[j + 2] = (float) random.nextGaussian() * 0.2f;
+            int phase = i % 1500;
+            if (phase < 3) accel[j + 2] = 35f;
+            if (phase >= 3 && phase < 15) gyro[j] = 5f;
+        }
+    }
+}
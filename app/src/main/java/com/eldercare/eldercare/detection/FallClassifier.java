@@ -0,0 +1,406 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-point fall classifier over a window feature vector, either a logistic model or a
+ * gradient-boosted tree ensemble. Features are quantised once with per-feature scales;
+ * everything after that is integer arithmetic on flat arrays, so score() does not allocate.
+ *
+ * Model file (big-endian): MAGIC (int), VERSION (short), type (byte), featureCount (byte),
+ * decision threshold (int), featureCount scales (float), then
+ *   logistic: bias (int), featureCount weights (int), score = bias + sum(w * q) >> WEIGHT_SHIFT
+ *   trees: treeCount (short), and per tree nodeCount (short) followed by the nodes as
+ *          feature (byte, -1 for a leaf), value (int), left (short), right (short).
+ *          Inner nodes go left when q[feature] <= value, leaves add value to the score.
+ *          Child indices are relative to the first node of the tree and point forward.
+ * Scores are log-odds in units of 1 / 256.
+ *
+ * The same model has a text form, which is what gets reviewed and edited; main() compiles it
+ * to the binary file and prints a binary file back as text. Lines, # starts a comment:
+ *   type trees|logistic
+ *   threshold score
+ *   scale feature factor                (every feature, in order)
+ *   bias score, weight feature w        (logistic, every feature in order)
+ *   tree                                (trees: starts the next tree, its nodes follow)
+ *   node index feature value left right (index, left and right count from the tree's first node)
+ *   leaf index score
+ * Features are named as in WindowFeatureExtractor.FEATURE_NAMES, or f0, f1, ... otherwise.
+ */
+public class FallClassifier {
+
+    public static final int MAGIC = 0x4543464D; // "ECFM"
+    public static final short VERSION = 1;
+    public static final byte TYPE_LOGISTIC = 0;
+    public static final byte TYPE_TREES = 1;
+    public static final int SCORE_ONE = 256;
+    private static final int WEIGHT_SHIFT = 8;
+
+    private final byte type;
+    private final int featureCount;
+    private final float[] scales;
+    private final int threshold;
+
+    private int bias;
+    private int[] weights;
+
+    private int[] treeRoots;
+    private byte[] nodeFeature;
+    private int[] nodeValue;
+    private short[] nodeLeft;
+    private short[] nodeRight;
+
+    private FallClassifier(byte type, float[] scales, int threshold) {
+        this.type = type;
+        this.featureCount = scales.length;
+        this.scales = scales;
+        this.threshold = threshold;
+    }
+
+    public static FallClassifier logistic(float[] scales, int bias, int[] weights, int threshold) {
+        if (weights.length != scales.length) throw new IllegalArgumentException("One weight per feature");
+        FallClassifier model = new FallClassifier(TYPE_LOGISTIC, scales, threshold);
+        model.bias = bias;
+        model.weights = weights;
+        return model;
+    }
+
+    /**
+     * Tree ensemble from flat node arrays with global child indices.
+     */
+    public static FallClassifier trees(float[] scales, int[] treeRoots, byte[] nodeFeature, int[] nodeValue,
+                                       short[] nodeLeft, short[] nodeRight, int threshold) {
+        FallClassifier model = new FallClassifier(TYPE_TREES, scales, threshold);
+        model.treeRoots = treeRoots;
+        model.nodeFeature = nodeFeature;
+        model.nodeValue = nodeValue;
+        model.nodeLeft = nodeLeft;
+        model.nodeRight = nodeRight;
+        return model;
+    }
+
+    public static FallClassifier read(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) throw new IOException("Not a fall classifier model");
+        short version = in.readShort();
+        if (version != VERSION) throw new IOException("Unsupported model version " + version);
+        byte type = in.readByte();
+        int featureCount = in.readUnsignedByte();
+        int threshold = in.readInt();
+        float[] scales = new float[featureCount];
+        for (int i = 0; i < featureCount; i++) scales[i] = in.readFloat();
+
+        if (type == TYPE_LOGISTIC) {
+            int bias = in.readInt();
+            int[] weights = new int[featureCount];
+            for (int i = 0; i < featureCount; i++) weights[i] = in.readInt();
+            return logistic(scales, bias, weights, threshold);
+        }
+        if (type != TYPE_TREES) throw new IOException("Unknown model type " + type);
+
+        int treeCount = in.readUnsignedShort();
+        int[] roots = new int[treeCount];
+        byte[] feature = new byte[0];
+        int[] value = new int[0];
+        short[] left = new short[0];
+        short[] right = new short[0];
+        int total = 0;
+        for (int t = 0; t < treeCount; t++) {
+            int nodes = in.readUnsignedShort();
+            roots[t] = total;
+            feature = Arrays.copyOf(feature, total + nodes);
+            value = Arrays.copyOf(value, total + nodes);
+            left = Arrays.copyOf(left, total + nodes);
+            right = Arrays.copyOf(right, total + nodes);
+            for (int n = total; n < total + nodes; n++) {
+                feature[n] = in.readByte();
+                value[n] = in.readInt();
+                left[n] = (short) (total + in.readShort());
+                right[n] = (short) (total + in.readShort());
+                if (feature[n] >= featureCount) throw new IOException("Node uses unknown feature " + feature[n]);
+                // Children must come later in the same tree, so evaluation always terminates
+                if (feature[n] >= 0 && (left[n] <= n || right[n] <= n
+                        || left[n] >= total + nodes || right[n] >= total + nodes)) {
+                    throw new IOException("Malformed tree " + t);
+                }
+            }
+            total += nodes;
+        }
+        return trees(scales, roots, feature, value, left, right, threshold);
+    }
+
+    public void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeByte(type);
+        out.writeByte(featureCount);
+        out.writeInt(threshold);
+        for (float scale : scales) out.writeFloat(scale);
+
+        if (type == TYPE_LOGISTIC) {
+            out.writeInt(bias);
+            for (int w : weights) out.writeInt(w);
+        } else {
+            out.writeShort(treeRoots.length);
+            for (int t = 0; t < treeRoots.length; t++) {
+                int start = treeRoots[t];
+                int end = t + 1 < treeRoots.length ? treeRoots[t + 1] : nodeFeature.length;
+                out.writeShort(end - start);
+                for (int n = start; n < end; n++) {
+                    out.writeByte(nodeFeature[n]);
+                    out.writeInt(nodeValue[n]);
+                    out.writeShort(nodeLeft[n] - start);
+                    out.writeShort(nodeRight[n] - start);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    /** Reads the text form, see the class comment. */
+    public static FallClassifier readText(Reader input) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        String type = null;
+        Integer threshold = null;
+        List<Float> scales = new ArrayList<>();
+        Integer bias = null;
+        List<Integer> weights = new ArrayList<>();
+        List<Integer> roots = new ArrayList<>();
+        List<int[]> nodes = new ArrayList<>();
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] f = line.split("\\s+");
+            try {
+                switch (f[0]) {
+                    case "type":
+                        expect(f, 2);
+                        type = f[1];
+                        break;
+                    case "threshold":
+                        expect(f, 2);
+                        threshold = Integer.parseInt(f[1]);
+                        break;
+                    case "scale":
+                        expect(f, 3);
+                        checkFeature(f[1], scales.size());
+                        scales.add(Float.parseFloat(f[2]));
+                        break;
+                    case "bias":
+                        expect(f, 2);
+                        bias = Integer.parseInt(f[1]);
+                        break;
+                    case "weight":
+                        expect(f, 3);
+                        checkFeature(f[1], weights.size());
+                        weights.add(Integer.parseInt(f[2]));
+                        break;
+                    case "tree":
+                        expect(f, 1);
+                        roots.add(nodes.size());
+                        break;
+                    case "node":
+                    case "leaf": {
+                        expect(f, f[0].equals("node") ? 6 : 3);
+                        if (roots.isEmpty()) throw new IOException("Node outside a tree");
+                        int root = roots.get(roots.size() - 1);
+                        if (Integer.parseInt(f[1]) != nodes.size() - root) {
+                            throw new IOException("Expected node " + (nodes.size() - root));
+                        }
+                        nodes.add(f[0].equals("node")
+                                ? new int[]{featureIndex(f[2]), Integer.parseInt(f[3]),
+                                        root + Integer.parseInt(f[4]), root + Integer.parseInt(f[5])}
+                                : new int[]{-1, Integer.parseInt(f[2]), nodes.size(), nodes.size()});
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown line");
+                }
+            } catch (IOException | RuntimeException e) {
+                throw new IOException("Line " + lineNumber + ": " + e.getMessage() + ": " + line, e);
+            }
+        }
+
+        if (threshold == null || scales.isEmpty()) throw new IOException("Missing threshold or scales");
+        float[] scaleArray = new float[scales.size()];
+        for (int i = 0; i < scaleArray.length; i++) scaleArray[i] = scales.get(i);
+        if ("logistic".equals(type)) {
+            if (bias == null || weights.size() != scales.size()) throw new IOException("Need a bias and a weight per feature");
+            int[] weightArray = new int[weights.size()];
+            for (int i = 0; i < weightArray.length; i++) weightArray[i] = weights.get(i);
+            return logistic(scaleArray, bias, weightArray, threshold);
+        }
+        if (!"trees".equals(type)) throw new IOException("Unknown model type " + type);
+        if (roots.isEmpty()) throw new IOException("No trees");
+        int[] rootArray = new int[roots.size()];
+        for (int i = 0; i < rootArray.length; i++) rootArray[i] = roots.get(i);
+        byte[] feature = new byte[nodes.size()];
+        int[] value = new int[nodes.size()];
+        short[] left = new short[nodes.size()];
+        short[] right = new short[nodes.size()];
+        for (int n = 0; n < nodes.size(); n++) {
+            int[] node = nodes.get(n);
+            if (node[0] >= scaleArray.length) throw new IOException("Node " + n + " uses unknown feature " + node[0]);
+            feature[n] = (byte) node[0];
+            value[n] = node[1];
+            left[n] = (short) node[2];
+            right[n] = (short) node[3];
+        }
+        // The binary reader checks the tree structure; going through it keeps one set of rules
+        FallClassifier model = trees(scaleArray, rootArray, feature, value, left, right, threshold);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        model.write(bytes);
+        return read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    /** Writes the text form, see the class comment. */
+    public void writeText(Appendable out) throws IOException {
+        out.append("type ").append(type == TYPE_LOGISTIC ? "logistic" : "trees").append('\n');
+        out.append("threshold ").append(String.valueOf(threshold)).append('\n');
+        for (int i = 0; i < featureCount; i++) {
+            out.append("scale ").append(featureName(i)).append(' ')
+                    .append(Float.toString(scales[i])).append('\n');
+        }
+        if (type == TYPE_LOGISTIC) {
+            out.append("bias ").append(String.valueOf(bias)).append('\n');
+            for (int i = 0; i < featureCount; i++) {
+                out.append("weight ").append(featureName(i)).append(' ').append(String.valueOf(weights[i])).append('\n');
+            }
+            return;
+        }
+        for (int t = 0; t < treeRoots.length; t++) {
+            int start = treeRoots[t];
+            int end = t + 1 < treeRoots.length ? treeRoots[t + 1] : nodeFeature.length;
+            out.append("tree\n");
+            for (int n = start; n < end; n++) {
+                if (nodeFeature[n] < 0) {
+                    out.append("leaf ").append(String.valueOf(n - start)).append(' ')
+                            .append(String.valueOf(nodeValue[n])).append('\n');
+                } else {
+                    out.append("node ").append(String.valueOf(n - start)).append(' ')
+                            .append(featureName(nodeFeature[n])).append(' ').append(String.valueOf(nodeValue[n]))
+                            .append(' ').append(String.valueOf(nodeLeft[n] - start))
+                            .append(' ').append(String.valueOf(nodeRight[n] - start)).append('\n');
+                }
+            }
+        }
+    }
+
+    private static void expect(String[] fields, int count) throws IOException {
+        if (fields.length != count) throw new IOException("Expected " + (count - 1) + " values");
+    }
+
+    private static void checkFeature(String name, int expected) throws IOException {
+        if (featureIndex(name) != expected) throw new IOException("Expected feature " + featureName(expected));
+    }
+
+    private static int featureIndex(String name) throws IOException {
+        String[] names = WindowFeatureExtractor.FEATURE_NAMES;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        if (name.matches("f\\d+")) return Integer.parseInt(name.substring(1));
+        throw new IOException("Unknown feature " + name);
+    }
+
+    private static String featureName(int index) {
+        String[] names = WindowFeatureExtractor.FEATURE_NAMES;
+        return index < names.length ? names[index] : "f" + index;
+    }
+
+    /**
+     * Quantises features into scratch (at least getFeatureCount() long) and returns the score.
+     */
+    public int score(float[] features, int[] scratch) {
+        for (int i = 0; i < featureCount; i++) {
+            scratch[i] = (int) (features[i] * scales[i]);
+        }
+
+        if (type == TYPE_LOGISTIC) {
+            long sum = 0;
+            for (int i = 0; i < featureCount; i++) {
+                sum += (long) weights[i] * scratch[i];
+            }
+            return bias + (int) (sum >> WEIGHT_SHIFT);
+        }
+
+        int score = 0;
+        for (int root : treeRoots) {
+            int n = root;
+            while (nodeFeature[n] >= 0) {
+                n = scratch[nodeFeature[n]] <= nodeValue[n] ? nodeLeft[n] : nodeRight[n];
+            }
+            score += nodeValue[n];
+        }
+        return score;
+    }
+
+    public boolean isFall(int score) {
+        return score >= threshold;
+    }
+
+    /** Probability for a score, for reporting only; the decision stays in fixed point. */
+    public static float probability(int score) {
+        return (float) (1.0 / (1.0 + Math.exp(-(double) score / SCORE_ONE)));
+    }
+
+    public int getFeatureCount() {
+        return featureCount;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Compiles a text model to the binary file the app loads, or with --print shows a binary
+     * model as text.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("--print")) {
+            FallClassifier model;
+            try (InputStream in = new FileInputStream(args[1])) {
+                model = read(in);
+            }
+            StringBuilder out = new StringBuilder();
+            model.writeText(out);
+            System.out.print(out);
+            return;
+        }
+        if (args.length != 2) {
+            System.err.println("Usage: FallClassifier model.txt model.ecfm | FallClassifier --print model.ecfm");
+            System.exit(2);
+        }
+        FallClassifier model;
+        try (Reader in = new FileReader(args[0])) {
+            model = readText(in);
+        }
+        try (OutputStream out = new FileOutputStream(args[1])) {
+            model.write(out);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Fall detection engine fed with fused accelerometer (m/s^2) and gyroscope (rad/s) samples.
+ * Implementations are plain Java so they can run inside FallDetectionService or offline
+ * through TraceReplay.
+ */
+public interface FallDetector {
+
+    String getName();
+
+    /**
+     * Feeds one sample on the fused clock.
+     * Returns true when a fall is detected at this sample.
+     */
+    boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz);
+
+    /**
+     * Feeds one fused sample with the squared magnitudes of the largest raw samples since the
+     * previous tick, see SensorFusion.Listener. Detectors with an impact check use the peaks,
+     * as a short spike between two ticks is averaged down in the fused sample.
+     */
+    default boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                             float accelPeakSq, float gyroPeakSq) {
+        return onSample(timestampNs, ax, ay, az, gx, gy, gz);
+    }
+
+    /** Clears all internal state, e.g. between two traces. */
+    void reset();
+
+    /**
+     * Feeds count samples from primitive arrays. accel and gyro hold interleaved x, y, z
+     * values, so sample i starts at 3 * (offset + i). Timestamps of detected falls are
+     * written to detectionsOut as long as it has room.
+     * Returns the number of detections.
+     */
+    default int process(long[] timestampsNs, float[] accel, float[] gyro, int offset, int count,
+                        long[] detectionsOut) {
+        int detections = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int j = i * 3;
+            if (onSample(timestampsNs[i], accel[j], accel[j + 1], accel[j + 2],
+                    gyro[j], gyro[j + 1], gyro[j + 2])) {
+                if (detectionsOut != null && detections < detectionsOut.length) {
+                    detectionsOut[detections] = timestampsNs[i];
+                }
+                detections++;
+            }
+        }
+        return detections;
+    }
+}
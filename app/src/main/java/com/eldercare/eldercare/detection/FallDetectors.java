@@ -0,0 +1,40 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Creates detection engines by name, so the service and TraceReplay pick them the same way.
+ */
+public final class FallDetectors {
+
+    public static final String DEFAULT = ThresholdFallDetector.NAME;
+
+    private FallDetectors() {}
+
+    public static FallDetector create(String name) {
+        return create(name, null);
+    }
+
+    /**
+     * model is only used by engines that need one, such as the classifier.
+     */
+    public static FallDetector create(String name, FallClassifier model) {
+        if (name == null) name = DEFAULT;
+        switch (name) {
+            case ThresholdFallDetector.NAME:
+                return new ThresholdFallDetector();
+            case ClassifierFallDetector.NAME:
+                if (model == null) throw new IllegalArgumentException("The classifier needs a model");
+                return new ClassifierFallDetector(model);
+            case StagedFallDetector.NAME:
+                return new StagedFallDetector();
+            case AdaptiveFallDetector.NAME:
+                return new AdaptiveFallDetector();
+            default:
+                throw new IllegalArgumentException("Unknown fall detector: " + name);
+        }
+    }
+
+    public static String[] names() {
+        return new String[]{ThresholdFallDetector.NAME, ClassifierFallDetector.NAME, StagedFallDetector.NAME,
+                AdaptiveFallDetector.NAME};
+    }
+}
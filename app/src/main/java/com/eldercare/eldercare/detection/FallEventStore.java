@@ -0,0 +1,335 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only log of fall detections and what the user made of them, for measuring precision
+ * on real alerts and for training. Each detection carries the feature vector of the window it
+ * fired in; the outcome is appended later as its own record, so nothing is rewritten.
+ *
+ * Appends only copy into a bounded queue; the file is written on the given executor.
+ * When the queue is full the record is dropped and counted rather than delaying the caller.
+ *
+ * File layout (big-endian): MAGIC (int), VERSION (short), featureCount (byte), then records
+ *   DETECTION: type (byte), id (int), wall clock ms (long), sensor timestamp ns (long),
+ *              detector name (byte length + ASCII), featureCount features (float)
+ *   OUTCOME:   type (byte), id (int), wall clock ms (long), outcome (byte)
+ * A record cut short by a crash is dropped the next time the file is opened.
+ *
+ * Usage: FallEventStore [--csv features.csv] events.bin
+ */
+public class FallEventStore {
+
+    public static final int MAGIC = 0x45434645; // "ECFE"
+    public static final short VERSION = 1;
+    private static final int HEADER_BYTES = 7;
+
+    private static final byte TYPE_DETECTION = 1;
+    private static final byte TYPE_OUTCOME = 2;
+
+    public static final int OUTCOME_NONE = 0;
+    public static final int OUTCOME_DISMISSED = 1;
+    public static final int OUTCOME_CONFIRMED = 2;
+    // Nobody answered the alert before the emergency countdown ran out
+    public static final int OUTCOME_AUTO_ESCALATED = 3;
+    private static final int OUTCOME_COUNT = 4;
+
+    private static final int QUEUE_CAPACITY = 32;
+
+    public interface Visitor {
+        /** features is reused between calls. */
+        void onDetection(int id, long wallTimeMs, long sensorTimestampNs, String detector, float[] features);
+
+        void onOutcome(int id, long wallTimeMs, int outcome);
+    }
+
+    private static final class Pending {
+        byte type;
+        int id;
+        long wallTimeMs;
+        long sensorTimestampNs;
+        String detector;
+        float[] features;
+        int outcome;
+    }
+
+    private final File file;
+    private final int featureCount;
+    private final Executor executor;
+    private final ArrayBlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final Runnable drainRunnable = this::drain;
+
+    private int nextId;
+    // Latest detection without an outcome, -1 when there is none
+    private int openId = -1;
+    private long dropped = 0;
+    private volatile long written = 0;
+
+    /**
+     * Opens or creates the store. An existing file is scanned once to continue its ids and
+     * trimmed to its last complete record.
+     */
+    public FallEventStore(File file, int featureCount, Executor executor) throws IOException {
+        this.file = file;
+        this.featureCount = featureCount;
+        this.executor = executor;
+
+        if (file.exists() && file.length() > 0) {
+            final int[] ids = {-1, -1};
+            long valid = scan(file, new Visitor() {
+                @Override
+                public void onDetection(int id, long wallTimeMs, long sensorTimestampNs, String detector, float[] features) {
+                    ids[0] = Math.max(ids[0], id);
+                    ids[1] = id;
+                }
+
+                @Override
+                public void onOutcome(int id, long wallTimeMs, int outcome) {
+                    if (id == ids[1]) ids[1] = -1;
+                }
+            }, featureCount);
+            nextId = ids[0] + 1;
+            openId = ids[1];
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        } else {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create " + parent);
+            }
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeByte(featureCount);
+            }
+        }
+    }
+
+    /**
+     * Records a detection; features is copied. Returns its id, or -1 when the queue was full.
+     */
+    public synchronized int appendDetection(long wallTimeMs, long sensorTimestampNs, String detector, float[] features) {
+        Pending record = new Pending();
+        record.type = TYPE_DETECTION;
+        record.id = nextId;
+        record.wallTimeMs = wallTimeMs;
+        record.sensorTimestampNs = sensorTimestampNs;
+        record.detector = detector;
+        record.features = new float[featureCount];
+        System.arraycopy(features, 0, record.features, 0, Math.min(featureCount, features.length));
+        if (!enqueue(record)) return -1;
+        openId = nextId++;
+        return record.id;
+    }
+
+    /**
+     * Records the outcome of the latest detection that has none yet.
+     * Returns false when there is no such detection or the queue was full.
+     */
+    public synchronized boolean appendOutcome(long wallTimeMs, int outcome) {
+        if (openId < 0) return false;
+        Pending record = new Pending();
+        record.type = TYPE_OUTCOME;
+        record.id = openId;
+        record.wallTimeMs = wallTimeMs;
+        record.outcome = outcome;
+        if (!enqueue(record)) return false;
+        openId = -1;
+        return true;
+    }
+
+    private boolean enqueue(Pending record) {
+        if (!queue.offer(record)) {
+            dropped++;
+            return false;
+        }
+        if (drainScheduled.compareAndSet(false, true)) {
+            executor.execute(drainRunnable);
+        }
+        return true;
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        if (queue.isEmpty()) return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            Pending record;
+            while ((record = queue.poll()) != null) {
+                out.writeByte(record.type);
+                out.writeInt(record.id);
+                out.writeLong(record.wallTimeMs);
+                if (record.type == TYPE_DETECTION) {
+                    out.writeLong(record.sensorTimestampNs);
+                    byte[] name = record.detector.getBytes(StandardCharsets.US_ASCII);
+                    out.writeByte(name.length);
+                    out.write(name);
+                    for (float feature : record.features) out.writeFloat(feature);
+                } else {
+                    out.writeByte(record.outcome);
+                }
+                written++;
+            }
+        } catch (IOException e) {
+            // Leaves a partial record at worst, which the next open trims
+        }
+    }
+
+    public synchronized boolean hasOpenDetection() {
+        return openId >= 0;
+    }
+
+    public void dump(StringBuilder out) {
+        out.append("event_store_written=").append(written).append('\n');
+        synchronized (this) {
+            out.append("event_store_dropped=").append(dropped).append('\n');
+        }
+    }
+
+    /**
+     * Reads every complete record in order. Returns the length of the file up to the last
+     * complete record. expectedFeatures is checked against the header unless it is negative.
+     */
+    public static long scan(File file, Visitor visitor, int expectedFeatures) throws IOException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            DataInputStream in = new DataInputStream(stream);
+            if (in.readInt() != MAGIC) throw new IOException("Not a fall event store: " + file);
+            short version = in.readShort();
+            if (version != VERSION) throw new IOException("Unsupported event store version " + version);
+            int featureCount = in.readUnsignedByte();
+            if (expectedFeatures >= 0 && featureCount != expectedFeatures) {
+                throw new IOException("Store has " + featureCount + " features, expected " + expectedFeatures);
+            }
+
+            float[] features = new float[featureCount];
+            byte[] name = new byte[255];
+            long valid = HEADER_BYTES;
+            long position = HEADER_BYTES;
+            try {
+                while (true) {
+                    int type = in.read();
+                    if (type < 0) break;
+                    int id = in.readInt();
+                    long wallTimeMs = in.readLong();
+                    if (type == TYPE_DETECTION) {
+                        long sensorTimestampNs = in.readLong();
+                        int length = in.readUnsignedByte();
+                        in.readFully(name, 0, length);
+                        for (int i = 0; i < featureCount; i++) features[i] = in.readFloat();
+                        position += 1 + 4 + 8 + 8 + 1 + length + 4L * featureCount;
+                        visitor.onDetection(id, wallTimeMs, sensorTimestampNs,
+                                new String(name, 0, length, StandardCharsets.US_ASCII), features);
+                    } else if (type == TYPE_OUTCOME) {
+                        int outcome = in.readUnsignedByte();
+                        position += 1 + 4 + 8 + 1;
+                        visitor.onOutcome(id, wallTimeMs, outcome);
+                    } else {
+                        break;
+                    }
+                    valid = position;
+                }
+            } catch (EOFException e) {
+                // Truncated last record
+            }
+            return valid;
+        }
+    }
+
+    public static String outcomeName(int outcome) {
+        switch (outcome) {
+            case OUTCOME_DISMISSED: return "dismissed";
+            case OUTCOME_CONFIRMED: return "confirmed";
+            case OUTCOME_AUTO_ESCALATED: return "auto_escalated";
+            default: return "none";
+        }
+    }
+
+    /**
+     * Prints detections and outcomes per detector. Precision counts confirmed alerts as falls and
+     * dismissed ones as false alarms; auto-escalated alerts are shown separately since nobody
+     * judged them. --csv writes one row per detection with its features and outcome.
+     */
+    public static void main(String[] args) throws IOException {
+        String csvPath = null;
+        String path = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--csv")) csvPath = args[++i];
+            else path = args[i];
+        }
+        if (path == null) {
+            System.err.println("Usage: FallEventStore [--csv features.csv] events.bin");
+            System.exit(2);
+        }
+
+        final Map<Integer, String> detectorOf = new TreeMap<>();
+        final Map<Integer, float[]> featuresOf = new TreeMap<>();
+        final Map<Integer, Integer> outcomeOf = new TreeMap<>();
+        final boolean keepFeatures = csvPath != null;
+        long start = System.nanoTime();
+        scan(new File(path), new Visitor() {
+            @Override
+            public void onDetection(int id, long wallTimeMs, long sensorTimestampNs, String detector, float[] features) {
+                detectorOf.put(id, detector);
+                if (keepFeatures) featuresOf.put(id, features.clone());
+            }
+
+            @Override
+            public void onOutcome(int id, long wallTimeMs, int outcome) {
+                outcomeOf.put(id, outcome);
+            }
+        }, -1);
+        long scanNs = System.nanoTime() - start;
+
+        Map<String, long[]> perDetector = new TreeMap<>();
+        for (Map.Entry<Integer, String> entry : detectorOf.entrySet()) {
+            long[] counts = perDetector.computeIfAbsent(entry.getValue(), k -> new long[OUTCOME_COUNT]);
+            Integer outcome = outcomeOf.get(entry.getKey());
+            counts[outcome == null ? OUTCOME_NONE : outcome]++;
+        }
+
+        System.out.printf("%-12s %8s %9s %9s %9s %8s %9s%n",
+                "detector", "alerts", "confirmed", "dismissed", "escalated", "no reply", "precision");
+        for (Map.Entry<String, long[]> entry : perDetector.entrySet()) {
+            long[] c = entry.getValue();
+            long alerts = c[0] + c[1] + c[2] + c[3];
+            long judged = c[OUTCOME_CONFIRMED] + c[OUTCOME_DISMISSED];
+            System.out.printf(Locale.US, "%-12s %8d %9d %9d %9d %8d %9s%n", entry.getKey(), alerts,
+                    c[OUTCOME_CONFIRMED], c[OUTCOME_DISMISSED], c[OUTCOME_AUTO_ESCALATED], c[OUTCOME_NONE],
+                    judged == 0 ? "-" : String.format(Locale.US, "%.3f", (double) c[OUTCOME_CONFIRMED] / judged));
+        }
+        System.out.printf(Locale.US, "%nscanned %d detections in %.1f ms%n", detectorOf.size(), scanNs / 1e6);
+
+        if (csvPath != null) {
+            try (PrintWriter csv = new PrintWriter(csvPath, "UTF-8")) {
+                csv.println("id,detector,outcome,features...");
+                for (Map.Entry<Integer, float[]> entry : featuresOf.entrySet()) {
+                    Integer outcome = outcomeOf.get(entry.getKey());
+                    csv.print(entry.getKey() + "," + detectorOf.get(entry.getKey()) + ","
+                            + outcomeName(outcome == null ? OUTCOME_NONE : outcome));
+                    for (float feature : entry.getValue()) csv.print("," + feature);
+                    csv.println();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.eldercare.eldercare.detection;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rates how usable a camera frame is for the face scan, from its luma plane alone: sharpness
+ * as the variance of the Laplacian, exposure from the brightness histogram, and the size of the
+ * face. The first two are measured on the face, or on the centre of the frame when there is no
+ * face, in one pass over the plane as the camera delivered it.
+ *
+ * The histogram is the only scratch buffer and is kept, so score() allocates nothing. Large
+ * regions are sampled on a grid, which keeps a score to a few milliseconds, well within a
+ * frame interval. Not thread-safe.
+ */
+public class FrameScorer {
+
+    // Laplacian variance that rates half sharp; blur is usually taken to be below about 100
+    private static final float SHARPNESS_HALF = 100f;
+    // Median brightness that rates best, mid-scale
+    private static final float TARGET_LUMA = 128f;
+    // Luma at or beyond these is clipped and carries no detail
+    private static final int DARK_CLIP = 16;
+    private static final int BRIGHT_CLIP = 240;
+    // A face covering this much of the frame is close enough for the scan
+    private static final float GOOD_FACE_FRACTION = 0.12f;
+    // Without a face a frame still ranks by sharpness and exposure, but below one with a face
+    private static final float NO_FACE_WEIGHT = 0.25f;
+    // At most this many pixels are measured, on an even grid over the region, so scoring takes
+    // about the same short time however close the face is
+    private static final int MAX_SAMPLES = 40_000;
+
+    private final int[] histogram = new int[256];
+
+    private float sharpness;
+    private int medianLuma;
+    private float clippedFraction;
+    private float faceFraction;
+
+    /**
+     * Scores a width x height luma plane, higher is better, from 0 to 1. The face is given in
+     * the coordinates of the upright frame, that is after turning it clockwise by
+     * rotationDegrees, as a face detector reports it; pass faceRight <= faceLeft for none.
+     * Reads the plane with absolute gets, so its position is left alone.
+     */
+    public float score(ByteBuffer yPlane, int rowStride, int width, int height, int rotationDegrees,
+                       int faceLeft, int faceTop, int faceRight, int faceBottom) {
+        boolean hasFace = faceRight > faceLeft && faceBottom > faceTop;
+        int left, top, right, bottom;
+        if (hasFace) {
+            // Back from the upright frame to the plane as it lies
+            int rotation = ((rotationDegrees % 360) + 360) % 360;
+            switch (rotation) {
+                case 90:
+                    left = faceTop;
+                    right = faceBottom;
+                    top = height - faceRight;
+                    bottom = height - faceLeft;
+                    break;
+                case 180:
+                    left = width - faceRight;
+                    right = width - faceLeft;
+                    top = height - faceBottom;
+                    bottom = height - faceTop;
+                    break;
+                case 270:
+                    left = width - faceBottom;
+                    right = width - faceTop;
+                    top = faceLeft;
+                    bottom = faceRight;
+                    break;
+                default:
+                    left = faceLeft;
+                    right = faceRight;
+                    top = faceTop;
+                    bottom = faceBottom;
+                    break;
+            }
+        } else {
+            left = width / 4;
+            right = width * 3 / 4;
+            top = height / 4;
+            bottom = height * 3 / 4;
+        }
+        // The Laplacian needs a neighbour on every side
+        left = Math.max(1, left);
+        top = Math.max(1, top);
+        right = Math.min(width - 1, right);
+        bottom = Math.min(height - 1, bottom);
+
+        faceFraction = 0;
+        if (hasFace && right > left && bottom > top) {
+            faceFraction = (float) (right - left) * (bottom - top) / ((float) width * height);
+        }
+        measure(yPlane, rowStride, left, top, right, bottom);
+
+        float sharpnessScore = sharpness / (sharpness + SHARPNESS_HALF);
+        float exposureScore = Math.max(0f, 1f - Math.abs(medianLuma - TARGET_LUMA) / TARGET_LUMA)
+                * (1f - clippedFraction);
+        float faceScore = NO_FACE_WEIGHT + (1f - NO_FACE_WEIGHT) * Math.min(1f, faceFraction / GOOD_FACE_FRACTION);
+        return sharpnessScore * exposureScore * faceScore;
+    }
+
+    /** Of the last score(): variance of the Laplacian over the measured region. */
+    public float getSharpness() {
+        return sharpness;
+    }
+
+    /** Of the last score(): median luma of the measured region. */
+    public int getMedianLuma() {
+        return medianLuma;
+    }
+
+    /** Of the last score(): share of the measured region that is clipped dark or bright. */
+    public float getClippedFraction() {
+        return clippedFraction;
+    }
+
+    /** Of the last score(): share of the frame the face covers, 0 without one. */
+    public float getFaceFraction() {
+        return faceFraction;
+    }
+
+    private void measure(ByteBuffer yPlane, int rowStride, int left, int top, int right, int bottom) {
+        sharpness = 0;
+        medianLuma = 0;
+        clippedFraction = 1f;
+        if (right <= left || bottom <= top) return;
+
+        Arrays.fill(histogram, 0);
+        int area = (right - left) * (bottom - top);
+        int step = Math.max(1, (int) Math.ceil(Math.sqrt((double) area / MAX_SAMPLES)));
+        long sum = 0;
+        long squares = 0;
+        int pixels = 0;
+        for (int row = top; row < bottom; row += step) {
+            int offset = row * rowStride;
+            for (int col = left; col < right; col += step) {
+                int index = offset + col;
+                int centre = yPlane.get(index) & 0xff;
+                int laplacian = (yPlane.get(index - 1) & 0xff) + (yPlane.get(index + 1) & 0xff)
+                        + (yPlane.get(index - rowStride) & 0xff) + (yPlane.get(index + rowStride) & 0xff)
+                        - 4 * centre;
+                sum += laplacian;
+                squares += laplacian * laplacian;
+                histogram[centre]++;
+                pixels++;
+            }
+        }
+        double mean = (double) sum / pixels;
+        sharpness = (float) Math.max(0, (double) squares / pixels - mean * mean);
+
+        int clipped = 0;
+        for (int luma = 0; luma <= DARK_CLIP; luma++) clipped += histogram[luma];
+        for (int luma = BRIGHT_CLIP; luma < 256; luma++) clipped += histogram[luma];
+        clippedFraction = (float) clipped / pixels;
+
+        int seen = 0;
+        for (int luma = 0; luma < 256; luma++) {
+            seen += histogram[luma];
+            if (seen * 2 >= pixels) {
+                medianLuma = luma;
+                break;
+            }
+        }
+    }
+}
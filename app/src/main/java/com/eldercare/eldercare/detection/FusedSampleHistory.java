@@ -0,0 +1,53 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * The last few seconds of fused samples, so features for a stored event are only computed when
+ * there is an event: add() is a handful of array stores and never allocates, replay() runs the
+ * samples, oldest first, through a WindowFeatureExtractor. Not thread-safe.
+ */
+public class FusedSampleHistory {
+
+    private static final int AXES = 6;
+
+    private final long[] timestamps;
+    private final float[] values;
+    private long written = 0;
+
+    public FusedSampleHistory(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be positive");
+        timestamps = new long[capacity];
+        values = new float[capacity * AXES];
+    }
+
+    public void add(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        int i = (int) (written % timestamps.length);
+        timestamps[i] = timestampNs;
+        int j = i * AXES;
+        values[j] = ax;
+        values[j + 1] = ay;
+        values[j + 2] = az;
+        values[j + 3] = gx;
+        values[j + 4] = gy;
+        values[j + 5] = gz;
+        written++;
+    }
+
+    /** Resets features and feeds it every sample held, oldest first. */
+    public void replay(WindowFeatureExtractor features) {
+        features.reset();
+        for (long sequence = Math.max(0, written - timestamps.length); sequence < written; sequence++) {
+            int i = (int) (sequence % timestamps.length);
+            int j = i * AXES;
+            features.update(timestamps[i], values[j], values[j + 1], values[j + 2],
+                    values[j + 3], values[j + 4], values[j + 5]);
+        }
+    }
+
+    public int size() {
+        return (int) Math.min(written, timestamps.length);
+    }
+
+    public void clear() {
+        written = 0;
+    }
+}
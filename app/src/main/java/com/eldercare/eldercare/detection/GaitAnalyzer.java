@@ -0,0 +1,356 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Cadence and gait regularity from the acceleration magnitude, over walking bouts.
+ *
+ * Every HOP_SECONDS the last WINDOW_SECONDS of |a| are detrended and autocorrelated at the lags
+ * of a plausible step (0.3 to 1 s) and stride. The first dominant peak is the step, unless a
+ * peak at half its lag shows it was a stride of an asymmetric gait; the peak near twice the
+ * step is the stride. A stride peak above MIN_STRIDE_REGULARITY marks the window as walking.
+ * Per window this gives the cadence, the step and stride regularity (autocorrelation at those
+ * lags) and the symmetry (their ratio), following Moe-Nilssen and Helbostad. Consecutive
+ * walking windows form a bout.
+ *
+ * The work per window is fixed, so a long walk costs the same per second as a short one, and
+ * every buffer is allocated in the constructor. The day's windows are summed up in a DaySummary,
+ * which GaitLog stores.
+ */
+public class GaitAnalyzer {
+
+    private static final double WINDOW_SECONDS = 5.12;
+    private static final double HOP_SECONDS = 1.0;
+    // 60 to 200 steps per minute
+    private static final double MIN_STEP_SECONDS = 0.3;
+    private static final double MAX_STEP_SECONDS = 1.0;
+    // A peak within this share of the highest one is dominant
+    private static final float DOMINANT_PEAK = 0.9f;
+    // Peaks at a multiple or a half of a lag are searched this far either side
+    private static final double LAG_TOLERANCE = 0.2;
+    // A peak at half the step lag this strong means the "step" was a stride
+    private static final float HALF_LAG_PEAK = 0.5f;
+    public static final float MIN_STRIDE_REGULARITY = 0.5f;
+    // Standard deviation of |a| (m/s^2) that walking produces at the hip or in a pocket
+    private static final float MIN_WALKING_SD = 0.8f;
+    private static final float MAX_WALKING_SD = 6.0f;
+    // Windows in a row before they count as a bout
+    public static final int MIN_BOUT_WINDOWS = 3;
+
+    private final long periodNs;
+    private final int window;
+    private final int hop;
+    private final int minStepLag;
+    private final int maxStepLag;
+    private final int maxStrideLag;
+    private final float[] ring;
+    private final float[] work;
+    // Autocorrelation per lag; only the lags a window looks at are filled in
+    private final float[] correlation;
+
+    private int next = 0;
+    private int filled = 0;
+    private int untilHop;
+    private long lastTimestampNs = Long.MIN_VALUE;
+
+    private int boutWindows = 0;
+    private boolean walking = false;
+    private float cadence = 0;
+    private float stepRegularity = 0;
+    private float strideRegularity = 0;
+
+    private final DaySummary day = new DaySummary();
+    private long windowsAnalyzed = 0;
+
+    /** samplePeriodNs is the spacing of the samples passed to onSample(). */
+    public GaitAnalyzer(long samplePeriodNs) {
+        this.periodNs = samplePeriodNs;
+        double rate = 1e9 / samplePeriodNs;
+        this.window = (int) Math.round(WINDOW_SECONDS * rate);
+        this.hop = (int) Math.max(1, Math.round(HOP_SECONDS * rate));
+        this.minStepLag = (int) Math.round(MIN_STEP_SECONDS * rate);
+        this.maxStepLag = (int) Math.round(MAX_STEP_SECONDS * rate);
+        this.maxStrideLag = (int) Math.ceil(2 * maxStepLag * (1 + LAG_TOLERANCE));
+        if (minStepLag < 4 || maxStrideLag + 2 > window / 2) {
+            throw new IllegalArgumentException("Sample period too long for gait analysis: " + samplePeriodNs);
+        }
+        this.ring = new float[window];
+        this.work = new float[window];
+        this.correlation = new float[maxStrideLag + 2];
+        this.untilHop = hop;
+    }
+
+    public void onSample(long timestampNs, float ax, float ay, float az) {
+        if (lastTimestampNs != Long.MIN_VALUE && timestampNs - lastTimestampNs > 2 * periodNs) {
+            // Samples stopped, e.g. in the idle sampling mode: a window must not span the gap
+            filled = 0;
+            untilHop = hop;
+            endBout();
+        }
+        lastTimestampNs = timestampNs;
+
+        ring[next] = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        next = next + 1 == window ? 0 : next + 1;
+        if (filled < window) filled++;
+        if (--untilHop == 0) {
+            untilHop = hop;
+            if (filled == window) analyze();
+        }
+    }
+
+    private void analyze() {
+        windowsAnalyzed++;
+        double sum = 0;
+        for (int i = 0; i < window; i++) sum += ring[i];
+        float mean = (float) (sum / window);
+        double energy = 0;
+        // Oldest sample first, so lags run forward in time
+        for (int i = 0, j = next; i < window; i++, j = j + 1 == window ? 0 : j + 1) {
+            float x = ring[j] - mean;
+            work[i] = x;
+            energy += x * x;
+        }
+        float sd = (float) Math.sqrt(energy / window);
+        if (sd < MIN_WALKING_SD || sd > MAX_WALKING_SD) {
+            endBout();
+            return;
+        }
+
+        // Stride lags are only computed around the step that was found
+        for (int lag = minStepLag / 2 - 1; lag <= maxStepLag + 1; lag++) {
+            correlation[lag] = autocorrelation(lag, energy);
+        }
+        int highest = strongestPeak(minStepLag, maxStepLag);
+        // Only a positive peak can be a step; with a negative one no peak is within
+        // DOMINANT_PEAK of it, and there would be no step lag
+        if (highest < 0 || correlation[highest] <= 0) {
+            endBout();
+            return;
+        }
+        int stepLag = -1;
+        for (int lag = minStepLag; lag <= maxStepLag && stepLag < 0; lag++) {
+            if (isPeak(lag) && correlation[lag] >= DOMINANT_PEAK * correlation[highest]) stepLag = lag;
+        }
+        if (stepLag < 0) {
+            endBout();
+            return;
+        }
+        int half = strongestPeak(Math.max(minStepLag / 2, (int) Math.floor(stepLag / 2.0 * (1 - LAG_TOLERANCE))),
+                (int) Math.ceil(stepLag / 2.0 * (1 + LAG_TOLERANCE)));
+        if (half >= minStepLag && correlation[half] >= HALF_LAG_PEAK * correlation[stepLag]) {
+            stepLag = half;
+        }
+        int strideFrom = (int) Math.floor(2 * stepLag * (1 - LAG_TOLERANCE));
+        int strideTo = (int) Math.ceil(2 * stepLag * (1 + LAG_TOLERANCE));
+        for (int lag = Math.max(strideFrom - 1, maxStepLag + 2); lag <= strideTo + 1; lag++) {
+            correlation[lag] = autocorrelation(lag, energy);
+        }
+        int strideLag = strongestPeak(strideFrom, strideTo);
+        if (strideLag < 0 || correlation[strideLag] < MIN_STRIDE_REGULARITY) {
+            endBout();
+            return;
+        }
+
+        double strideSeconds = refine(strideLag) * periodNs / 1e9;
+        walking = true;
+        cadence = (float) (120 / strideSeconds);
+        strideRegularity = correlation[strideLag];
+        stepRegularity = Math.max(0, correlation[stepLag]);
+        boutWindows++;
+        if (boutWindows == MIN_BOUT_WINDOWS) day.bouts++;
+        day.add(cadence, (float) (strideSeconds / 2), stepRegularity, strideRegularity, (float) HOP_SECONDS);
+    }
+
+    /** Unbiased autocorrelation at lag, normalised by the variance. */
+    private float autocorrelation(int lag, double energy) {
+        // Four independent sums keep the multiply-adds from waiting on each other
+        float s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int n = window - lag;
+        int i = 0;
+        for (; i + 3 < n; i += 4) {
+            s0 += work[i] * work[i + lag];
+            s1 += work[i + 1] * work[i + 1 + lag];
+            s2 += work[i + 2] * work[i + 2 + lag];
+            s3 += work[i + 3] * work[i + 3 + lag];
+        }
+        for (; i < n; i++) {
+            s0 += work[i] * work[i + lag];
+        }
+        double sum = (double) s0 + s1 + s2 + s3;
+        return (float) (sum / n / (energy / window));
+    }
+
+    /** Lag of the highest local maximum in [from, to], -1 if there is none. */
+    private int strongestPeak(int from, int to) {
+        int best = -1;
+        for (int lag = from; lag <= to; lag++) {
+            if (isPeak(lag) && (best < 0 || correlation[lag] > correlation[best])) best = lag;
+        }
+        return best;
+    }
+
+    private boolean isPeak(int lag) {
+        return correlation[lag] >= correlation[lag - 1] && correlation[lag] >= correlation[lag + 1];
+    }
+
+    /** Peak position between samples, from a parabola through the peak and its neighbours. */
+    private double refine(int lag) {
+        double left = correlation[lag - 1];
+        double centre = correlation[lag];
+        double right = correlation[lag + 1];
+        double denominator = left - 2 * centre + right;
+        if (denominator >= 0) return lag;
+        return lag + 0.5 * (left - right) / denominator;
+    }
+
+    private void endBout() {
+        walking = false;
+        boutWindows = 0;
+    }
+
+    public boolean isWalking() {
+        return walking;
+    }
+
+    /** Steps per minute in the last walking window. */
+    public float getCadence() {
+        return cadence;
+    }
+
+    public float getStepRegularity() {
+        return stepRegularity;
+    }
+
+    public float getStrideRegularity() {
+        return strideRegularity;
+    }
+
+    /** The aggregates since the last call, for the given day; starts a new day. */
+    public DaySummary takeDay(int epochDay) {
+        DaySummary summary = new DaySummary();
+        summary.merge(day);
+        summary.epochDay = epochDay;
+        day.clear();
+        if (boutWindows >= MIN_BOUT_WINDOWS) {
+            // A bout running over midnight also counts on the new day
+            day.bouts = 1;
+        }
+        return summary;
+    }
+
+    public void reset() {
+        filled = 0;
+        next = 0;
+        untilHop = hop;
+        lastTimestampNs = Long.MIN_VALUE;
+        endBout();
+        cadence = 0;
+        stepRegularity = 0;
+        strideRegularity = 0;
+        day.clear();
+        windowsAnalyzed = 0;
+    }
+
+    public void dump(StringBuilder out) {
+        out.append("gait_walking=").append(walking).append('\n');
+        out.append("gait_cadence_spm=").append(cadence).append('\n');
+        out.append("gait_windows_analyzed=").append(windowsAnalyzed).append('\n');
+        out.append("gait_today_walking_s=").append((int) day.walkingSeconds).append('\n');
+        out.append("gait_today_bouts=").append(day.bouts).append('\n');
+        out.append("gait_today_cadence_spm=").append(day.getCadenceMean()).append('\n');
+        out.append("gait_today_step_time_cv=").append(day.getStepTimeCv()).append('\n');
+        out.append("gait_today_stride_regularity=").append(day.getStrideRegularity()).append('\n');
+    }
+
+    /**
+     * One day of walking windows. Means and spreads are kept as Welford sums, so two summaries of
+     * the same day, e.g. from before and after a service restart, merge exactly.
+     */
+    public static class DaySummary {
+        public int epochDay;
+        public int windows;
+        public int bouts;
+        public float walkingSeconds;
+        double cadenceMean;
+        double cadenceM2;
+        double stepTimeMean;
+        double stepTimeM2;
+        double stepRegularitySum;
+        double strideRegularitySum;
+
+        void add(float cadence, float stepTime, float stepRegularity, float strideRegularity, float seconds) {
+            windows++;
+            walkingSeconds += seconds;
+            double delta = cadence - cadenceMean;
+            cadenceMean += delta / windows;
+            cadenceM2 += delta * (cadence - cadenceMean);
+            delta = stepTime - stepTimeMean;
+            stepTimeMean += delta / windows;
+            stepTimeM2 += delta * (stepTime - stepTimeMean);
+            stepRegularitySum += stepRegularity;
+            strideRegularitySum += strideRegularity;
+        }
+
+        public void merge(DaySummary other) {
+            int total = windows + other.windows;
+            if (total > 0) {
+                double weight = (double) other.windows / total;
+                double delta = other.cadenceMean - cadenceMean;
+                cadenceM2 += other.cadenceM2 + delta * delta * windows * weight;
+                cadenceMean += delta * weight;
+                delta = other.stepTimeMean - stepTimeMean;
+                stepTimeM2 += other.stepTimeM2 + delta * delta * windows * weight;
+                stepTimeMean += delta * weight;
+            }
+            windows = total;
+            bouts += other.bouts;
+            walkingSeconds += other.walkingSeconds;
+            stepRegularitySum += other.stepRegularitySum;
+            strideRegularitySum += other.strideRegularitySum;
+        }
+
+        void clear() {
+            windows = 0;
+            bouts = 0;
+            walkingSeconds = 0;
+            cadenceMean = 0;
+            cadenceM2 = 0;
+            stepTimeMean = 0;
+            stepTimeM2 = 0;
+            stepRegularitySum = 0;
+            strideRegularitySum = 0;
+        }
+
+        public float getCadenceMean() {
+            return (float) cadenceMean;
+        }
+
+        public float getCadenceSd() {
+            return windows < 2 ? 0 : (float) Math.sqrt(cadenceM2 / (windows - 1));
+        }
+
+        public float getStepTimeMean() {
+            return (float) stepTimeMean;
+        }
+
+        /**
+         * Spread of the step time between walking windows relative to its mean. Windows
+         * average several steps, so this tracks slow changes of pace more than step-to-step jitter.
+         */
+        public float getStepTimeCv() {
+            if (windows < 2 || stepTimeMean <= 0) return 0;
+            return (float) (Math.sqrt(stepTimeM2 / (windows - 1)) / stepTimeMean);
+        }
+
+        public float getStepRegularity() {
+            return windows == 0 ? 0 : (float) (stepRegularitySum / windows);
+        }
+
+        public float getStrideRegularity() {
+            return windows == 0 ? 0 : (float) (strideRegularitySum / windows);
+        }
+
+        /** Step regularity over stride regularity; 1 for a perfectly symmetric gait. */
+        public float getSymmetry() {
+            return strideRegularitySum == 0 ? 0 : (float) (stepRegularitySum / strideRegularitySum);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDate;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Daily gait aggregates in a file of fixed-size records, 40 bytes a day, so years of history
+ * stay small. A day may be written more than once, e.g. when the service restarted that day;
+ * read() merges such records.
+ *
+ * File layout (big-endian): MAGIC (int), VERSION (short), then records of
+ *   epoch day (int), windows (int), bouts (int), walking seconds (float),
+ *   cadence mean and M2, step time mean and M2, step and stride regularity sums (float).
+ * A record cut short by a crash is dropped by the next append.
+ *
+ * Usage: GaitLog gait_daily.bin
+ */
+public class GaitLog {
+
+    public static final int MAGIC = 0x45434741; // "ECGA"
+    public static final short VERSION = 1;
+    private static final int HEADER_BYTES = 6;
+    public static final int RECORD_BYTES = 40;
+
+    private GaitLog() {}
+
+    public static void append(File file, GaitAnalyzer.DaySummary day) throws IOException {
+        if (day.windows == 0 && day.bouts == 0) return;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            if (length < HEADER_BYTES) {
+                raf.setLength(0);
+                raf.writeInt(MAGIC);
+                raf.writeShort(VERSION);
+                length = HEADER_BYTES;
+            } else {
+                checkHeader(raf.readInt(), raf.readShort());
+            }
+            long records = (length - HEADER_BYTES) / RECORD_BYTES;
+            raf.seek(HEADER_BYTES + records * RECORD_BYTES);
+            raf.writeInt(day.epochDay);
+            raf.writeInt(day.windows);
+            raf.writeInt(day.bouts);
+            raf.writeFloat(day.walkingSeconds);
+            raf.writeFloat((float) day.cadenceMean);
+            raf.writeFloat((float) day.cadenceM2);
+            raf.writeFloat((float) day.stepTimeMean);
+            raf.writeFloat((float) day.stepTimeM2);
+            raf.writeFloat((float) day.stepRegularitySum);
+            raf.writeFloat((float) day.strideRegularitySum);
+            raf.setLength(raf.getFilePointer());
+        }
+    }
+
+    /** Every complete record by day, oldest first. */
+    public static TreeMap<Integer, GaitAnalyzer.DaySummary> read(File file) throws IOException {
+        TreeMap<Integer, GaitAnalyzer.DaySummary> days = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            checkHeader(in.readInt(), in.readShort());
+            while (true) {
+                GaitAnalyzer.DaySummary day = new GaitAnalyzer.DaySummary();
+                try {
+                    day.epochDay = in.readInt();
+                    day.windows = in.readInt();
+                    day.bouts = in.readInt();
+                    day.walkingSeconds = in.readFloat();
+                    day.cadenceMean = in.readFloat();
+                    day.cadenceM2 = in.readFloat();
+                    day.stepTimeMean = in.readFloat();
+                    day.stepTimeM2 = in.readFloat();
+                    day.stepRegularitySum = in.readFloat();
+                    day.strideRegularitySum = in.readFloat();
+                } catch (EOFException e) {
+                    break;
+                }
+                GaitAnalyzer.DaySummary existing = days.get(day.epochDay);
+                if (existing == null) {
+                    days.put(day.epochDay, day);
+                } else {
+                    existing.merge(day);
+                }
+            }
+        }
+        return days;
+    }
+
+    private static void checkHeader(int magic, short version) throws IOException {
+        if (magic != MAGIC) throw new IOException("Not a gait log");
+        if (version != VERSION) throw new IOException("Unsupported gait log version " + version);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: GaitLog gait_daily.bin");
+            System.exit(2);
+        }
+        System.out.printf("%-10s %8s %6s %8s %7s %8s %8s %8s %8s%n", "day", "walk_min", "bouts",
+                "cadence", "sd", "step_cv", "step_reg", "strd_reg", "symmetry");
+        for (Map.Entry<Integer, GaitAnalyzer.DaySummary> entry : read(new File(args[0])).entrySet()) {
+            GaitAnalyzer.DaySummary d = entry.getValue();
+            System.out.printf(Locale.US, "%-10s %8.1f %6d %8.1f %7.1f %8.3f %8.3f %8.3f %8.3f%n",
+                    LocalDate.ofEpochDay(entry.getKey()), d.walkingSeconds / 60, d.bouts, d.getCadenceMean(),
+                    d.getCadenceSd(), d.getStepTimeCv(), d.getStepRegularity(), d.getStrideRegularity(),
+                    d.getSymmetry());
+        }
+    }
+}
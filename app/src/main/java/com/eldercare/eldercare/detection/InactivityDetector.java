@@ -0,0 +1,137 @@
+package com.eldercare.eldercare.detection;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Raises an alert when no activity was seen for longer than the threshold of the current hour
+ * of day, for falls without an impact the motion detectors would notice.
+ *
+ * Activity is reported as it happens (onActivity() only stores a time), and getDeadlineMs()
+ * says when the next check is due, so the caller needs one timer and no per-sample work. An
+ * hour with a threshold of 0 never alerts, e.g. at night, and does not count towards the next
+ * threshold either: after a night off, the stretch starts again with the first hour that is on.
+ * The time is wall-clock milliseconds, hours are local to the given zone.
+ */
+public class InactivityDetector {
+
+    public static final String NAME = "inactivity";
+    public static final int HOURS = 24;
+
+    // Minutes without activity per hour of day; off while people usually sleep
+    public static final int[] DEFAULT_THRESHOLDS_MIN = {
+            0, 0, 0, 0, 0, 0, 0, 0, 0,                              // 00-08
+            180, 180, 180, 180, 180, 180, 180, 180, 180, 180, 180,  // 09-19
+            240, 240,                                               // 20-21
+            0, 0                                                    // 22-23
+    };
+
+    // The search for a deadline gives up after two days of hours that are all off
+    private static final int MAX_SLOTS = 2 * HOURS;
+
+    private final int[] thresholdsMin;
+    private final ZoneId zone;
+    private long lastActivityMs = Long.MIN_VALUE;
+    private boolean alerted = false;
+    private long alerts = 0;
+
+    public InactivityDetector(int[] thresholdsMin, ZoneId zone) {
+        if (thresholdsMin.length != HOURS) {
+            throw new IllegalArgumentException("Expected " + HOURS + " thresholds, got " + thresholdsMin.length);
+        }
+        this.thresholdsMin = thresholdsMin.clone();
+        this.zone = zone;
+    }
+
+    /** Ignores times older than the latest activity, so sources may report out of order. */
+    public void onActivity(long wallMs) {
+        if (wallMs > lastActivityMs) {
+            lastActivityMs = wallMs;
+            alerted = false;
+        }
+    }
+
+    public long getLastActivityMs() {
+        return lastActivityMs;
+    }
+
+    /**
+     * When the current stretch of inactivity would cross a threshold, Long.MAX_VALUE if it never
+     * does, or it was already reported.
+     */
+    public long getDeadlineMs() {
+        if (lastActivityMs == Long.MIN_VALUE || alerted) return Long.MAX_VALUE;
+        return deadlineAfter(lastActivityMs);
+    }
+
+    /**
+     * First moment that lies in an hour whose threshold has passed, counting from startMs or,
+     * once an hour that is off came in between, from the start of the next hour that is on.
+     * Walks hour by hour in the local zone, so daylight saving changes are respected.
+     */
+    long deadlineAfter(long startMs) {
+        ZonedDateTime slot = Instant.ofEpochMilli(startMs).atZone(zone).truncatedTo(ChronoUnit.HOURS);
+        long stretchStartMs = startMs;
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            ZonedDateTime next = slot.plusHours(1);
+            long nextMs = next.toInstant().toEpochMilli();
+            int minutes = thresholdsMin[slot.getHour()];
+            if (minutes > 0) {
+                long dueMs = Math.max(slot.toInstant().toEpochMilli(), stretchStartMs + minutes * 60_000L);
+                if (dueMs < nextMs) return dueMs;
+            } else {
+                // Asleep: the night says nothing about the day, which is counted afresh
+                stretchStartMs = nextMs;
+            }
+            slot = next;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** The current stretch was already reported, e.g. before the service restarted. */
+    public void markReported() {
+        alerted = true;
+    }
+
+    /** Returns true, once per stretch of inactivity, when its deadline has passed. */
+    public boolean check(long nowMs) {
+        if (nowMs < getDeadlineMs()) return false;
+        alerted = true;
+        alerts++;
+        return true;
+    }
+
+    /** Comma-separated minutes for hours 0 to 23, as stored in the settings. */
+    public static int[] parseThresholds(String text) {
+        String[] parts = text.split(",");
+        if (parts.length != HOURS) {
+            throw new IllegalArgumentException("Expected " + HOURS + " thresholds: " + text);
+        }
+        int[] thresholds = new int[HOURS];
+        for (int i = 0; i < HOURS; i++) {
+            thresholds[i] = Integer.parseInt(parts[i].trim());
+            if (thresholds[i] < 0) throw new IllegalArgumentException("Negative threshold: " + text);
+        }
+        return thresholds;
+    }
+
+    public static String formatThresholds(int[] thresholds) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < thresholds.length; i++) {
+            if (i > 0) out.append(',');
+            out.append(thresholds[i]);
+        }
+        return out.toString();
+    }
+
+    public void dump(StringBuilder out, long nowMs) {
+        long deadlineMs = getDeadlineMs();
+        out.append("inactivity_idle_min=")
+                .append(lastActivityMs == Long.MIN_VALUE ? -1 : (nowMs - lastActivityMs) / 60_000).append('\n');
+        out.append("inactivity_deadline_in_min=")
+                .append(deadlineMs == Long.MAX_VALUE ? -1 : Math.max(0, deadlineMs - nowMs) / 60_000).append('\n');
+        out.append("inactivity_alerts=").append(alerts).append('\n');
+    }
+}
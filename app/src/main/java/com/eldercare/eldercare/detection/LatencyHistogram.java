@@ -0,0 +1,159 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Buckets are log-linear: exact below 32 ns,
+ * then 16 buckets per power of two, so any value is reported within about 6%.
+ * record() can be called from any thread and never blocks or allocates.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    // Covers every non-negative long: Long.MAX_VALUE lands in the top bucket, 58 * 16 + 31 = 959
+    private static final int BUCKET_COUNT = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketOf(nanos));
+        total.addAndGet(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // retry until the larger value is stored
+        }
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < 2 * SUB_COUNT) return (int) nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS;
+        return shift * SUB_COUNT + (int) (nanos >>> shift);
+    }
+
+    /** Largest value that falls into the bucket. */
+    static long upperBoundOf(int bucket) {
+        if (bucket < 2 * SUB_COUNT) return bucket;
+        int shift = bucket / SUB_COUNT - 1;
+        long mantissa = bucket - (long) shift * SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) count += counts.get(i);
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0-100), 0 when empty.
+     * Counts are read one by one, so samples recorded meanwhile may or may not be included.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) counts.set(i, 0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Writes the non-empty buckets, the total and the max, so the histogram can outlive the
+     * process. Layout: bucket count (int), then bucket (short) and count (long) pairs, then
+     * total (long) and max (long).
+     */
+    public void write(DataOutput out) throws IOException {
+        long[] snapshot = new long[BUCKET_COUNT];
+        int used = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+            if (snapshot[i] != 0) used++;
+        }
+        out.writeInt(used);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (snapshot[i] == 0) continue;
+            out.writeShort(i);
+            out.writeLong(snapshot[i]);
+        }
+        out.writeLong(total.get());
+        out.writeLong(max.get());
+    }
+
+    /**
+     * Adds what write() stored to this histogram, on top of what was recorded since. Nothing is
+     * added when the record is corrupt.
+     */
+    public void merge(DataInput in) throws IOException {
+        int used = in.readInt();
+        if (used < 0 || used > BUCKET_COUNT) throw new IOException("Corrupt histogram " + name);
+        int[] buckets = new int[used];
+        long[] bucketCounts = new long[used];
+        for (int i = 0; i < used; i++) {
+            buckets[i] = in.readUnsignedShort();
+            bucketCounts[i] = in.readLong();
+            if (buckets[i] >= BUCKET_COUNT || bucketCounts[i] < 0) {
+                throw new IOException("Corrupt histogram " + name);
+            }
+        }
+        long storedTotal = in.readLong();
+        long storedMax = in.readLong();
+        for (int i = 0; i < used; i++) counts.addAndGet(buckets[i], bucketCounts[i]);
+        total.addAndGet(storedTotal);
+        long current;
+        while (storedMax > (current = max.get()) && !max.compareAndSet(current, storedMax)) {
+            // retry until the larger value is stored
+        }
+    }
+
+    /** Writes count, mean, p50/p90/p99 and max in milliseconds as name_* lines. */
+    public void dump(StringBuilder out) {
+        long count = getCount();
+        out.append(name).append("_count=").append(count).append('\n');
+        if (count == 0) return;
+        appendMs(out, "_mean_ms=", total.get() / count);
+        appendMs(out, "_p50_ms=", getPercentile(50));
+        appendMs(out, "_p90_ms=", getPercentile(90));
+        appendMs(out, "_p99_ms=", getPercentile(99));
+        appendMs(out, "_max_ms=", max.get());
+    }
+
+    private void appendMs(StringBuilder out, String key, long nanos) {
+        out.append(name).append(key).append(String.format(Locale.US, "%.1f", nanos / 1e6)).append('\n');
+    }
+
+    public String getName() {
+        return name;
+    }
+}
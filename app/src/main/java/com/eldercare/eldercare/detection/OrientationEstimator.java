@@ -0,0 +1,156 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Streaming device attitude from the accelerometer and gyroscope: a quaternion complementary
+ * filter in the style of Mahony. The gyroscope is integrated every sample and the accelerometer
+ * pulls the estimate back towards gravity with gain kp, only while it reads close to 1 g, so
+ * free-fall and impacts do not disturb the attitude. State is held in primitive fields and
+ * update() does not allocate.
+ *
+ * Without a magnetometer the heading is free to drift; gravity in the device frame is what the
+ * detectors use.
+ */
+public class OrientationEstimator {
+
+    private static final float G = 9.81f;
+    public static final float DEFAULT_KP = 1.0f;
+    // Accelerometer readings outside this range are not trusted as a gravity reference
+    private static final float TRUST_MIN_SQ = (0.8f * G) * (0.8f * G);
+    private static final float TRUST_MAX_SQ = (1.2f * G) * (1.2f * G);
+    // Longer gaps, e.g. after idle sampling, restart from the accelerometer
+    private static final long MAX_STEP_NS = 500_000_000L;
+
+    private final float kp;
+
+    private boolean initialised = false;
+    private long lastTimestampNs;
+    private float q0 = 1f;
+    private float q1;
+    private float q2;
+    private float q3;
+    // Unit gravity direction in the device frame, derived from the quaternion
+    private float gravityX;
+    private float gravityY;
+    private float gravityZ = 1f;
+
+    public OrientationEstimator() {
+        this(DEFAULT_KP);
+    }
+
+    public OrientationEstimator(float kp) {
+        this.kp = kp;
+    }
+
+    public void update(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        float normSq = ax * ax + ay * ay + az * az;
+        long stepNs = timestampNs - lastTimestampNs;
+        if (!initialised || stepNs <= 0 || stepNs > MAX_STEP_NS) {
+            if (normSq >= TRUST_MIN_SQ && normSq <= TRUST_MAX_SQ) {
+                initialise(ax, ay, az);
+                lastTimestampNs = timestampNs;
+            }
+            return;
+        }
+        lastTimestampNs = timestampNs;
+
+        if (normSq >= TRUST_MIN_SQ && normSq <= TRUST_MAX_SQ) {
+            float recipNorm = 1f / (float) Math.sqrt(normSq);
+            ax *= recipNorm;
+            ay *= recipNorm;
+            az *= recipNorm;
+            // Error is the cross product of measured and estimated gravity
+            gx += kp * (ay * gravityZ - az * gravityY);
+            gy += kp * (az * gravityX - ax * gravityZ);
+            gz += kp * (ax * gravityY - ay * gravityX);
+        }
+
+        float halfDt = stepNs * 0.5e-9f;
+        gx *= halfDt;
+        gy *= halfDt;
+        gz *= halfDt;
+        float a = q0;
+        float b = q1;
+        float c = q2;
+        q0 += -b * gx - c * gy - q3 * gz;
+        q1 += a * gx + c * gz - q3 * gy;
+        q2 += a * gy - b * gz + q3 * gx;
+        q3 += a * gz + b * gy - c * gx;
+
+        float recipNorm = 1f / (float) Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= recipNorm;
+        q1 *= recipNorm;
+        q2 *= recipNorm;
+        q3 *= recipNorm;
+        updateGravity();
+    }
+
+    /** Attitude with zero heading whose gravity direction matches the accelerometer. */
+    private void initialise(float ax, float ay, float az) {
+        double roll = Math.atan2(ay, az);
+        double pitch = Math.atan2(-ax, Math.sqrt(ay * ay + az * az));
+        double cr = Math.cos(roll / 2);
+        double sr = Math.sin(roll / 2);
+        double cp = Math.cos(pitch / 2);
+        double sp = Math.sin(pitch / 2);
+        q0 = (float) (cr * cp);
+        q1 = (float) (sr * cp);
+        q2 = (float) (cr * sp);
+        q3 = (float) (-sr * sp);
+        initialised = true;
+        updateGravity();
+    }
+
+    private void updateGravity() {
+        gravityX = 2f * (q1 * q3 - q0 * q2);
+        gravityY = 2f * (q0 * q1 + q2 * q3);
+        gravityZ = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+    }
+
+    public boolean isInitialised() {
+        return initialised;
+    }
+
+    public float getGravityX() {
+        return gravityX;
+    }
+
+    public float getGravityY() {
+        return gravityY;
+    }
+
+    public float getGravityZ() {
+        return gravityZ;
+    }
+
+    /** Cosine of the angle between the current gravity direction and a unit reference. */
+    public float cosineTo(float x, float y, float z) {
+        return gravityX * x + gravityY * y + gravityZ * z;
+    }
+
+    public float getQ0() {
+        return q0;
+    }
+
+    public float getQ1() {
+        return q1;
+    }
+
+    public float getQ2() {
+        return q2;
+    }
+
+    public float getQ3() {
+        return q3;
+    }
+
+    public void reset() {
+        initialised = false;
+        q0 = 1f;
+        q1 = 0f;
+        q2 = 0f;
+        q3 = 0f;
+        gravityX = 0f;
+        gravityY = 0f;
+        gravityZ = 1f;
+    }
+}
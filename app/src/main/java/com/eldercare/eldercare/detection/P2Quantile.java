@@ -0,0 +1,125 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of one quantile in constant memory, using the P2 algorithm
+ * (Jain and Chlamtac): five markers whose heights are adjusted with a parabolic
+ * formula as values arrive. add() does not allocate.
+ */
+public class P2Quantile {
+
+    private static final int MARKERS = 5;
+
+    private final double p;
+    private final double[] heights = new double[MARKERS];
+    private final double[] positions = new double[MARKERS];
+    private final double[] desired = new double[MARKERS];
+    private final double[] increments;
+    private long count = 0;
+
+    public P2Quantile(double p) {
+        if (p <= 0 || p >= 1) throw new IllegalArgumentException("Quantile must be in (0, 1): " + p);
+        this.p = p;
+        this.increments = new double[]{0, p / 2, p, (1 + p) / 2, 1};
+    }
+
+    public void add(double x) {
+        if (count < MARKERS) {
+            heights[(int) count++] = x;
+            if (count == MARKERS) {
+                Arrays.sort(heights);
+                for (int i = 0; i < MARKERS; i++) positions[i] = i + 1;
+                desired[0] = 1;
+                desired[1] = 1 + 2 * p;
+                desired[2] = 1 + 4 * p;
+                desired[3] = 3 + 2 * p;
+                desired[4] = 5;
+            }
+            return;
+        }
+
+        int k;
+        if (x < heights[0]) {
+            heights[0] = x;
+            k = 0;
+        } else if (x >= heights[4]) {
+            heights[4] = x;
+            k = 3;
+        } else {
+            k = 0;
+            while (x >= heights[k + 1]) k++;
+        }
+        for (int i = k + 1; i < MARKERS; i++) positions[i]++;
+        for (int i = 0; i < MARKERS; i++) desired[i] += increments[i];
+
+        for (int i = 1; i < MARKERS - 1; i++) {
+            double d = desired[i] - positions[i];
+            if ((d >= 1 && positions[i + 1] - positions[i] > 1) || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                int step = d > 0 ? 1 : -1;
+                double candidate = parabolic(i, step);
+                if (heights[i - 1] < candidate && candidate < heights[i + 1]) {
+                    heights[i] = candidate;
+                } else {
+                    heights[i] += step * (heights[i + step] - heights[i]) / (positions[i + step] - positions[i]);
+                }
+                positions[i] += step;
+            }
+        }
+        count++;
+    }
+
+    private double parabolic(int i, int d) {
+        double below = positions[i] - positions[i - 1];
+        double above = positions[i + 1] - positions[i];
+        return heights[i] + d / (positions[i + 1] - positions[i - 1])
+                * ((below + d) * (heights[i + 1] - heights[i]) / above
+                + (above - d) * (heights[i] - heights[i - 1]) / below);
+    }
+
+    /** Current estimate, NaN before the first value; exact while fewer than five values were seen. */
+    public double getQuantile() {
+        if (count == 0) return Double.NaN;
+        if (count >= MARKERS) return heights[2];
+        double[] sorted = Arrays.copyOf(heights, (int) count);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(count - 1, Math.round(p * (count - 1)))];
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void reset() {
+        count = 0;
+        Arrays.fill(heights, 0);
+    }
+
+    /** Writes the sketch in 128 bytes; read() must be called on a sketch for the same quantile. */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(count);
+        for (int i = 0; i < MARKERS; i++) {
+            out.writeDouble(heights[i]);
+            out.writeDouble(positions[i]);
+            out.writeDouble(desired[i]);
+        }
+    }
+
+    public void read(DataInput in) throws IOException {
+        long stored = in.readLong();
+        if (stored < 0) throw new IOException("Corrupt quantile sketch");
+        count = stored;
+        for (int i = 0; i < MARKERS; i++) {
+            heights[i] = in.readDouble();
+            positions[i] = in.readDouble();
+            desired[i] = in.readDouble();
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.eldercare.eldercare.detection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the pulse rate from the colour of a patch of facial skin over 10-20 s of camera
+ * frames (remote photoplethysmography). Each frame contributes one mean colour of the region
+ * of interest, read straight from the YUV_420_888 planes; estimate() turns the series into a
+ * rate with the chrominance method of de Haan and Jeanne (CHROM): the channels are normalised,
+ * combined into two chrominance signals that cancel most of the motion and lighting changes,
+ * band-pass filtered to 42-240 beats/min, and the spectral peak is taken.
+ *
+ * Every buffer is allocated up front, so addFrame() allocates nothing. Frame times may be
+ * irregular; the series is resampled to RESAMPLE_HZ first. Not thread-safe.
+ */
+public class PulseEstimator {
+
+    public static final float MIN_BPM = 42f;
+    public static final float MAX_BPM = 240f;
+    public static final float RESAMPLE_HZ = 30f;
+    // Shortest series estimate() works on; a few beats are not enough for a clear peak
+    public static final float MIN_SECONDS = 8f;
+    // Below this the peak is hardly above the rest of the band and the rate is not trusted
+    public static final float MIN_SNR_DB = 0f;
+
+    // Spectrum resolution, 0.5 beats/min; the peak is refined between bins
+    private static final float BIN_BPM = 0.5f;
+    // Half-width of the band around the peak and its harmonic that counts as signal (de Haan)
+    private static final float SIGNAL_HALF_WIDTH_BPM = 6f;
+    // Skin region as shares of the face box: the cheeks and the nose between them, below the
+    // eyes and above the mouth, away from hair, beard and the edge of the face
+    private static final float SKIN_LEFT = 0.2f;
+    private static final float SKIN_RIGHT = 0.8f;
+    private static final float SKIN_TOP = 0.45f;
+    private static final float SKIN_BOTTOM = 0.7f;
+
+    private final long[] timesNs;
+    private final float[] red;
+    private final float[] green;
+    private final float[] blue;
+    private int count;
+
+    // Scratch for estimate(), sized for the longest series
+    private final float[] chromX;
+    private final float[] chromY;
+    private final float[] window;
+    private final float[] power;
+    private final Biquad highPass;
+    private final Biquad lowPass;
+
+    private float bpm = Float.NaN;
+    private float snrDb = Float.NaN;
+
+    public PulseEstimator(float maxSeconds, float maxFps) {
+        int frames = (int) Math.ceil(maxSeconds * maxFps) + 1;
+        timesNs = new long[frames];
+        red = new float[frames];
+        green = new float[frames];
+        blue = new float[frames];
+        int samples = (int) Math.ceil(maxSeconds * RESAMPLE_HZ) + 1;
+        chromX = new float[samples];
+        chromY = new float[samples];
+        window = new float[samples];
+        power = new float[Math.round((MAX_BPM - MIN_BPM) / BIN_BPM) + 1];
+        highPass = Biquad.highPass(MIN_BPM / 60f, RESAMPLE_HZ);
+        lowPass = Biquad.lowPass(MAX_BPM / 60f, RESAMPLE_HZ);
+    }
+
+    public void reset() {
+        count = 0;
+        bpm = Float.NaN;
+        snrDb = Float.NaN;
+    }
+
+    public int getFrameCount() {
+        return count;
+    }
+
+    public float getSeconds() {
+        return count < 2 ? 0 : (timesNs[count - 1] - timesNs[0]) / 1e9f;
+    }
+
+    public boolean isFull() {
+        return count == timesNs.length;
+    }
+
+    /**
+     * Adds the mean colour of the rectangle [left, right) x [top, bottom) of a YUV_420_888 frame,
+     * reading the planes with absolute gets so their positions are left alone. Chroma is
+     * subsampled 2x2, as the format requires. Returns false when the frame was not used: out of
+     * order, or the buffer is full.
+     */
+    public boolean addFrame(long timestampNs, ByteBuffer yPlane, int yRowStride,
+                            ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                            int left, int top, int right, int bottom) {
+        if (right <= left || bottom <= top) return false;
+        long ySum = 0;
+        for (int row = top; row < bottom; row++) {
+            int offset = row * yRowStride;
+            for (int col = left; col < right; col++) {
+                ySum += yPlane.get(offset + col) & 0xff;
+            }
+        }
+        long uSum = 0;
+        long vSum = 0;
+        int uvLeft = left >> 1;
+        int uvRight = (right + 1) >> 1;
+        int uvTop = top >> 1;
+        int uvBottom = (bottom + 1) >> 1;
+        for (int row = uvTop; row < uvBottom; row++) {
+            int offset = row * uvRowStride;
+            for (int col = uvLeft; col < uvRight; col++) {
+                int index = offset + col * uvPixelStride;
+                uSum += uPlane.get(index) & 0xff;
+                vSum += vPlane.get(index) & 0xff;
+            }
+        }
+        float y = (float) ySum / ((right - left) * (bottom - top));
+        int uvPixels = (uvRight - uvLeft) * (uvBottom - uvTop);
+        float u = (float) uSum / uvPixels - 128f;
+        float v = (float) vSum / uvPixels - 128f;
+        // BT.601 full range, which camera YUV uses; linear, so the mean converts like a pixel
+        return addSample(timestampNs, y + 1.402f * v, y - 0.344136f * u - 0.714136f * v, y + 1.772f * u);
+    }
+
+    /**
+     * The skin whose colour addFrame() should read, for a face given in the coordinates of the
+     * upright frame as in FrameScorer.score(). Writes left, top, right and bottom in the width x
+     * height plane as it lies into region, clipped to the plane; false when nothing is left.
+     */
+    public static boolean skinRegion(int width, int height, int rotationDegrees,
+                                     int faceLeft, int faceTop, int faceRight, int faceBottom, int[] region) {
+        int faceWidth = faceRight - faceLeft;
+        int faceHeight = faceBottom - faceTop;
+        int skinLeft = faceLeft + Math.round(faceWidth * SKIN_LEFT);
+        int skinRight = faceLeft + Math.round(faceWidth * SKIN_RIGHT);
+        int skinTop = faceTop + Math.round(faceHeight * SKIN_TOP);
+        int skinBottom = faceTop + Math.round(faceHeight * SKIN_BOTTOM);
+        int left, top, right, bottom;
+        // Back from the upright frame to the plane as it lies
+        int rotation = ((rotationDegrees % 360) + 360) % 360;
+        switch (rotation) {
+            case 90:
+                left = skinTop;
+                right = skinBottom;
+                top = height - skinRight;
+                bottom = height - skinLeft;
+                break;
+            case 180:
+                left = width - skinRight;
+                right = width - skinLeft;
+                top = height - skinBottom;
+                bottom = height - skinTop;
+                break;
+            case 270:
+                left = width - skinBottom;
+                right = width - skinTop;
+                top = skinLeft;
+                bottom = skinRight;
+                break;
+            default:
+                left = skinLeft;
+                right = skinRight;
+                top = skinTop;
+                bottom = skinBottom;
+                break;
+        }
+        region[0] = Math.max(0, left);
+        region[1] = Math.max(0, top);
+        region[2] = Math.min(width, right);
+        region[3] = Math.min(height, bottom);
+        return region[2] > region[0] && region[3] > region[1];
+    }
+
+    public boolean addSample(long timestampNs, float r, float g, float b) {
+        if (isFull() || (count > 0 && timestampNs <= timesNs[count - 1])) return false;
+        timesNs[count] = timestampNs;
+        red[count] = r;
+        green[count] = g;
+        blue[count] = b;
+        count++;
+        return true;
+    }
+
+    /**
+     * Pulse rate in beats/min over every frame so far, or NaN when the series is shorter than
+     * MIN_SECONDS or has no colour to work with. getSnrDb() tells how clear the peak was.
+     */
+    public float estimate() {
+        bpm = Float.NaN;
+        snrDb = Float.NaN;
+        if (getSeconds() < MIN_SECONDS) return bpm;
+
+        float redMean = mean(red);
+        float greenMean = mean(green);
+        float blueMean = mean(blue);
+        if (redMean <= 0 || greenMean <= 0 || blueMean <= 0) return bpm;
+
+        // Resample to a steady rate and form the two chrominance signals at the same time
+        int samples = Math.min(chromX.length, (int) (getSeconds() * RESAMPLE_HZ) + 1);
+        long startNs = timesNs[0];
+        int frame = 0;
+        for (int i = 0; i < samples; i++) {
+            long tNs = startNs + (long) (i * (1e9 / RESAMPLE_HZ));
+            while (frame < count - 2 && timesNs[frame + 1] < tNs) frame++;
+            float f = (float) (tNs - timesNs[frame]) / (timesNs[frame + 1] - timesNs[frame]);
+            f = Math.max(0f, Math.min(1f, f));
+            float r = lerp(red, frame, f) / redMean;
+            float g = lerp(green, frame, f) / greenMean;
+            float b = lerp(blue, frame, f) / blueMean;
+            chromX[i] = 3f * r - 2f * g;
+            chromY[i] = 1.5f * r + g - 1.5f * b;
+        }
+        bandPass(chromX, samples);
+        bandPass(chromY, samples);
+
+        // The pulse is what the two signals share; weighting by their spread cancels the rest
+        float xSd = standardDeviation(chromX, samples);
+        float ySd = standardDeviation(chromY, samples);
+        if (xSd == 0 || ySd == 0) return bpm;
+        float alpha = xSd / ySd;
+        for (int i = 0; i < samples; i++) {
+            // Hann window, which also fades out the filter transients at both ends
+            double hann = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / (samples - 1));
+            window[i] = (float) ((chromX[i] - alpha * chromY[i]) * hann);
+        }
+
+        int peak = 0;
+        for (int bin = 0; bin < power.length; bin++) {
+            power[bin] = goertzel(window, samples, (MIN_BPM + bin * BIN_BPM) / 60f / RESAMPLE_HZ);
+            if (power[bin] > power[peak]) peak = bin;
+        }
+        if (power[peak] == 0) return bpm;
+
+        // Parabolic interpolation between the neighbouring bins
+        float offset = 0;
+        if (peak > 0 && peak < power.length - 1) {
+            float before = power[peak - 1];
+            float after = power[peak + 1];
+            float denominator = before - 2 * power[peak] + after;
+            if (denominator < 0) offset = 0.5f * (before - after) / denominator;
+        }
+        bpm = MIN_BPM + (peak + offset) * BIN_BPM;
+
+        double signal = 0;
+        double noise = 0;
+        for (int bin = 0; bin < power.length; bin++) {
+            float binBpm = MIN_BPM + bin * BIN_BPM;
+            if (Math.abs(binBpm - bpm) <= SIGNAL_HALF_WIDTH_BPM
+                    || Math.abs(binBpm - 2 * bpm) <= SIGNAL_HALF_WIDTH_BPM) {
+                signal += power[bin];
+            } else {
+                noise += power[bin];
+            }
+        }
+        snrDb = noise == 0 ? Float.POSITIVE_INFINITY : (float) (10 * Math.log10(signal / noise));
+        return bpm;
+    }
+
+    /** Of the last estimate(): the rate, or NaN. */
+    public float getBpm() {
+        return bpm;
+    }
+
+    /** Of the last estimate(): power at the peak and its harmonic against the rest of the band. */
+    public float getSnrDb() {
+        return snrDb;
+    }
+
+    /** Whether the last estimate() found a rate clear enough to show. */
+    public boolean isReliable() {
+        return !Float.isNaN(bpm) && snrDb >= MIN_SNR_DB;
+    }
+
+    private float mean(float[] values) {
+        double sum = 0;
+        for (int i = 0; i < count; i++) sum += values[i];
+        return (float) (sum / count);
+    }
+
+    private static float lerp(float[] values, int index, float f) {
+        return values[index] + f * (values[index + 1] - values[index]);
+    }
+
+    private static float standardDeviation(float[] values, int n) {
+        double sum = 0;
+        double squares = 0;
+        for (int i = 0; i < n; i++) {
+            sum += values[i];
+            squares += values[i] * values[i];
+        }
+        double mean = sum / n;
+        return (float) Math.sqrt(Math.max(0, squares / n - mean * mean));
+    }
+
+    /** Zero-phase band-pass: both sections forward, then both backward. */
+    private void bandPass(float[] values, int n) {
+        // Starting from the first value keeps the high-pass from ringing on the DC step
+        float first = values[0];
+        for (int i = 0; i < n; i++) values[i] -= first;
+        highPass.run(values, n, false);
+        lowPass.run(values, n, false);
+        highPass.run(values, n, true);
+        lowPass.run(values, n, true);
+    }
+
+    /** Power of values at a frequency given in cycles per sample. */
+    private static float goertzel(float[] values, int n, float cyclesPerSample) {
+        double coefficient = 2 * Math.cos(2 * Math.PI * cyclesPerSample);
+        double s1 = 0;
+        double s2 = 0;
+        for (int i = 0; i < n; i++) {
+            double s0 = values[i] + coefficient * s1 - s2;
+            s2 = s1;
+            s1 = s0;
+        }
+        return (float) (s1 * s1 + s2 * s2 - coefficient * s1 * s2);
+    }
+
+    /** Second-order Butterworth section (RBJ cookbook, Q = 1/sqrt(2)). */
+    private static final class Biquad {
+        final float b0, b1, b2, a1, a2;
+
+        Biquad(double b0, double b1, double b2, double a0, double a1, double a2) {
+            this.b0 = (float) (b0 / a0);
+            this.b1 = (float) (b1 / a0);
+            this.b2 = (float) (b2 / a0);
+            this.a1 = (float) (a1 / a0);
+            this.a2 = (float) (a2 / a0);
+        }
+
+        static Biquad highPass(double cutoffHz, double sampleHz) {
+            double w = 2 * Math.PI * cutoffHz / sampleHz;
+            double alpha = Math.sin(w) / Math.sqrt(2);
+            double cos = Math.cos(w);
+            return new Biquad((1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+        }
+
+        static Biquad lowPass(double cutoffHz, double sampleHz) {
+            double w = 2 * Math.PI * cutoffHz / sampleHz;
+            double alpha = Math.sin(w) / Math.sqrt(2);
+            double cos = Math.cos(w);
+            return new Biquad((1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+        }
+
+        /** Filters values[0..n) in place, from the end when backward. */
+        void run(float[] values, int n, boolean backward) {
+            float x1 = 0, x2 = 0, y1 = 0, y2 = 0;
+            for (int k = 0; k < n; k++) {
+                int i = backward ? n - 1 - k : k;
+                float x = values[i];
+                float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+                x2 = x1;
+                x1 = x;
+                y2 = y1;
+                y1 = y;
+                values[i] = y;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Aligns accelerometer and gyroscope streams onto a common clock.
+ * Raw samples are stored by their sensor timestamp and both streams are interpolated at
+ * fixed ticks, so correlation no longer depends on when the callbacks were delivered.
+ * Interpolation averages a spike shorter than a tick away, so each fused sample also carries
+ * the largest raw magnitudes since the previous tick, for the impact checks.
+ * Nothing is allocated after construction.
+ */
+public class SensorFusion {
+
+    public interface Listener {
+        /**
+         * accelPeakSq and gyroPeakSq are the squared magnitudes of the largest raw samples since
+         * the previous tick, never below those of the fused sample itself.
+         */
+        void onFusedSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                           float accelPeakSq, float gyroPeakSq);
+    }
+
+    private final SensorRingBuffer accel;
+    private final SensorRingBuffer gyro;
+    private final long periodNs;
+    private final float[] accelOut = new float[3];
+    private final float[] gyroOut = new float[3];
+    private Listener listener;
+
+    private long nextTickNs = Long.MIN_VALUE;
+    private long droppedSamples = 0;
+
+    public SensorFusion(long periodNs, int capacity, Listener listener) {
+        this.periodNs = periodNs;
+        this.accel = new SensorRingBuffer(capacity);
+        this.gyro = new SensorRingBuffer(capacity);
+        this.listener = listener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void addAccelerometer(long timestampNs, float x, float y, float z) {
+        if (!accel.add(timestampNs, x, y, z)) droppedSamples++;
+    }
+
+    public void addGyroscope(long timestampNs, float x, float y, float z) {
+        if (!gyro.add(timestampNs, x, y, z)) droppedSamples++;
+    }
+
+    /**
+     * Emits fused samples for every tick both streams already cover.
+     * Returns the number of samples emitted.
+     */
+    public int drain() {
+        if (accel.isEmpty() || gyro.isEmpty()) return 0;
+
+        long start = Math.max(accel.oldestTimestamp(), gyro.oldestTimestamp());
+        long horizon = Math.min(accel.latestTimestamp(), gyro.latestTimestamp());
+
+        // First tick, or one of the streams stalled long enough to be overwritten
+        if (nextTickNs < start) {
+            nextTickNs = start - Math.floorMod(start, periodNs);
+            if (nextTickNs < start) nextTickNs += periodNs;
+        }
+
+        int emitted = 0;
+        while (nextTickNs <= horizon) {
+            if (accel.interpolate(nextTickNs, accelOut) && gyro.interpolate(nextTickNs, gyroOut)) {
+                long previousTickNs = nextTickNs - periodNs;
+                float accelPeakSq = Math.max(accel.peakSquared(previousTickNs, nextTickNs),
+                        accelOut[0] * accelOut[0] + accelOut[1] * accelOut[1] + accelOut[2] * accelOut[2]);
+                float gyroPeakSq = Math.max(gyro.peakSquared(previousTickNs, nextTickNs),
+                        gyroOut[0] * gyroOut[0] + gyroOut[1] * gyroOut[1] + gyroOut[2] * gyroOut[2]);
+                listener.onFusedSample(nextTickNs,
+                        accelOut[0], accelOut[1], accelOut[2],
+                        gyroOut[0], gyroOut[1], gyroOut[2],
+                        accelPeakSq, gyroPeakSq);
+                emitted++;
+            }
+            nextTickNs += periodNs;
+        }
+        return emitted;
+    }
+
+    public long getPeriodNs() {
+        return periodNs;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    public void reset() {
+        accel.clear();
+        gyro.clear();
+        nextTickNs = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,138 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Fixed-capacity ring buffer of 3-axis sensor samples keyed by SensorEvent.timestamp (ns).
+ * All storage is allocated up front, so adding, interpolating and finding peaks never allocates.
+ */
+public class SensorRingBuffer {
+
+    private final long[] timestamps;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private final int mask;
+
+    // Sequence numbers: sample n lives at index (n & mask)
+    private long written = 0;
+    private long cursor = 0;
+    private long peakCursor = 0;
+
+    public SensorRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        timestamps = new long[size];
+        xs = new float[size];
+        ys = new float[size];
+        zs = new float[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Appends a sample. Samples that are not strictly newer than the last one are dropped
+     * and false is returned.
+     */
+    public boolean add(long timestampNs, float x, float y, float z) {
+        if (written > 0 && timestampNs <= timestamps[(int) ((written - 1) & mask)]) {
+            return false;
+        }
+        int i = (int) (written & mask);
+        timestamps[i] = timestampNs;
+        xs[i] = x;
+        ys[i] = y;
+        zs[i] = z;
+        written++;
+        return true;
+    }
+
+    /**
+     * Linearly interpolates the sample at timestampNs into out[0..2].
+     * Returns false when timestampNs is outside the buffered range.
+     * Queries with increasing timestamps are amortised O(1).
+     */
+    public boolean interpolate(long timestampNs, float[] out) {
+        if (written == 0) return false;
+        long oldest = oldestSequence();
+        long newest = written - 1;
+        if (timestampNs < timestamps[(int) (oldest & mask)]
+                || timestampNs > timestamps[(int) (newest & mask)]) {
+            return false;
+        }
+
+        if (cursor < oldest || timestamps[(int) (cursor & mask)] > timestampNs) {
+            cursor = oldest;
+        }
+        // Move cursor to the last sample at or before timestampNs
+        while (cursor < newest && timestamps[(int) ((cursor + 1) & mask)] <= timestampNs) {
+            cursor++;
+        }
+
+        int a = (int) (cursor & mask);
+        if (cursor == newest || timestamps[a] == timestampNs) {
+            out[0] = xs[a];
+            out[1] = ys[a];
+            out[2] = zs[a];
+            return true;
+        }
+
+        int b = (int) ((cursor + 1) & mask);
+        float f = (float) (timestampNs - timestamps[a]) / (float) (timestamps[b] - timestamps[a]);
+        out[0] = xs[a] + (xs[b] - xs[a]) * f;
+        out[1] = ys[a] + (ys[b] - ys[a]) * f;
+        out[2] = zs[a] + (zs[b] - zs[a]) * f;
+        return true;
+    }
+
+    /**
+     * Largest squared magnitude of the samples in (afterNs, untilNs], 0 when there are none.
+     * An interpolated value can fall well below a spike between two ticks; this cannot.
+     * Queries with increasing ranges are amortised O(1) per sample.
+     */
+    public float peakSquared(long afterNs, long untilNs) {
+        if (written == 0) return 0;
+        long oldest = oldestSequence();
+        if (peakCursor < oldest || peakCursor > written
+                || (peakCursor > oldest && timestamps[(int) ((peakCursor - 1) & mask)] > afterNs)) {
+            peakCursor = oldest;
+        }
+        // Move peakCursor to the first sample after afterNs
+        while (peakCursor < written && timestamps[(int) (peakCursor & mask)] <= afterNs) {
+            peakCursor++;
+        }
+        float peak = 0;
+        for (long sequence = peakCursor; sequence < written; sequence++) {
+            int i = (int) (sequence & mask);
+            if (timestamps[i] > untilNs) break;
+            peak = Math.max(peak, xs[i] * xs[i] + ys[i] * ys[i] + zs[i] * zs[i]);
+        }
+        return peak;
+    }
+
+    public boolean isEmpty() {
+        return written == 0;
+    }
+
+    public int size() {
+        return (int) Math.min(written, timestamps.length);
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public long oldestTimestamp() {
+        return timestamps[(int) (oldestSequence() & mask)];
+    }
+
+    public long latestTimestamp() {
+        return timestamps[(int) ((written - 1) & mask)];
+    }
+
+    public void clear() {
+        written = 0;
+        cursor = 0;
+        peakCursor = 0;
+    }
+
+    private long oldestSequence() {
+        return Math.max(0, written - timestamps.length);
+    }
+}
@@ -0,0 +1,167 @@
+package com.eldercare.eldercare.detection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the gaps between samples of each sensor channel, to notice a stalled sensor and to
+ * measure coverage: the share of monitored time in which no gap was longer than GAP_PERIODS
+ * sampling periods.
+ *
+ * onSample() is called from the one thread that receives the samples and only does plain
+ * atomic reads and lazy writes; check() and dump() can be called from any other thread.
+ */
+public class SensorWatchdog {
+
+    // A gap longer than this many sampling periods counts as uncovered time
+    public static final int GAP_PERIODS = 5;
+    // Never call a sensor stalled sooner than this, whatever its rate
+    public static final long MIN_STALL_NS = 2_000_000_000L;
+    // A check that comes this much later in elapsed than in uptime ran after the device slept
+    private static final long SLEEP_TOLERANCE_NS = 1_000_000_000L;
+
+    // Per-channel slots, STRIDE longs each
+    private static final int LAST_NS = 0;
+    private static final int PERIOD_NS = 1;
+    private static final int GAP_BOUND_NS = 2;
+    private static final int STALL_NS = 3;
+    private static final int SAMPLES = 4;
+    private static final int MONITORED_NS = 5;
+    private static final int UNCOVERED_NS = 6;
+    private static final int LONG_GAPS = 7;
+    private static final int STALLED_CHECKS = 8;
+    private static final int STALLS = 9;
+    private static final int STRIDE = 10;
+
+    private final String[] names;
+    private final AtomicLongArray slots;
+    private final LatencyHistogram[] gaps;
+    private final AtomicLong reregistrations = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private long lastCheckNs = Long.MIN_VALUE;
+    private long lastCheckUptimeNs;
+
+    public SensorWatchdog(String... names) {
+        this.names = names.clone();
+        this.slots = new AtomicLongArray(names.length * STRIDE);
+        this.gaps = new LatencyHistogram[names.length];
+        for (int i = 0; i < names.length; i++) {
+            gaps[i] = new LatencyHistogram("watchdog_" + names[i] + "_gap");
+        }
+    }
+
+    /**
+     * Sets the sampling period a channel was registered with, or 0 when it is not expected to
+     * deliver samples. maxLatencyNs is the batching latency: samples may arrive that much late.
+     * The time until the first sample counts as a gap, so a sensor that never starts is noticed.
+     */
+    public void expect(int channel, long periodNs, long maxLatencyNs, long nowNs) {
+        int base = channel * STRIDE;
+        long gapBoundNs = GAP_PERIODS * periodNs;
+        slots.set(base + GAP_BOUND_NS, gapBoundNs);
+        slots.set(base + STALL_NS, Math.max(MIN_STALL_NS, 2 * maxLatencyNs + gapBoundNs));
+        slots.set(base + LAST_NS, nowNs);
+        slots.set(base + STALLED_CHECKS, 0);
+        slots.set(base + PERIOD_NS, periodNs);
+    }
+
+    public void onSample(int channel, long timestampNs) {
+        int base = channel * STRIDE;
+        if (slots.get(base + PERIOD_NS) == 0) return;
+        long gap = timestampNs - slots.get(base + LAST_NS);
+        if (gap <= 0) return;
+        slots.lazySet(base + LAST_NS, timestampNs);
+        long samples = slots.get(base + SAMPLES);
+        slots.lazySet(base + SAMPLES, samples + 1);
+        slots.lazySet(base + MONITORED_NS, slots.get(base + MONITORED_NS) + gap);
+        if (gap > slots.get(base + GAP_BOUND_NS)) {
+            slots.lazySet(base + UNCOVERED_NS, slots.get(base + UNCOVERED_NS) + gap);
+            slots.lazySet(base + LONG_GAPS, slots.get(base + LONG_GAPS) + 1);
+        }
+        gaps[channel].record(gap);
+    }
+
+    /**
+     * Returns a bit mask of the expected channels whose last sample is older than their stall
+     * bound. A check right after the device slept reports nothing, as samples may simply not
+     * have been delivered yet. Call from a single thread.
+     */
+    public int check(long nowNs, long uptimeNs) {
+        boolean slept = lastCheckNs != Long.MIN_VALUE
+                && (nowNs - lastCheckNs) - (uptimeNs - lastCheckUptimeNs) > SLEEP_TOLERANCE_NS;
+        lastCheckNs = nowNs;
+        lastCheckUptimeNs = uptimeNs;
+        if (slept) return 0;
+
+        int stalled = 0;
+        for (int channel = 0; channel < names.length; channel++) {
+            int base = channel * STRIDE;
+            if (slots.get(base + PERIOD_NS) == 0) continue;
+            if (nowNs - slots.get(base + LAST_NS) > slots.get(base + STALL_NS)) {
+                if (slots.incrementAndGet(base + STALLED_CHECKS) == 1) {
+                    slots.incrementAndGet(base + STALLS);
+                }
+                stalled |= 1 << channel;
+            } else {
+                slots.set(base + STALLED_CHECKS, 0);
+            }
+        }
+        return stalled;
+    }
+
+    /** Number of checks in a row that found the channel stalled. */
+    public long getStalledChecks(int channel) {
+        return slots.get(channel * STRIDE + STALLED_CHECKS);
+    }
+
+    public void onReregistered() {
+        reregistrations.incrementAndGet();
+    }
+
+    public void onRestarted() {
+        restarts.incrementAndGet();
+    }
+
+    /**
+     * Percentage of the monitored time without long gaps; an ongoing stall counts as uncovered.
+     * 100 before anything was monitored.
+     */
+    public double getCoveragePercent(int channel, long nowNs) {
+        int base = channel * STRIDE;
+        long monitored = slots.get(base + MONITORED_NS);
+        long uncovered = slots.get(base + UNCOVERED_NS);
+        if (slots.get(base + PERIOD_NS) != 0) {
+            long ongoing = nowNs - slots.get(base + LAST_NS);
+            if (ongoing > slots.get(base + STALL_NS)) {
+                monitored += ongoing;
+                uncovered += ongoing;
+            }
+        }
+        if (monitored <= 0) return 100;
+        return 100.0 * (monitored - uncovered) / monitored;
+    }
+
+    /** Coverage of the worst channel, since detection needs all of them. */
+    public double getCoveragePercent(long nowNs) {
+        double coverage = 100;
+        for (int channel = 0; channel < names.length; channel++) {
+            coverage = Math.min(coverage, getCoveragePercent(channel, nowNs));
+        }
+        return coverage;
+    }
+
+    public void dump(StringBuilder out, long nowNs) {
+        out.append("watchdog_coverage_pct=").append((float) getCoveragePercent(nowNs)).append('\n');
+        out.append("watchdog_reregistrations=").append(reregistrations.get()).append('\n');
+        out.append("watchdog_restarts=").append(restarts.get()).append('\n');
+        for (int channel = 0; channel < names.length; channel++) {
+            int base = channel * STRIDE;
+            String prefix = "watchdog_" + names[channel];
+            out.append(prefix).append("_coverage_pct=").append((float) getCoveragePercent(channel, nowNs)).append('\n');
+            out.append(prefix).append("_samples=").append(slots.get(base + SAMPLES)).append('\n');
+            out.append(prefix).append("_long_gaps=").append(slots.get(base + LONG_GAPS)).append('\n');
+            out.append(prefix).append("_stalls=").append(slots.get(base + STALLS)).append('\n');
+            gaps[channel].dump(out);
+        }
+    }
+}
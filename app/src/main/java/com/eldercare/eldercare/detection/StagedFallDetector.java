@@ -0,0 +1,184 @@
+package com.eldercare.eldercare.detection;
+
+import java.util.Arrays;
+
+/**
+ * Confirms a fall in stages: free-fall, then an impact, then the phone coming to rest in a
+ * different orientation, then a period of inactivity. Each sample is reduced to one event
+ * and the next stage is a lookup in TRANSITIONS; every stage except IDLE has a window on the
+ * sensor clock after which it times out.
+ *
+ * Orientation is the gravity direction from an OrientationEstimator: the one from before the
+ * free-fall is kept as the reference and compared against the current one while the phone is
+ * at rest. After the impact the detector waits for a rotated rest, so the filter has time to settle.
+ */
+public class StagedFallDetector implements FallDetector {
+
+    public static final String NAME = "staged";
+
+    public static final int STAGE_IDLE = 0;
+    public static final int STAGE_FREE_FALL = 1;
+    public static final int STAGE_IMPACT = 2;
+    public static final int STAGE_INACTIVE = 3;
+    // Not a resting stage: reaching it reports the fall and returns to IDLE
+    public static final int STAGE_FALL = 4;
+    private static final int STAGE_COUNT = 5;
+
+    private static final int EVENT_MOTION = 0;
+    private static final int EVENT_FREE_FALL = 1;
+    private static final int EVENT_IMPACT = 2;
+    // At rest in about the same orientation as before the fall
+    private static final int EVENT_STILL = 3;
+    // At rest, turned by more than the orientation threshold
+    private static final int EVENT_STILL_ROTATED = 4;
+    private static final int EVENT_TIMEOUT = 5;
+    private static final int EVENT_COUNT = 6;
+
+    private static final byte I = STAGE_IDLE;
+    private static final byte F = STAGE_FREE_FALL;
+    private static final byte M = STAGE_IMPACT;
+    private static final byte N = STAGE_INACTIVE;
+    private static final byte X = STAGE_FALL;
+
+    // [stage][event], events in the order MOTION, FREE_FALL, IMPACT, STILL, STILL_ROTATED, TIMEOUT
+    private static final byte[] TRANSITIONS = {
+            /* IDLE      */ I, F, I, I, I, I,
+            /* FREE_FALL */ F, F, M, F, F, I,
+            /* IMPACT    */ M, M, M, M, N, I,
+            /* INACTIVE  */ I, I, I, N, N, X,
+            /* FALL      */ I, I, I, I, I, I,
+    };
+
+    private static final float G = 9.81f;
+    public static final float FREE_FALL_THRESHOLD = 0.6f * G;
+    public static final float IMPACT_THRESHOLD = 2.5f * G;
+    // Deviation of |a| from 1 g and rotation rate below which the phone counts as at rest
+    public static final float STILL_BAND = 0.15f * G;
+    public static final float STILL_GYRO = 0.5f;
+    // cos(45 degrees): a smaller cosine between the gravity vectors counts as rotated
+    public static final float ROTATED_COSINE = 0.7071f;
+    public static final long FREE_FALL_WINDOW_NS = 1_000_000_000L;
+    public static final long IMPACT_WINDOW_NS = 3_000_000_000L;
+    public static final long INACTIVITY_NS = 3_000_000_000L;
+
+    private final long[] windowNs = new long[STAGE_COUNT];
+    private final float freeFallSq;
+    private final float impactSq;
+    private final float stillMinSq;
+    private final float stillMaxSq;
+    private final float stillGyroSq;
+    private final OrientationEstimator orientation = new OrientationEstimator();
+
+    private int stage = STAGE_IDLE;
+    private long stageEnteredNs;
+    private float refX;
+    private float refY;
+    private float refZ;
+    private final long[] entries = new long[STAGE_COUNT];
+
+    public StagedFallDetector() {
+        this(FREE_FALL_WINDOW_NS, IMPACT_WINDOW_NS, INACTIVITY_NS);
+    }
+
+    /**
+     * freeFallWindowNs: longest wait from free-fall to impact.
+     * impactWindowNs: longest wait from impact to the phone resting.
+     * inactivityNs: how long it must then stay at rest.
+     */
+    public StagedFallDetector(long freeFallWindowNs, long impactWindowNs, long inactivityNs) {
+        windowNs[STAGE_IDLE] = Long.MAX_VALUE;
+        windowNs[STAGE_FREE_FALL] = freeFallWindowNs;
+        windowNs[STAGE_IMPACT] = impactWindowNs;
+        windowNs[STAGE_INACTIVE] = inactivityNs;
+        windowNs[STAGE_FALL] = 0;
+        freeFallSq = FREE_FALL_THRESHOLD * FREE_FALL_THRESHOLD;
+        impactSq = IMPACT_THRESHOLD * IMPACT_THRESHOLD;
+        stillMinSq = (G - STILL_BAND) * (G - STILL_BAND);
+        stillMaxSq = (G + STILL_BAND) * (G + STILL_BAND);
+        stillGyroSq = STILL_GYRO * STILL_GYRO;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        return onSample(timestampNs, ax, ay, az, gx, gy, gz, ax * ax + ay * ay + az * az, 0f);
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                            float accelPeakSq, float gyroPeakSq) {
+        orientation.update(timestampNs, ax, ay, az, gx, gy, gz);
+
+        int event = timestampNs - stageEnteredNs > windowNs[stage]
+                ? EVENT_TIMEOUT
+                : classify(ax, ay, az, gx, gy, gz, accelPeakSq);
+        int next = TRANSITIONS[stage * EVENT_COUNT + event];
+        if (next == stage) return false;
+
+        if (next == STAGE_FREE_FALL) {
+            // The estimator ignores the accelerometer in free-fall, so this is the attitude before the drop
+            refX = orientation.getGravityX();
+            refY = orientation.getGravityY();
+            refZ = orientation.getGravityZ();
+        }
+        stage = next;
+        stageEnteredNs = timestampNs;
+        entries[next]++;
+        if (next == STAGE_FALL) {
+            stage = STAGE_IDLE;
+            return true;
+        }
+        return false;
+    }
+
+    private int classify(float ax, float ay, float az, float gx, float gy, float gz, float accelPeakSq) {
+        float magSq = ax * ax + ay * ay + az * az;
+        // A spike between two ticks only shows in the raw peak
+        if (accelPeakSq > impactSq) return EVENT_IMPACT;
+        if (magSq < freeFallSq) return EVENT_FREE_FALL;
+        if (magSq < stillMinSq || magSq > stillMaxSq || gx * gx + gy * gy + gz * gz > stillGyroSq) {
+            return EVENT_MOTION;
+        }
+        // Orientation only matters once the phone is at rest; both directions are unit vectors
+        return orientation.cosineTo(refX, refY, refZ) < ROTATED_COSINE ? EVENT_STILL_ROTATED : EVENT_STILL;
+    }
+
+    public int getStage() {
+        return stage;
+    }
+
+    /** How many times each stage was entered, for tuning the windows on recorded traces. */
+    public long getEntries(int stage) {
+        return entries[stage];
+    }
+
+    public static String stageName(int stage) {
+        switch (stage) {
+            case STAGE_IDLE: return "idle";
+            case STAGE_FREE_FALL: return "free_fall";
+            case STAGE_IMPACT: return "impact";
+            case STAGE_INACTIVE: return "inactive";
+            case STAGE_FALL: return "fall";
+            default: return "unknown";
+        }
+    }
+
+    public void dump(StringBuilder out) {
+        out.append("staged_stage=").append(stageName(stage)).append('\n');
+        for (int s = STAGE_FREE_FALL; s < STAGE_COUNT; s++) {
+            out.append("staged_").append(stageName(s)).append("_entries=").append(entries[s]).append('\n');
+        }
+    }
+
+    @Override
+    public void reset() {
+        stage = STAGE_IDLE;
+        stageEnteredNs = 0;
+        orientation.reset();
+        Arrays.fill(entries, 0);
+    }
+}
@@ -0,0 +1,205 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Writes labelled CSV traces of simulated falls and everyday movements, for TraceReplay to score
+ * detectors on until enough real recordings exist. Each trace is 20 s of a phone in a trouser
+ * pocket at 100 Hz: walking, then the scenario at EVENT_S, then what follows it. Falls get a
+ * .labels file with the time of the impact; the others get an empty one, so every detection on
+ * them counts as a false positive. The same seed writes the same traces.
+ *
+ * The shapes follow the usual description of a fall: up to half a second of falling with |a|
+ * dropping towards 0 and the body turning, a short impact peak, and lying still in a new
+ * attitude. Parameters are drawn from ranges, so the set contains soft falls no threshold sees
+ * as well as drops and jumps that look like falls. They are simulations, not measurements.
+ *
+ * Usage: SyntheticTraces [--seed 1] [--count 20] dir
+ */
+public class SyntheticTraces {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD_NS = 10_000_000L;
+    // The gyroscope samples a little after the accelerometer, as on most phones
+    private static final long GYRO_OFFSET_NS = 3_000_000L;
+    private static final float DURATION_S = 20f;
+    private static final float EVENT_S = 8f;
+
+    static final String[] SCENARIOS = {
+            "fall", "soft_fall", "walk", "sit_down", "jump", "phone_drop", "lie_down"};
+
+    private final Random random;
+    private final int samples = (int) (DURATION_S * 1e9 / PERIOD_NS);
+    // Per sample: accelerometer and gyroscope, x, y, z
+    private final float[][] accel = new float[samples][3];
+    private final float[][] gyro = new float[samples][3];
+
+    SyntheticTraces(long seed) {
+        random = new Random(seed);
+    }
+
+    /** Fills one trace; returns the labelled fall time in ns, or -1 for a trace without a fall. */
+    long generate(String scenario) {
+        int event = (int) (EVENT_S * 1e9 / PERIOD_NS);
+        walk(0, event, 1f);
+        switch (scenario) {
+            case "fall":
+                return fall(event, range(0.25f, 0.5f), range(30f, 70f), range(2.5f, 6f));
+            case "soft_fall":
+                // Sliding down, or caught on the way: little free-fall and a weak landing
+                return fall(event, range(0.6f, 1.2f), range(14f, 24f), range(0.8f, 2f));
+            case "walk":
+                walk(event, samples, range(1f, 1.8f));
+                return -1;
+            case "sit_down":
+                // The thigh turns to horizontal and the body lands on the seat
+                turn(event, range(0.6f, 1f), 1.4f, range(16f, 26f), 0.8f);
+                still(event + 150, samples, new float[]{0, 0, G}, 0.2f);
+                return -1;
+            case "jump": {
+                int landing = event + (int) (range(0.2f, 0.35f) * 100);
+                for (int i = event; i < landing; i++) set(i, 0, range(0f, 2f), 0, noise(0.3f), noise(0.3f), noise(0.3f));
+                impact(landing, range(28f, 45f), new float[]{0, 1, 0}, range(0.5f, 1.5f));
+                walk(landing + 6, samples, 1f);
+                return -1;
+            }
+            case "phone_drop": {
+                // Out of the hand onto the floor: a real free-fall and a hard, tumbling landing
+                int floor = event + (int) (range(0.3f, 0.45f) * 100);
+                float spin = range(4f, 10f);
+                for (int i = event; i < floor; i++) set(i, noise(0.3f), noise(0.3f), noise(0.3f), spin, noise(1f), 0);
+                impact(floor, range(60f, 120f), new float[]{0, 0, 1}, spin);
+                still(floor + 6, samples, new float[]{0, 0, G}, 0.02f);
+                return -1;
+            }
+            case "lie_down":
+                turn(event, range(2f, 3f), 1.5f, range(11f, 14f), 0.5f);
+                still(event + 300, samples, new float[]{0, 0, G}, 0.05f);
+                return -1;
+            default:
+                throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+    }
+
+    private long fall(int start, float fallSeconds, float peak, float turnRate) {
+        int impactAt = start + (int) (fallSeconds * 100);
+        for (int i = start; i < impactAt; i++) {
+            float progress = (float) (i - start) / (impactAt - start);
+            // Gravity turns from the y axis to the z axis while |a| drops towards 0
+            double angle = progress * Math.PI / 2;
+            float magnitude = G * (1f - 0.85f * Math.min(1f, progress * 1.5f));
+            set(i, noise(0.3f), (float) (magnitude * Math.cos(angle)), (float) (magnitude * Math.sin(angle)),
+                    turnRate + noise(0.3f), noise(0.3f), noise(0.3f));
+        }
+        impact(impactAt, peak, new float[]{0, 0.3f, 0.95f}, turnRate * range(1f, 1.6f));
+        still(impactAt + 6, samples, new float[]{0, 0, G}, 0.05f);
+        return impactAt * PERIOD_NS;
+    }
+
+    /** A peak of the given size over about 40 ms, with the rotation stopping over 150 ms. */
+    private void impact(int at, float peak, float[] direction, float rotation) {
+        float[] pulse = {0.35f, 0.8f, 1f, 0.6f, 0.3f};
+        for (int k = 0; k < pulse.length && at + k < samples; k++) {
+            float a = G + (peak - G) * pulse[k];
+            set(at + k, a * direction[0] + noise(1f), a * direction[1] + noise(1f), a * direction[2] + noise(1f),
+                    rotation, noise(0.5f), noise(0.5f));
+        }
+        for (int k = pulse.length; k < 15 && at + k < samples; k++) {
+            gyro[at + k][0] = rotation * (15 - k) / 15f;
+        }
+    }
+
+    /** Turns from upright to lying over the given time, ending with a landing of the given size. */
+    private void turn(int start, float seconds, float angle, float landing, float rotationAtLanding) {
+        int end = Math.min(samples, start + (int) (seconds * 100));
+        float rate = angle / seconds;
+        for (int i = start; i < end; i++) {
+            double a = angle * (i - start) / (double) (end - start);
+            set(i, noise(0.3f), (float) (G * Math.cos(a)) + noise(0.5f), (float) (G * Math.sin(a)) + noise(0.5f),
+                    rate + noise(0.2f), noise(0.2f), noise(0.2f));
+        }
+        impact(end, landing, new float[]{0, 0.2f, 0.98f}, rotationAtLanding);
+    }
+
+    private void walk(int from, int to, float intensity) {
+        float stepHz = range(1.6f, 2f);
+        double phase = random.nextDouble() * 2 * Math.PI;
+        for (int i = from; i < to; i++) {
+            double t = i * PERIOD_NS / 1e9;
+            double step = Math.sin(2 * Math.PI * stepHz * t + phase);
+            double stride = Math.sin(Math.PI * stepHz * t + phase);
+            set(i, (float) (1.5 * intensity * stride) + noise(0.4f),
+                    (float) (G + 3 * intensity * step) + noise(0.5f),
+                    (float) (1.2 * intensity * stride) + noise(0.4f),
+                    (float) (0.8 * intensity * stride) + noise(0.1f), noise(0.15f),
+                    (float) (0.4 * intensity * step) + noise(0.1f));
+        }
+    }
+
+    private void still(int from, int to, float[] gravity, float sd) {
+        for (int i = from; i < to; i++) {
+            set(i, gravity[0] + noise(sd), gravity[1] + noise(sd), gravity[2] + noise(sd),
+                    noise(0.02f), noise(0.02f), noise(0.02f));
+        }
+    }
+
+    private void set(int i, float ax, float ay, float az, float gx, float gy, float gz) {
+        if (i >= samples) return;
+        accel[i][0] = ax;
+        accel[i][1] = ay;
+        accel[i][2] = az;
+        gyro[i][0] = gx;
+        gyro[i][1] = gy;
+        gyro[i][2] = gz;
+    }
+
+    private float range(float from, float to) {
+        return from + random.nextFloat() * (to - from);
+    }
+
+    private float noise(float sd) {
+        return (float) random.nextGaussian() * sd;
+    }
+
+    void writeCsv(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (int i = 0; i < samples; i++) {
+                long t = i * PERIOD_NS;
+                out.printf(Locale.US, "%d,A,%.4f,%.4f,%.4f%n", t, accel[i][0], accel[i][1], accel[i][2]);
+                out.printf(Locale.US, "%d,G,%.4f,%.4f,%.4f%n", t + GYRO_OFFSET_NS, gyro[i][0], gyro[i][1], gyro[i][2]);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        long seed = 1;
+        int count = 20;
+        File dir = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--seed")) seed = Long.parseLong(args[++i]);
+            else if (args[i].equals("--count")) count = Integer.parseInt(args[++i]);
+            else dir = new File(args[i]);
+        }
+        if (dir == null) {
+            System.err.println("Usage: SyntheticTraces [--seed 1] [--count 20] dir");
+            System.exit(2);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+
+        SyntheticTraces traces = new SyntheticTraces(seed);
+        for (String scenario : SCENARIOS) {
+            for (int n = 0; n < count; n++) {
+                long fallNs = traces.generate(scenario);
+                File trace = new File(dir, String.format(Locale.US, "%s_%02d%s", scenario, n, TraceFormat.CSV_EXTENSION));
+                traces.writeCsv(trace);
+                try (PrintWriter labels = new PrintWriter(trace.getPath() + TraceFormat.LABELS_SUFFIX, "UTF-8")) {
+                    if (fallNs >= 0) labels.println(fallNs);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Original FallDetectionService rule: a gyroscope spike within WINDOW_NS of an
+ * accelerometer impact is a fall, followed by a cooldown.
+ * As the default detector it runs on every fused sample, so the check stays O(1): squared
+ * magnitudes against squared thresholds and the time of the last impact, no feature window.
+ */
+public class ThresholdFallDetector implements FallDetector {
+
+    public static final String NAME = "threshold";
+
+    private static final float G = 9.81f;
+    public static final float IMPACT_THRESHOLD = 2.8f * G;
+    public static final float GYRO_THRESHOLD = 3.0f;
+    public static final long WINDOW_NS = 800_000_000L;
+    public static final long COOLDOWN_NS = 8_000_000_000L;
+
+    private final float impactSq;
+    private final float gyroSq;
+    private final long windowNs;
+    private final long cooldownNs;
+
+    private long lastImpactNs = Long.MIN_VALUE;
+    private long lastFallTimeNs = Long.MIN_VALUE;
+
+    public ThresholdFallDetector() {
+        this(IMPACT_THRESHOLD, GYRO_THRESHOLD, WINDOW_NS, COOLDOWN_NS);
+    }
+
+    public ThresholdFallDetector(float impactThreshold, float gyroThreshold, long windowNs, long cooldownNs) {
+        this.impactSq = impactThreshold * impactThreshold;
+        this.gyroSq = gyroThreshold * gyroThreshold;
+        this.windowNs = windowNs;
+        this.cooldownNs = cooldownNs;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        return onSample(timestampNs, ax, ay, az, gx, gy, gz,
+                ax * ax + ay * ay + az * az, gx * gx + gy * gy + gz * gz);
+    }
+
+    @Override
+    public boolean onSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                            float accelPeakSq, float gyroPeakSq) {
+        if (accelPeakSq > impactSq) {
+            lastImpactNs = timestampNs;
+        }
+
+        // Check: gyro spike + recent impact
+        if (lastImpactNs != Long.MIN_VALUE && timestampNs - lastImpactNs < windowNs
+                && gyroPeakSq > gyroSq) {
+            if (lastFallTimeNs == Long.MIN_VALUE || (timestampNs - lastFallTimeNs) > cooldownNs) {
+                lastFallTimeNs = timestampNs;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() {
+        lastImpactNs = Long.MIN_VALUE;
+        lastFallTimeNs = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,32 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Recorded raw sensor traces, as read by TraceReader.
+ *
+ * CSV: one raw event per line, "timestamp_ns,sensor,x,y,z" where sensor is A (accelerometer)
+ * or G (gyroscope), or the Android Sensor.TYPE_* number. Lines that do not start with a digit
+ * (headers, # comments) are skipped.
+ *
+ * Binary: MAGIC (int), VERSION (short), then fixed RECORD_BYTES records of
+ * timestamp_ns (long), sensor (byte), x, y, z (float), big-endian.
+ *
+ * An optional "<trace>.labels" file next to a trace lists the timestamp_ns of each real fall,
+ * one per line.
+ */
+public final class TraceFormat {
+
+    public static final int MAGIC = 0x45435452; // "ECTR"
+    public static final short VERSION = 1;
+    public static final int HEADER_BYTES = 6;
+    public static final int RECORD_BYTES = 8 + 1 + 4 * 3;
+
+    // Same values as android.hardware.Sensor.TYPE_ACCELEROMETER / TYPE_GYROSCOPE
+    public static final byte SENSOR_ACCELEROMETER = 1;
+    public static final byte SENSOR_GYROSCOPE = 4;
+
+    public static final String BINARY_EXTENSION = ".ectr";
+    public static final String CSV_EXTENSION = ".csv";
+    public static final String LABELS_SUFFIX = ".labels";
+
+    private TraceFormat() {}
+}
@@ -0,0 +1,262 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams raw sensor events out of a recorded trace (see TraceFormat).
+ * Call next() until it returns false; the current event is exposed through the getters.
+ * Reading does not allocate per event, so large traces replay at disk speed.
+ */
+public abstract class TraceReader implements Closeable {
+
+    protected long timestampNs;
+    protected byte sensor;
+    protected float x;
+    protected float y;
+    protected float z;
+
+    public static TraceReader open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(TraceFormat.CSV_EXTENSION)) {
+            return new CsvTraceReader(in);
+        }
+        return new BinaryTraceReader(new BufferedInputStream(in, 1 << 16));
+    }
+
+    public abstract boolean next() throws IOException;
+
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    public byte getSensor() {
+        return sensor;
+    }
+
+    public float getX() {
+        return x;
+    }
+
+    public float getY() {
+        return y;
+    }
+
+    public float getZ() {
+        return z;
+    }
+
+    private static final class BinaryTraceReader extends TraceReader {
+        private final DataInputStream in;
+        private final byte[] record = new byte[TraceFormat.RECORD_BYTES];
+
+        BinaryTraceReader(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            if (this.in.readInt() != TraceFormat.MAGIC) {
+                throw new IOException("Not a binary sensor trace");
+            }
+            short version = this.in.readShort();
+            if (version != TraceFormat.VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            int read = 0;
+            while (read < record.length) {
+                int n = in.read(record, read, record.length - read);
+                if (n < 0) {
+                    if (read == 0) return false;
+                    throw new EOFException("Truncated trace record");
+                }
+                read += n;
+            }
+            timestampNs = getLong(record, 0);
+            sensor = record[8];
+            x = Float.intBitsToFloat(getInt(record, 9));
+            y = Float.intBitsToFloat(getInt(record, 13));
+            z = Float.intBitsToFloat(getInt(record, 17));
+            return true;
+        }
+
+        private static int getInt(byte[] b, int i) {
+            return (b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff);
+        }
+
+        private static long getLong(byte[] b, int i) {
+            return ((long) getInt(b, i) << 32) | (getInt(b, i + 4) & 0xffffffffL);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class CsvTraceReader extends TraceReader {
+        private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+                1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[1 << 16];
+        private int bufferPos;
+        private int bufferLimit;
+        private byte[] line = new byte[128];
+        private int length;
+        private int pos;
+        private int lineNumber;
+
+        CsvTraceReader(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            while (readLine()) {
+                lineNumber++;
+                if (length == 0 || line[0] < '0' || line[0] > '9') continue;
+
+                pos = 0;
+                timestampNs = parseLong();
+                expectComma();
+                sensor = parseSensor();
+                expectComma();
+                x = (float) parseDouble();
+                expectComma();
+                y = (float) parseDouble();
+                expectComma();
+                z = (float) parseDouble();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean readLine() throws IOException {
+            length = 0;
+            while (true) {
+                if (bufferPos == bufferLimit) {
+                    bufferLimit = in.read(buffer, 0, buffer.length);
+                    bufferPos = 0;
+                    if (bufferLimit <= 0) {
+                        bufferLimit = 0;
+                        return length > 0;
+                    }
+                }
+                byte c = buffer[bufferPos++];
+                if (c == '\n') return true;
+                if (c == '\r') continue;
+                if (length == line.length) {
+                    byte[] grown = new byte[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, length);
+                    line = grown;
+                }
+                line[length++] = c;
+            }
+        }
+
+        private byte parseSensor() throws IOException {
+            skipSpaces();
+            if (pos >= length) throw error("missing sensor");
+            byte c = line[pos];
+            if (c == 'A' || c == 'a') {
+                skipField();
+                return TraceFormat.SENSOR_ACCELEROMETER;
+            }
+            if (c == 'G' || c == 'g') {
+                skipField();
+                return TraceFormat.SENSOR_GYROSCOPE;
+            }
+            return (byte) parseLong();
+        }
+
+        private long parseLong() throws IOException {
+            skipSpaces();
+            long value = 0;
+            int start = pos;
+            while (pos < length && line[pos] >= '0' && line[pos] <= '9') {
+                value = value * 10 + (line[pos++] - '0');
+            }
+            if (pos == start) throw error("expected integer");
+            return value;
+        }
+
+        private double parseDouble() throws IOException {
+            skipSpaces();
+            boolean negative = false;
+            if (pos < length && (line[pos] == '-' || line[pos] == '+')) {
+                negative = line[pos++] == '-';
+            }
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            int start = pos;
+            while (pos < length && line[pos] >= '0' && line[pos] <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (line[pos] - '0');
+                    digits++;
+                } else {
+                    exponent++;
+                }
+                pos++;
+            }
+            if (pos < length && line[pos] == '.') {
+                pos++;
+                while (pos < length && line[pos] >= '0' && line[pos] <= '9') {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (line[pos] - '0');
+                        digits++;
+                        exponent--;
+                    }
+                    pos++;
+                }
+            }
+            if (pos == start) throw error("expected number");
+            if (pos < length && (line[pos] == 'e' || line[pos] == 'E')) {
+                pos++;
+                boolean negativeExp = false;
+                if (pos < length && (line[pos] == '-' || line[pos] == '+')) {
+                    negativeExp = line[pos++] == '-';
+                }
+                int e = (int) parseLong();
+                exponent += negativeExp ? -e : e;
+            }
+            double value = mantissa;
+            if (exponent > 0) {
+                value *= exponent < POW10.length ? POW10[exponent] : Math.pow(10, exponent);
+            } else if (exponent < 0) {
+                value /= -exponent < POW10.length ? POW10[-exponent] : Math.pow(10, -exponent);
+            }
+            return negative ? -value : value;
+        }
+
+        private void expectComma() throws IOException {
+            skipSpaces();
+            if (pos >= length || line[pos] != ',') throw error("expected ','");
+            pos++;
+        }
+
+        private void skipField() {
+            while (pos < length && line[pos] != ',') pos++;
+        }
+
+        private void skipSpaces() {
+            while (pos < length && line[pos] == ' ') pos++;
+        }
+
+        private IOException error(String message) {
+            return new IOException("Line " + lineNumber + ": " + message);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.eldercare.eldercare.detection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Offline replay harness: streams recorded traces through a FallDetector as fast as the
+ * CPU allows and reports detections, detection latency and throughput.
+ * Raw events go through the same SensorFusion stage as in FallDetectionService.
+ *
+ * Usage: TraceReplay [--detector name] [--model file] [--period-ms 20] [--threads n] [--verbose]
+ *        trace|dir...
+ */
+public class TraceReplay {
+
+    private static final long NS_PER_MS = 1_000_000L;
+    private static final int FUSION_BUFFER_SAMPLES = 256;
+    // A detection counts for a labelled fall if it fires within this long after the label
+    private static final long MATCH_WINDOW_NS = 5_000_000_000L;
+
+    public static class Result {
+        public final File trace;
+        public long rawSamples;
+        public long fusedSamples;
+        public long traceDurationNs;
+        public long wallNs;
+        public long[] detectionsNs = new long[8];
+        // Sensor time between the fused tick of a detection and the raw event that released it
+        public long[] detectionLagNs = new long[8];
+        public int detections;
+        public boolean labelled;
+        public int labels;
+        public int truePositives;
+        public int falsePositives;
+        public int falseNegatives;
+        public long labelLatencySumNs;
+        public long labelLatencyMaxNs;
+
+        Result(File trace) {
+            this.trace = trace;
+        }
+
+        void addDetection(long timestampNs, long lagNs) {
+            if (detections == detectionsNs.length) {
+                detectionsNs = Arrays.copyOf(detectionsNs, detections * 2);
+                detectionLagNs = Arrays.copyOf(detectionLagNs, detections * 2);
+            }
+            detectionsNs[detections] = timestampNs;
+            detectionLagNs[detections] = lagNs;
+            detections++;
+        }
+
+        public double realtimeFactor() {
+            return wallNs == 0 ? 0 : (double) traceDurationNs / wallNs;
+        }
+    }
+
+    public static Result replay(File trace, FallDetector detector, long periodNs) throws IOException {
+        final Result result = new Result(trace);
+        final long[] currentRawNs = new long[1];
+
+        detector.reset();
+        SensorFusion fusion = new SensorFusion(periodNs, FUSION_BUFFER_SAMPLES,
+                (t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq) -> {
+                    result.fusedSamples++;
+                    if (detector.onSample(t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq)) {
+                        result.addDetection(t, currentRawNs[0] - t);
+                    }
+                });
+
+        long first = Long.MIN_VALUE;
+        long last = Long.MIN_VALUE;
+        long start = System.nanoTime();
+        try (TraceReader reader = TraceReader.open(trace)) {
+            while (reader.next()) {
+                long t = reader.getTimestampNs();
+                if (first == Long.MIN_VALUE) first = t;
+                last = t;
+                currentRawNs[0] = t;
+                result.rawSamples++;
+
+                byte sensor = reader.getSensor();
+                if (sensor == TraceFormat.SENSOR_ACCELEROMETER) {
+                    fusion.addAccelerometer(t, reader.getX(), reader.getY(), reader.getZ());
+                } else if (sensor == TraceFormat.SENSOR_GYROSCOPE) {
+                    fusion.addGyroscope(t, reader.getX(), reader.getY(), reader.getZ());
+                } else {
+                    continue;
+                }
+                fusion.drain();
+            }
+        }
+        result.wallNs = System.nanoTime() - start;
+        result.traceDurationNs = first == Long.MIN_VALUE ? 0 : last - first;
+
+        File labelFile = new File(trace.getPath() + TraceFormat.LABELS_SUFFIX);
+        if (labelFile.exists()) {
+            scoreAgainstLabels(result, readLabels(labelFile));
+        }
+        return result;
+    }
+
+    static long[] readLabels(File file) throws IOException {
+        long[] labels = new long[16];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                if (count == labels.length) labels = Arrays.copyOf(labels, count * 2);
+                labels[count++] = Long.parseLong(line);
+            }
+        }
+        labels = Arrays.copyOf(labels, count);
+        Arrays.sort(labels);
+        return labels;
+    }
+
+    static void scoreAgainstLabels(Result result, long[] labels) {
+        result.labelled = true;
+        result.labels = labels.length;
+        boolean[] matched = new boolean[result.detections];
+        for (long label : labels) {
+            boolean found = false;
+            for (int i = 0; i < result.detections; i++) {
+                long latency = result.detectionsNs[i] - label;
+                if (!matched[i] && latency >= 0 && latency <= MATCH_WINDOW_NS) {
+                    matched[i] = true;
+                    found = true;
+                    result.labelLatencySumNs += latency;
+                    result.labelLatencyMaxNs = Math.max(result.labelLatencyMaxNs, latency);
+                    break;
+                }
+            }
+            if (found) {
+                result.truePositives++;
+            } else {
+                result.falseNegatives++;
+            }
+        }
+        result.falsePositives = result.detections - result.truePositives;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String detectorName = FallDetectors.DEFAULT;
+        FallClassifier model = null;
+        long periodNs = 20 * NS_PER_MS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean verbose = false;
+        List<File> traces = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--detector":
+                    detectorName = args[++i];
+                    break;
+                case "--model":
+                    try (InputStream in = new FileInputStream(args[++i])) {
+                        model = FallClassifier.read(in);
+                    }
+                    break;
+                case "--period-ms":
+                    periodNs = Long.parseLong(args[++i]) * NS_PER_MS;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--verbose":
+                    verbose = true;
+                    break;
+                default:
+                    File file = new File(args[i]);
+                    if (file.isDirectory()) {
+                        collectTraces(file, traces);
+                    } else {
+                        traces.add(file);
+                    }
+            }
+        }
+        if (traces.isEmpty()) {
+            System.err.println("Usage: TraceReplay [--detector " + String.join("|", FallDetectors.names())
+                    + "] [--model file] [--period-ms 20] [--threads n] [--verbose] trace|dir...");
+            System.exit(2);
+        }
+
+        final String name = detectorName;
+        final long period = periodNs;
+        final FallClassifier classifier = model;
+        long wallStart = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<Result>> futures = new ArrayList<>();
+        for (File trace : traces) {
+            futures.add(executor.submit(() -> replay(trace, FallDetectors.create(name, classifier), period)));
+        }
+
+        Result total = new Result(null);
+        long lagSumNs = 0;
+        long lagMaxNs = 0;
+        int labelledDetections = 0;
+        int failed = 0;
+        System.out.printf("%-40s %10s %9s %6s %5s %5s %5s %10s%n",
+                "trace", "samples", "hours", "falls", "tp", "fp", "fn", "x-realtime");
+        // The pool's threads would keep the JVM alive if a failing trace skipped the shutdown
+        try {
+            for (int t = 0; t < futures.size(); t++) {
+                Result r;
+                try {
+                    r = futures.get(t).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(traces.get(t) + ": " + e.getCause());
+                    continue;
+                }
+                System.out.printf("%-40s %10d %9.3f %6d %5s %5s %5s %10.0f%n",
+                        r.trace.getName(), r.rawSamples, r.traceDurationNs / 3.6e12, r.detections,
+                        r.labelled ? r.truePositives : "-", r.labelled ? r.falsePositives : "-",
+                        r.labelled ? r.falseNegatives : "-", r.realtimeFactor());
+                if (verbose) {
+                    for (int i = 0; i < r.detections; i++) {
+                        System.out.printf("    fall at %d ns (lag %.1f ms)%n",
+                                r.detectionsNs[i], r.detectionLagNs[i] / 1e6);
+                    }
+                }
+                total.rawSamples += r.rawSamples;
+                total.fusedSamples += r.fusedSamples;
+                total.traceDurationNs += r.traceDurationNs;
+                total.wallNs += r.wallNs;
+                total.detections += r.detections;
+                if (r.labelled) {
+                    total.labelled = true;
+                    labelledDetections += r.detections;
+                }
+                total.labels += r.labels;
+                total.truePositives += r.truePositives;
+                total.falsePositives += r.falsePositives;
+                total.falseNegatives += r.falseNegatives;
+                total.labelLatencySumNs += r.labelLatencySumNs;
+                total.labelLatencyMaxNs = Math.max(total.labelLatencyMaxNs, r.labelLatencyMaxNs);
+                for (int i = 0; i < r.detections; i++) {
+                    lagSumNs += r.detectionLagNs[i];
+                    lagMaxNs = Math.max(lagMaxNs, r.detectionLagNs[i]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long wallNs = System.nanoTime() - wallStart;
+
+        System.out.println();
+        System.out.printf("detector            %s%n", name);
+        System.out.printf("traces              %d (%.2f h of sensor data)%n", traces.size(), total.traceDurationNs / 3.6e12);
+        System.out.printf("detections          %d%n", total.detections);
+        if (total.labelled) {
+            System.out.printf("precision / recall  %.3f / %.3f (%d labelled falls)%n",
+                    labelledDetections == 0 ? 0.0 : (double) total.truePositives / labelledDetections,
+                    total.labels == 0 ? 0.0 : (double) total.truePositives / total.labels, total.labels);
+            if (total.truePositives > 0) {
+                System.out.printf("label latency       mean %.1f ms, max %.1f ms%n",
+                        total.labelLatencySumNs / 1e6 / total.truePositives, total.labelLatencyMaxNs / 1e6);
+            }
+        }
+        if (total.detections > 0) {
+            System.out.printf("pipeline lag        mean %.1f ms, max %.1f ms%n",
+                    lagSumNs / 1e6 / total.detections, lagMaxNs / 1e6);
+        }
+        System.out.printf("throughput          %.0f raw samples/s, %.1f ns per fused sample%n",
+                total.rawSamples / (wallNs / 1e9), total.fusedSamples == 0 ? 0.0 : (double) total.wallNs / total.fusedSamples);
+        System.out.printf("speed               %.0fx real time (%.1f s wall)%n",
+                total.traceDurationNs / (double) wallNs, wallNs / 1e9);
+        if (failed > 0) {
+            System.err.printf("failed              %d of %d traces%n", failed, traces.size());
+            System.exit(1);
+        }
+    }
+
+    private static void collectTraces(File file, List<File> out) {
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children == null) return;
+            Arrays.sort(children);
+            for (File child : children) collectTraces(child, out);
+        } else if (file.getName().endsWith(TraceFormat.CSV_EXTENSION)
+                || file.getName().endsWith(TraceFormat.BINARY_EXTENSION)) {
+            out.add(file);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.eldercare.eldercare.detection;
+
+/**
+ * Streaming features over a sliding window of fused samples, each updated in O(1)
+ * (amortised for the window maxima): mean and variance of |a|, signal magnitude area,
+ * jerk, peak impact, peak rotation, free-fall duration and post-impact stillness.
+ * Every buffer is sized at construction; update() does not allocate.
+ */
+public class WindowFeatureExtractor {
+
+    private static final float G = 9.81f;
+    public static final float DEFAULT_FREE_FALL_THRESHOLD = 0.6f * G;
+    public static final float DEFAULT_IMPACT_THRESHOLD = 2.8f * G;
+    // |a| within this distance of 1 g counts as lying still
+    public static final float DEFAULT_STILLNESS_BAND = 0.15f * G;
+
+    // Layout of the vector written by copyFeatures()
+    public static final int FEATURE_MEAN = 0;
+    public static final int FEATURE_VARIANCE = 1;
+    public static final int FEATURE_SMA = 2;
+    public static final int FEATURE_PEAK_MAGNITUDE = 3;
+    public static final int FEATURE_PEAK_JERK = 4;
+    public static final int FEATURE_PEAK_GYRO = 5;
+    public static final int FEATURE_FREE_FALL_MS = 6;
+    public static final int FEATURE_STILLNESS_MS = 7;
+    public static final int FEATURE_MS_SINCE_IMPACT = 8;
+    public static final int FEATURE_COUNT = 9;
+    // Names of the features in that order, as used in the text form of a FallClassifier
+    public static final String[] FEATURE_NAMES = {"mean", "variance", "sma", "peak_magnitude", "peak_jerk",
+            "peak_gyro", "free_fall_ms", "stillness_ms", "ms_since_impact"};
+    private static final float MAX_MS_SINCE_IMPACT = 10_000f;
+
+    private final int windowSamples;
+    private final float freeFallThreshold;
+    private final float impactThreshold;
+    private final float stillnessBand;
+
+    private final long[] timestamps;
+    private final float[] magnitudes;
+    private final float[] smaTerms;
+    private final SlidingMax peakMagnitude;
+    private final SlidingMax peakGyro;
+    private final SlidingMax peakJerk;
+
+    private long count = 0;
+    private int next = 0;
+    // Running sums in double; recomputed from the buffer once per window to cancel drift
+    private double sum;
+    private double sumSq;
+    private double smaSum;
+
+    private float magnitude;
+    private float gyroMagnitude;
+    private float jerk;
+    private long timestampNs;
+
+    private long freeFallStartNs = Long.MIN_VALUE;
+    private long lastFreeFallEndNs = Long.MIN_VALUE;
+    private long lastFreeFallDurationNs = 0;
+    private long lastImpactNs = Long.MIN_VALUE;
+    private long stillSinceNs = Long.MIN_VALUE;
+
+    public WindowFeatureExtractor(int windowSamples) {
+        this(windowSamples, DEFAULT_FREE_FALL_THRESHOLD, DEFAULT_IMPACT_THRESHOLD, DEFAULT_STILLNESS_BAND);
+    }
+
+    public WindowFeatureExtractor(int windowSamples, float freeFallThreshold, float impactThreshold,
+                                  float stillnessBand) {
+        if (windowSamples < 2) throw new IllegalArgumentException("Window must hold at least 2 samples");
+        this.windowSamples = windowSamples;
+        this.freeFallThreshold = freeFallThreshold;
+        this.impactThreshold = impactThreshold;
+        this.stillnessBand = stillnessBand;
+        timestamps = new long[windowSamples];
+        magnitudes = new float[windowSamples];
+        smaTerms = new float[windowSamples];
+        peakMagnitude = new SlidingMax(windowSamples);
+        peakGyro = new SlidingMax(windowSamples);
+        peakJerk = new SlidingMax(windowSamples);
+    }
+
+    /**
+     * Window length in samples for a duration on a clock with the given period.
+     */
+    public static int samplesFor(long durationNs, long periodNs) {
+        return (int) Math.max(2, (durationNs + periodNs - 1) / periodNs);
+    }
+
+    public void update(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz) {
+        float mag = (float) Math.sqrt(ax*ax + ay*ay + az*az);
+        float sma = Math.abs(ax) + Math.abs(ay) + Math.abs(az);
+        int i = next;
+
+        if (count > 0) {
+            long dt = timestampNs - this.timestampNs;
+            jerk = dt > 0 ? (mag - magnitude) * 1e9f / dt : 0f;
+        }
+        if (count >= windowSamples) {
+            float old = magnitudes[i];
+            sum -= old;
+            sumSq -= (double) old * old;
+            smaSum -= smaTerms[i];
+        }
+        timestamps[i] = timestampNs;
+        magnitudes[i] = mag;
+        smaTerms[i] = sma;
+        sum += mag;
+        sumSq += (double) mag * mag;
+        smaSum += sma;
+
+        magnitude = mag;
+        gyroMagnitude = (float) Math.sqrt(gx*gx + gy*gy + gz*gz);
+        this.timestampNs = timestampNs;
+
+        peakMagnitude.push(count, mag);
+        peakGyro.push(count, gyroMagnitude);
+        peakJerk.push(count, Math.abs(jerk));
+        count++;
+        if (++next == windowSamples) {
+            next = 0;
+            recomputeSums();
+        }
+
+        updateEvents(timestampNs, mag);
+    }
+
+    private void updateEvents(long t, float mag) {
+        if (mag < freeFallThreshold) {
+            if (freeFallStartNs == Long.MIN_VALUE) freeFallStartNs = t;
+        } else if (freeFallStartNs != Long.MIN_VALUE) {
+            lastFreeFallDurationNs = t - freeFallStartNs;
+            lastFreeFallEndNs = t;
+            freeFallStartNs = Long.MIN_VALUE;
+        }
+
+        if (mag > impactThreshold) {
+            lastImpactNs = t;
+        }
+
+        if (Math.abs(mag - G) <= stillnessBand) {
+            if (stillSinceNs == Long.MIN_VALUE) stillSinceNs = t;
+        } else {
+            stillSinceNs = Long.MIN_VALUE;
+        }
+    }
+
+    private void recomputeSums() {
+        double s = 0, sq = 0, sma = 0;
+        for (int i = 0; i < windowSamples; i++) {
+            s += magnitudes[i];
+            sq += (double) magnitudes[i] * magnitudes[i];
+            sma += smaTerms[i];
+        }
+        sum = s;
+        sumSq = sq;
+        smaSum = sma;
+    }
+
+    public int size() {
+        return (int) Math.min(count, windowSamples);
+    }
+
+    public boolean isFull() {
+        return count >= windowSamples;
+    }
+
+    public long getTimestampNs() {
+        return timestampNs;
+    }
+
+    /** Timestamp of the oldest sample still inside the window. */
+    public long getWindowStartNs() {
+        return count <= windowSamples ? timestamps[0] : timestamps[next];
+    }
+
+    /** |a| of the latest sample (m/s^2). */
+    public float getMagnitude() {
+        return magnitude;
+    }
+
+    /** |w| of the latest sample (rad/s). */
+    public float getGyroMagnitude() {
+        return gyroMagnitude;
+    }
+
+    public float getMean() {
+        int n = size();
+        return n == 0 ? 0f : (float) (sum / n);
+    }
+
+    public float getVariance() {
+        int n = size();
+        if (n == 0) return 0f;
+        double mean = sum / n;
+        return (float) Math.max(0, sumSq / n - mean * mean);
+    }
+
+    /** Mean of |ax| + |ay| + |az| over the window. */
+    public float getSignalMagnitudeArea() {
+        int n = size();
+        return n == 0 ? 0f : (float) (smaSum / n);
+    }
+
+    /** d|a|/dt of the latest sample (m/s^3). */
+    public float getJerk() {
+        return jerk;
+    }
+
+    public float getPeakJerk() {
+        return peakJerk.max();
+    }
+
+    public float getPeakMagnitude() {
+        return peakMagnitude.max();
+    }
+
+    public float getPeakGyroMagnitude() {
+        return peakGyro.max();
+    }
+
+    /**
+     * Length of the ongoing free-fall, or of the last one if it ended inside the window.
+     */
+    public long getFreeFallDurationNs() {
+        if (freeFallStartNs != Long.MIN_VALUE) return timestampNs - freeFallStartNs;
+        if (lastFreeFallEndNs != Long.MIN_VALUE && lastFreeFallEndNs >= getWindowStartNs()) {
+            return lastFreeFallDurationNs;
+        }
+        return 0;
+    }
+
+    /** Time since the last sample above the impact threshold, or Long.MAX_VALUE if none. */
+    public long getNanosSinceImpact() {
+        return lastImpactNs == Long.MIN_VALUE ? Long.MAX_VALUE : timestampNs - lastImpactNs;
+    }
+
+    /**
+     * How long the phone has been lying still since the last impact, 0 if it is moving
+     * or there was no impact.
+     */
+    public long getPostImpactStillnessNs() {
+        if (lastImpactNs == Long.MIN_VALUE || stillSinceNs == Long.MIN_VALUE) return 0;
+        return timestampNs - Math.max(stillSinceNs, lastImpactNs);
+    }
+
+    /**
+     * Writes the current features into out[0..FEATURE_COUNT), durations in milliseconds.
+     */
+    public void copyFeatures(float[] out) {
+        out[FEATURE_MEAN] = getMean();
+        out[FEATURE_VARIANCE] = getVariance();
+        out[FEATURE_SMA] = getSignalMagnitudeArea();
+        out[FEATURE_PEAK_MAGNITUDE] = getPeakMagnitude();
+        out[FEATURE_PEAK_JERK] = getPeakJerk();
+        out[FEATURE_PEAK_GYRO] = getPeakGyroMagnitude();
+        out[FEATURE_FREE_FALL_MS] = getFreeFallDurationNs() / 1e6f;
+        out[FEATURE_STILLNESS_MS] = getPostImpactStillnessNs() / 1e6f;
+        long sinceImpact = getNanosSinceImpact();
+        out[FEATURE_MS_SINCE_IMPACT] = sinceImpact == Long.MAX_VALUE
+                ? MAX_MS_SINCE_IMPACT : Math.min(MAX_MS_SINCE_IMPACT, sinceImpact / 1e6f);
+    }
+
+    public void reset() {
+        count = 0;
+        next = 0;
+        sum = sumSq = smaSum = 0;
+        magnitude = gyroMagnitude = jerk = 0f;
+        freeFallStartNs = Long.MIN_VALUE;
+        lastFreeFallEndNs = Long.MIN_VALUE;
+        lastFreeFallDurationNs = 0;
+        lastImpactNs = Long.MIN_VALUE;
+        stillSinceNs = Long.MIN_VALUE;
+        peakMagnitude.clear();
+        peakGyro.clear();
+        peakJerk.clear();
+    }
+
+    /**
+     * Sliding window maximum with a monotonic deque in preallocated arrays.
+     */
+    private static final class SlidingMax {
+        private final int window;
+        private final long[] sequences;
+        private final float[] values;
+        private int head = 0;
+        private int size = 0;
+
+        SlidingMax(int window) {
+            this.window = window;
+            this.sequences = new long[window];
+            this.values = new float[window];
+        }
+
+        void push(long sequence, float value) {
+            // Values that can never be the maximum again are dropped from the back
+            while (size > 0 && values[wrap(head + size - 1)] <= value) size--;
+            // The front leaves once it falls out of the window
+            if (size > 0 && sequences[head] <= sequence - window) {
+                head = wrap(head + 1);
+                size--;
+            }
+            int tail = wrap(head + size);
+            sequences[tail] = sequence;
+            values[tail] = value;
+            size++;
+        }
+
+        private int wrap(int index) {
+            return index >= window ? index - window : index;
+        }
+
+        float max() {
+            return size == 0 ? 0f : values[head];
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+    }
+}
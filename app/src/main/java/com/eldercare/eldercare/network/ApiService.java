@@ -2,11 +2,22 @@ package com.eldercare.eldercare.network;
 
 import com.eldercare.eldercare.model.FaceScanData;
 import com.eldercare.eldercare.repository.FaceScanRepository.ApiResponse;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
+import retrofit2.http.Multipart;
 import retrofit2.http.POST;
+import retrofit2.http.Part;
 
 public interface ApiService {
     @POST("api/face-scan")
     Call<ApiResponse> uploadFaceScan(@Body FaceScanData faceScanData);
+
+    /** The JPEG as raw bytes in a file part, without Base64; timestamp and language as plain fields. */
+    @Multipart
+    @POST("api/face-scan/upload")
+    Call<ApiResponse> uploadFaceScanImage(@Part MultipartBody.Part image,
+                                          @Part("timestamp") RequestBody timestamp,
+                                          @Part("language") RequestBody language);
 }
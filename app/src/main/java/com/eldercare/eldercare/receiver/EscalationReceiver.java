@@ -0,0 +1,15 @@
+package com.eldercare.eldercare.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.eldercare.eldercare.service.FallDetectionService;
+
+public class EscalationReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Escalation alarm went off → let the service escalate, starting it again if it was killed
+        FallDetectionService.onEscalationAlarm(context);
+    }
+}
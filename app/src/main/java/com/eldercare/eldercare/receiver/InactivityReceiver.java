@@ -0,0 +1,15 @@
+package com.eldercare.eldercare.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.eldercare.eldercare.service.FallDetectionService;
+
+public class InactivityReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // Inactivity deadline reached → let the service check, starting it again if it was killed
+        FallDetectionService.onInactivityAlarm(context);
+    }
+}
@@ -4,12 +4,14 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 
+import com.eldercare.eldercare.detection.FallEventStore;
 import com.eldercare.eldercare.service.FallDetectionService;
 
 public class NotificationDismissReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
-        // User dismissed the notification → cancel auto-launch
-        FallDetectionService.cancelAutoLaunch();
+        // User dismissed the notification → cancel the escalation
+        FallDetectionService.cancelEscalation(context);
+        FallDetectionService.recordOutcome(FallEventStore.OUTCOME_DISMISSED);
     }
 }
\ No newline at end of file
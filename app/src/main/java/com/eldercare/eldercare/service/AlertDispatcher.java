@@ -0,0 +1,270 @@
+package com.eldercare.eldercare.service;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.app.Application;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import androidx.core.app.ActivityCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.eldercare.eldercare.R;
+import com.eldercare.eldercare.receiver.NotificationDismissReceiver;
+import com.eldercare.eldercare.view.V_HomePage;
+
+/**
+ * Raises fall alerts with everything prepared up front: the large icon, both PendingIntents,
+ * the alert notification and the foreground notification are built once when the service
+ * starts. Whether the app is in the foreground is tracked through activity lifecycle callbacks,
+ * so an alert is a single startActivity or notify call. The notification permission is checked
+ * at alert time, since it can be granted from the system settings without any of our screens.
+ * Must be used on the main thread.
+ */
+public class AlertDispatcher implements Application.ActivityLifecycleCallbacks {
+
+    public static final String CHANNEL_ID = "fall_channel";
+    private static final int ALERT_NOTIFICATION_ID = 3;
+    private static final int ESCALATION_NOTIFICATION_ID = 4;
+    private static final int INACTIVITY_NOTIFICATION_ID = 5;
+
+    // What an escalation countdown was started for
+    public static final int ALERT_FALL = 0;
+    public static final int ALERT_INACTIVITY = 1;
+
+    private final Context context;
+    private final Application application;
+    private final NotificationManagerCompat notificationManager;
+    private final Bitmap largeIcon;
+    private final Notification foregroundNotification;
+    private final Notification alertNotification;
+    private final Notification escalationNotification;
+    private final Notification inactivityNotification;
+    private final Notification inactivityEscalationNotification;
+
+    private int startedActivities;
+
+    public AlertDispatcher(Context context) {
+        this.context = context;
+        this.application = (Application) context.getApplicationContext();
+        this.notificationManager = NotificationManagerCompat.from(context);
+
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        largeIcon = BitmapFactory.decodeResource(context.getResources(), R.drawable.eldercare_icon);
+        foregroundNotification = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle("Fall Detect Active")
+                .setContentText("Eldercare will monitor for falls in the background")
+                .setSmallIcon(R.drawable.warning)
+                .setLargeIcon(largeIcon)
+                .build();
+        alertNotification = buildAlertNotification();
+        escalationNotification = buildEscalationNotification("Fall Detected!",
+                "No response to the fall alert, contacting emergency services.");
+        inactivityNotification = buildInactivityNotification();
+        inactivityEscalationNotification = buildEscalationNotification("No Movement Detected",
+                "No response to the inactivity alert, contacting emergency services.");
+        AlertLatency.ALERT_PREPARE.record(SystemClock.elapsedRealtimeNanos() - startNs);
+
+        // The service is started from an activity that is usually already on screen
+        startedActivities = isProcessInForeground() ? 1 : 0;
+        application.registerActivityLifecycleCallbacks(this);
+    }
+
+    private Notification buildAlertNotification() {
+        Intent activityIntent = new Intent(context, V_HomePage.class);
+        activityIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        activityIntent.putExtra("SHOW_DIALOG", true);
+
+        PendingIntent activityPendingIntent = PendingIntent.getActivity(
+                context, 0, activityIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        Intent dismissIntent = new Intent(context, NotificationDismissReceiver.class);
+        PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(
+                context, 0, dismissIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle("Fall Detected!")
+                .setContentText("Please press on this notification to open Eldercare or dismiss if this is a false fall trigger.")
+                .setSmallIcon(R.drawable.eldercare_notif_small_icon)
+                .setLargeIcon(largeIcon)
+                .setDefaults(NotificationCompat.DEFAULT_ALL)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setAutoCancel(true)
+                .setContentIntent(activityPendingIntent)
+                .setDeleteIntent(dismissPendingIntent)
+                .build();
+    }
+
+    /**
+     * No movement for longer than the inactivity threshold. There is no fall dialog for it: the
+     * notification is the question, and tapping or swiping it away answers that all is well.
+     */
+    private Notification buildInactivityNotification() {
+        Intent dismissIntent = new Intent(context, NotificationDismissReceiver.class);
+        PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(
+                context, 0, dismissIntent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle("No Movement Detected")
+                .setContentText("Eldercare has not noticed any movement for a while. Please press on this notification if you are fine.")
+                .setSmallIcon(R.drawable.eldercare_notif_small_icon)
+                .setLargeIcon(largeIcon)
+                .setDefaults(NotificationCompat.DEFAULT_ALL)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setAutoCancel(true)
+                .setContentIntent(dismissPendingIntent)
+                .setDeleteIntent(dismissPendingIntent)
+                .build();
+    }
+
+    /** Full-screen alert that opens V_HomePage straight into the emergency action. */
+    private Notification buildEscalationNotification(String title, String text) {
+        PendingIntent escalatePendingIntent = PendingIntent.getActivity(
+                context, 1, escalationIntent(),
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setSmallIcon(R.drawable.eldercare_notif_small_icon)
+                .setLargeIcon(largeIcon)
+                .setDefaults(NotificationCompat.DEFAULT_ALL)
+                .setPriority(NotificationCompat.PRIORITY_MAX)
+                .setCategory(NotificationCompat.CATEGORY_ALARM)
+                .setAutoCancel(true)
+                .setContentIntent(escalatePendingIntent)
+                .setFullScreenIntent(escalatePendingIntent, true)
+                .build();
+    }
+
+    private Intent escalationIntent() {
+        Intent intent = new Intent(context, V_HomePage.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        intent.putExtra("ESCALATE", true);
+        return intent;
+    }
+
+    public Notification getForegroundNotification() {
+        return foregroundNotification;
+    }
+
+    /**
+     * Shows the fall dialog directly when the app is on screen, otherwise posts the alert
+     * notification. Returns false when neither is possible.
+     */
+    public boolean dispatch(long sensorTimestampNs, long detectedNs) {
+        if (startedActivities > 0) {
+            Intent dialogIntent = new Intent(context, V_HomePage.class);
+            dialogIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            dialogIntent.putExtra("SHOW_DIALOG", true);
+            long dispatchNs = SystemClock.elapsedRealtimeNanos();
+            dialogIntent.putExtra(AlertLatency.EXTRA_SENSOR_TIMESTAMP_NS, sensorTimestampNs);
+            dialogIntent.putExtra(AlertLatency.EXTRA_DISPATCH_NS, dispatchNs);
+            AlertLatency.DETECTION_TO_DISPATCH.record(dispatchNs - detectedNs);
+            context.startActivity(dialogIntent);
+            return true;
+        }
+        return postAlert(sensorTimestampNs, detectedNs);
+    }
+
+    /** The notification half of dispatch(); returns false without the notification permission. */
+    boolean postAlert(long sensorTimestampNs, long detectedNs) {
+        if (!hasNotificationPermission()) {
+            return false;
+        }
+        long notifyNs = SystemClock.elapsedRealtimeNanos();
+        notificationManager.notify(ALERT_NOTIFICATION_ID, alertNotification);
+        long postedNs = SystemClock.elapsedRealtimeNanos();
+        AlertLatency.ALERT_NOTIFY.record(postedNs - notifyNs);
+        AlertLatency.DETECTION_TO_DISPATCH.record(postedNs - detectedNs);
+        AlertLatency.SENSOR_TO_ALERT.record(postedNs - sensorTimestampNs);
+        return true;
+    }
+
+    /**
+     * Posts the inactivity alert, also while the app is on screen, since it has no dialog.
+     * Returns false without the notification permission.
+     */
+    public boolean dispatchInactivity() {
+        if (!hasNotificationPermission()) {
+            return false;
+        }
+        notificationManager.notify(INACTIVITY_NOTIFICATION_ID, inactivityNotification);
+        return true;
+    }
+
+    /**
+     * Brings up the emergency action after an unanswered alert of the given kind (ALERT_*):
+     * directly when the app is on screen, otherwise through a full-screen notification.
+     * Returns false when neither is possible.
+     */
+    public boolean escalate(int alert) {
+        notificationManager.cancel(alert == ALERT_INACTIVITY ? INACTIVITY_NOTIFICATION_ID : ALERT_NOTIFICATION_ID);
+        if (startedActivities > 0) {
+            context.startActivity(escalationIntent());
+            return true;
+        }
+        if (!hasNotificationPermission()) {
+            return false;
+        }
+        notificationManager.notify(ESCALATION_NOTIFICATION_ID,
+                alert == ALERT_INACTIVITY ? inactivityEscalationNotification : escalationNotification);
+        return true;
+    }
+
+    public void release() {
+        application.unregisterActivityLifecycleCallbacks(this);
+    }
+
+    private boolean hasNotificationPermission() {
+        return ActivityCompat.checkSelfPermission(context, Manifest.permission.POST_NOTIFICATIONS)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static boolean isProcessInForeground() {
+        ActivityManager.RunningAppProcessInfo appProcessInfo = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(appProcessInfo);
+        return appProcessInfo.importance == ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        startedActivities++;
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        startedActivities = Math.max(0, startedActivities - 1);
+    }
+
+    @Override
+    public void onActivityResumed(Activity activity) {}
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityPaused(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {}
+}
@@ -0,0 +1,156 @@
+package com.eldercare.eldercare.service;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.eldercare.eldercare.detection.LatencyHistogram;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Time-to-alert for each stage of a fall alert, on the SystemClock.elapsedRealtimeNanos()
+ * clock that sensor event timestamps use:
+ *   sensor sample -> detection decision -> notification posted or activity launched
+ *   -> fall dialog shown on V_HomePage.
+ * The buckets are kept in STATE_FILE_NAME and restored before the first save, so the
+ * histograms cover every run of the app, not only the current process. After every alert they
+ * are saved again and their percentiles written to FILE_NAME.
+ */
+public final class AlertLatency {
+
+    private static final String TAG = "AlertLatency";
+    public static final String FILE_NAME = "alert_latency.txt";
+    public static final String STATE_FILE_NAME = "alert_latency.bin";
+
+    private static final int STATE_MAGIC = 0x45434c54; // "ECLT"
+    private static final short STATE_VERSION = 1;
+
+    // Carried on the SHOW_DIALOG intent of a direct launch
+    public static final String EXTRA_SENSOR_TIMESTAMP_NS = "FALL_SENSOR_TIMESTAMP_NS";
+    public static final String EXTRA_DISPATCH_NS = "FALL_DISPATCH_NS";
+
+    public static final LatencyHistogram SENSOR_TO_DETECTION = new LatencyHistogram("sensor_to_detection");
+    public static final LatencyHistogram DETECTION_TO_DISPATCH = new LatencyHistogram("detection_to_dispatch");
+    public static final LatencyHistogram DISPATCH_TO_DIALOG = new LatencyHistogram("dispatch_to_dialog");
+    // Sensor sample to the first thing the user sees, notification or dialog
+    public static final LatencyHistogram SENSOR_TO_ALERT = new LatencyHistogram("sensor_to_alert");
+
+    // What AlertDispatcher prepares once, which every alert used to pay, against the notify call it leaves
+    public static final LatencyHistogram ALERT_PREPARE = new LatencyHistogram("alert_prepare");
+    public static final LatencyHistogram ALERT_NOTIFY = new LatencyHistogram("alert_notify");
+    // How much later than requested the emergency escalation fired
+    public static final LatencyHistogram ESCALATION_LATENESS = new LatencyHistogram("escalation_lateness");
+
+    private static final LatencyHistogram[] ALL = {
+            SENSOR_TO_DETECTION, DETECTION_TO_DISPATCH, DISPATCH_TO_DIALOG, SENSOR_TO_ALERT,
+            ALERT_PREPARE, ALERT_NOTIFY, ESCALATION_LATENESS
+    };
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor();
+    // Only touched on the writer thread
+    private static boolean restored = false;
+
+    private AlertLatency() {}
+
+    /**
+     * Records the dialog stage for an intent from a direct launch, once; intents that came
+     * through the notification carry no timestamps, since the user chose when to open them.
+     */
+    public static void onDialogShown(Context context, Intent intent) {
+        if (intent == null || !intent.hasExtra(EXTRA_DISPATCH_NS)) return;
+        long nowNs = SystemClock.elapsedRealtimeNanos();
+        DISPATCH_TO_DIALOG.record(nowNs - intent.getLongExtra(EXTRA_DISPATCH_NS, nowNs));
+        SENSOR_TO_ALERT.record(nowNs - intent.getLongExtra(EXTRA_SENSOR_TIMESTAMP_NS, nowNs));
+        intent.removeExtra(EXTRA_DISPATCH_NS);
+        intent.removeExtra(EXTRA_SENSOR_TIMESTAMP_NS);
+        save(context);
+    }
+
+    public static void dump(StringBuilder out) {
+        for (LatencyHistogram histogram : ALL) {
+            histogram.dump(out);
+        }
+    }
+
+    /**
+     * Adds the buckets saved by earlier processes to the histograms, off the caller's thread.
+     * Only the first call in a process, or the first save(), reads the file.
+     */
+    public static void restore(Context context) {
+        final File file = new File(context.getApplicationContext().getFilesDir(), STATE_FILE_NAME);
+        writer.execute(() -> restoreOnce(file));
+    }
+
+    /**
+     * Saves the buckets to STATE_FILE_NAME and the current percentiles to FILE_NAME in the app
+     * files directory, off the caller's thread.
+     */
+    public static void save(Context context) {
+        final File dir = context.getApplicationContext().getFilesDir();
+        writer.execute(() -> {
+            File stateFile = new File(dir, STATE_FILE_NAME);
+            // Otherwise the first save of a process would replace the earlier runs
+            restoreOnce(stateFile);
+            File tmp = new File(stateFile.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(STATE_MAGIC);
+                out.writeShort(STATE_VERSION);
+                out.writeInt(ALL.length);
+                for (LatencyHistogram histogram : ALL) {
+                    out.writeUTF(histogram.getName());
+                    histogram.write(out);
+                }
+                out.close();
+                if (!tmp.renameTo(stateFile)) {
+                    Log.w(TAG, "Cannot replace " + stateFile);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot write " + tmp, e);
+            }
+
+            File file = new File(dir, FILE_NAME);
+            StringBuilder text = new StringBuilder();
+            dump(text);
+            try (FileOutputStream stream = new FileOutputStream(file)) {
+                stream.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot write " + file, e);
+            }
+        });
+    }
+
+    /** Runs on the writer thread. Histograms that are no longer recorded are skipped. */
+    private static void restoreOnce(File file) {
+        if (restored) return;
+        restored = true;
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != STATE_MAGIC) throw new IOException("Not an alert latency file");
+            short version = in.readShort();
+            if (version != STATE_VERSION) throw new IOException("Unsupported version " + version);
+            int histograms = in.readInt();
+            for (int i = 0; i < histograms; i++) {
+                String name = in.readUTF();
+                LatencyHistogram target = new LatencyHistogram(name);
+                for (LatencyHistogram histogram : ALL) {
+                    if (histogram.getName().equals(name)) target = histogram;
+                }
+                target.merge(in);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot restore " + file, e);
+        }
+    }
+}
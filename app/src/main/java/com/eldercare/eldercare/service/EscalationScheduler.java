@@ -0,0 +1,214 @@
+package com.eldercare.eldercare.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.eldercare.eldercare.receiver.EscalationReceiver;
+
+/**
+ * Countdown from a fall alert to the emergency escalation, owned by FallDetectionService.
+ * Two timers run for the same deadline: a Handler callback under a partial wake lock, which is
+ * precise while the service lives, and an exact alarm that is delivered in Doze and restarts the
+ * service if it was killed. The deadline is persisted, so a restarted service resumes the
+ * countdown, and how late the escalation fired is recorded in AlertLatency.ESCALATION_LATENESS.
+ * A persisted countdown that ran out more than MAX_OVERDUE_MS ago is dropped, not escalated.
+ * The kind of alert it counts down for (AlertDispatcher.ALERT_*) is kept with it.
+ * Must be used on the main thread.
+ */
+public class EscalationScheduler {
+
+    public interface Listener {
+        void onEscalate(int alert, long latenessMs);
+    }
+
+    private static final String TAG = "EscalationScheduler";
+    private static final String PREFERENCE_NAME = "EscalationPrefs";
+    private static final String KEY_ACTIVE = "active";
+    private static final String KEY_DEADLINE_ELAPSED_MS = "deadline_elapsed_ms";
+    private static final String KEY_DEADLINE_WALL_MS = "deadline_wall_ms";
+    private static final String KEY_ALERT = "alert";
+    private static final String WAKE_LOCK_TAG = "Eldercare:escalation";
+    // The wake lock outlives the deadline a little, in case the callback runs late
+    private static final long WAKE_LOCK_SLACK_MS = 5_000;
+    // Longest a persisted countdown may be overdue and still escalate. An inexact alarm can be
+    // held back for up to 9 minutes in Doze; anything older is from before a reboot or a long
+    // outage, and contacting emergency services for it would be wrong
+    private static final long MAX_OVERDUE_MS = 15 * 60_000L;
+
+    private final Context context;
+    private final Handler handler;
+    private final Listener listener;
+    private final AlarmManager alarmManager;
+    private final PowerManager.WakeLock wakeLock;
+    private final Runnable fireRunnable = this::fire;
+
+    private boolean active = false;
+    private long deadlineElapsedMs;
+    private int alert;
+
+    public EscalationScheduler(Context context, Handler handler, Listener listener) {
+        this.context = context;
+        this.handler = handler;
+        this.listener = listener;
+        this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        this.wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+        this.wakeLock.setReferenceCounted(false);
+    }
+
+    /** Starts, or restarts, the countdown for the given kind of alert. */
+    public void start(long delayMs, int alert) {
+        deadlineElapsedMs = persist(context, delayMs, alert);
+        this.alert = alert;
+        schedule();
+    }
+
+    /**
+     * Starts a countdown without a running service: persisted, with only the alarm to end it.
+     */
+    public static void startPersisted(Context context, long delayMs, int alert) {
+        long deadlineElapsedMs = persist(context, delayMs, alert);
+        setAlarm(context, (AlarmManager) context.getSystemService(Context.ALARM_SERVICE), deadlineElapsedMs);
+    }
+
+    private static long persist(Context context, long delayMs, int alert) {
+        long deadlineElapsedMs = SystemClock.elapsedRealtime() + delayMs;
+        prefs(context).edit()
+                .putBoolean(KEY_ACTIVE, true)
+                .putLong(KEY_DEADLINE_ELAPSED_MS, deadlineElapsedMs)
+                .putLong(KEY_DEADLINE_WALL_MS, System.currentTimeMillis() + delayMs)
+                .putInt(KEY_ALERT, alert)
+                .apply();
+        return deadlineElapsedMs;
+    }
+
+    /** Moves a running countdown so that at least delayMs remain, e.g. once the user sees the alert. */
+    public void extendTo(long delayMs) {
+        if (active && deadlineElapsedMs - SystemClock.elapsedRealtime() < delayMs) {
+            start(delayMs, alert);
+        }
+    }
+
+    /** Continues a countdown persisted by an earlier instance of the service. */
+    public void resume() {
+        SharedPreferences prefs = prefs(context);
+        if (!prefs.getBoolean(KEY_ACTIVE, false)) return;
+        long nowElapsed = SystemClock.elapsedRealtime();
+        deadlineElapsedMs = prefs.getLong(KEY_DEADLINE_ELAPSED_MS, nowElapsed);
+        alert = prefs.getInt(KEY_ALERT, AlertDispatcher.ALERT_FALL);
+        long remainingWallMs = prefs.getLong(KEY_DEADLINE_WALL_MS, 0) - System.currentTimeMillis();
+        if (remainingWallMs < -MAX_OVERDUE_MS) {
+            Log.w(TAG, "Dropping an escalation that was due " + -remainingWallMs / 60_000 + " min ago");
+            cancelPersisted(context);
+            return;
+        }
+        if (deadlineElapsedMs - nowElapsed > remainingWallMs + 60_000) {
+            // The elapsed clock restarted with the device; the wall clock deadline still holds
+            deadlineElapsedMs = nowElapsed + remainingWallMs;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        active = true;
+        handler.removeCallbacks(fireRunnable);
+        long remainingMs = Math.max(0, deadlineElapsedMs - SystemClock.elapsedRealtime());
+        wakeLock.acquire(remainingMs + WAKE_LOCK_SLACK_MS);
+        handler.postDelayed(fireRunnable, remainingMs);
+        setAlarm(context, alarmManager, deadlineElapsedMs);
+    }
+
+    private static void setAlarm(Context context, AlarmManager alarmManager, long deadlineElapsedMs) {
+        PendingIntent alarm = alarmIntent(context);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms()) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadlineElapsedMs, alarm);
+        } else {
+            // Without the exact alarm permission the wake-locked callback carries the precision
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, deadlineElapsedMs, alarm);
+        }
+    }
+
+    /** Called for the exact alarm; whichever timer comes first escalates. */
+    public void onAlarm() {
+        if (!active) {
+            // The service was restarted by the alarm itself
+            resume();
+            return;
+        }
+        fire();
+    }
+
+    private void fire() {
+        if (!active) return;
+        long nowElapsed = SystemClock.elapsedRealtime();
+        if (nowElapsed < deadlineElapsedMs) {
+            // A timer from before the deadline moved
+            schedule();
+            return;
+        }
+        long latenessMs = nowElapsed - deadlineElapsedMs;
+        AlertLatency.ESCALATION_LATENESS.record(latenessMs * 1_000_000L);
+        cancel();
+        listener.onEscalate(alert, latenessMs);
+    }
+
+    public void cancel() {
+        handler.removeCallbacks(fireRunnable);
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        active = false;
+        cancelPersisted(context);
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public long getRemainingMs() {
+        return active ? Math.max(0, deadlineElapsedMs - SystemClock.elapsedRealtime()) : 0;
+    }
+
+    /**
+     * For an alarm that arrives while the service cannot run: the kind of alert when a persisted
+     * countdown has run out and is not stale, in which case it is cleared and the caller
+     * escalates, otherwise -1. A stale countdown is cleared too; one still running is left for
+     * its alarm.
+     */
+    public static int takeDuePersisted(Context context) {
+        SharedPreferences prefs = prefs(context);
+        if (!prefs.getBoolean(KEY_ACTIVE, false)) return -1;
+        long remainingWallMs = prefs.getLong(KEY_DEADLINE_WALL_MS, 0) - System.currentTimeMillis();
+        if (remainingWallMs > 0) return -1;
+        int alert = prefs.getInt(KEY_ALERT, AlertDispatcher.ALERT_FALL);
+        cancelPersisted(context);
+        return remainingWallMs >= -MAX_OVERDUE_MS ? alert : -1;
+    }
+
+    /**
+     * Clears the persisted countdown and its alarm; works without a running service.
+     */
+    public static void cancelPersisted(Context context) {
+        prefs(context).edit().putBoolean(KEY_ACTIVE, false).apply();
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(alarmIntent(context));
+    }
+
+    private static PendingIntent alarmIntent(Context context) {
+        Intent intent = new Intent(context, EscalationReceiver.class);
+        return PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+}
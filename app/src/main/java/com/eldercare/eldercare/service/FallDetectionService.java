@@ -1,45 +1,200 @@
 package com.eldercare.eldercare.service;
 
-import android.Manifest;
+import android.app.AlarmManager;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.pm.PackageManager;
-import android.graphics.BitmapFactory;
+import android.content.SharedPreferences;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
-import androidx.core.app.ActivityCompat;
-import androidx.core.app.NotificationCompat;
-import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
 
-import com.eldercare.eldercare.R;
-import com.eldercare.eldercare.receiver.NotificationDismissReceiver;
-import com.eldercare.eldercare.view.V_HomePage;
+import com.eldercare.eldercare.detection.ActivityStateScheduler;
+import com.eldercare.eldercare.detection.AdaptiveFallDetector;
+import com.eldercare.eldercare.detection.BlackBoxRecorder;
+import com.eldercare.eldercare.detection.ClassifierFallDetector;
+import com.eldercare.eldercare.detection.FallClassifier;
+import com.eldercare.eldercare.detection.FallDetector;
+import com.eldercare.eldercare.detection.FallDetectors;
+import com.eldercare.eldercare.detection.FallEventStore;
+import com.eldercare.eldercare.detection.FusedSampleHistory;
+import com.eldercare.eldercare.detection.GaitAnalyzer;
+import com.eldercare.eldercare.detection.GaitLog;
+import com.eldercare.eldercare.detection.InactivityDetector;
+import com.eldercare.eldercare.detection.SensorFusion;
+import com.eldercare.eldercare.detection.SensorWatchdog;
+import com.eldercare.eldercare.detection.StagedFallDetector;
+import com.eldercare.eldercare.detection.ThresholdFallDetector;
+import com.eldercare.eldercare.detection.WindowFeatureExtractor;
+import com.eldercare.eldercare.receiver.InactivityReceiver;
 
-public class FallDetectionService extends Service implements SensorEventListener {
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+public class FallDetectionService extends Service
+        implements SensorHub.Subscriber, SensorFusion.Listener, ActivityStateScheduler.Listener {
+
+    private static final String TAG = "FallDetectionService";
+    private SensorHub sensorHub;
     private SensorManager sensorManager;
     private Sensor gyroscopeSensor;
     private Sensor accelerometerSensor;
-    private Handler handler = new Handler();
-    private Runnable autoLaunchRunnable;
-    private static final int NOTIFICATION_ID = 3;
-    private static final float G = 9.81f;
-    private static final float IMPACT_THRESHOLD = 2.8f * G;
-    private static final float GYRO_THRESHOLD = 3.0f;
-    private static final long WINDOW_MS = 800;
-    private static final long COOLDOWN_MS = 8000;
-    private long lastImpactTime = 0;
-    private long lastFallTime = 0;
+    private Sensor significantMotionSensor;
+    private SensorHub.Subscription accelerometerSubscription;
+    private SensorHub.Subscription gyroscopeSubscription;
+    // Alerts, the escalation countdown and the watchdog run on the main thread, sensor processing on the hub thread
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private Handler sensorHandler;
+    // Both sensors sample at 50 Hz (SENSOR_DELAY_GAME) and are fused on the same clock
+    private static final int SAMPLING_PERIOD_US = 20_000;
+    private static final long FUSION_PERIOD_NS = SAMPLING_PERIOD_US * 1000L;
+    // While idle only the accelerometer runs, at 5 Hz (SENSOR_DELAY_NORMAL), and is never batched
+    private static final int IDLE_SAMPLING_PERIOD_US = 200_000;
+    // An idle sample this hard is an impact and goes to the fall detector
+    private static final float IDLE_IMPACT_THRESHOLD_SQ =
+            ThresholdFallDetector.IMPACT_THRESHOLD * ThresholdFallDetector.IMPACT_THRESHOLD;
+    private static final int FUSION_BUFFER_SAMPLES = 256;
+    // dump() gives up on a thread that does not take its part of the snapshot within this
+    private static final long DUMP_TIMEOUT_MS = 2_000;
+    private SensorFusion sensorFusion;
+    // 0 = every sample is delivered as it arrives, otherwise the sensor hub batches up to this long
+    private int maxReportLatencyUs = 0;
+    private boolean drainScheduled = false;
+    private final Runnable drainRunnable = () -> {
+        drainScheduled = false;
+        sensorFusion.drain();
+    };
+    private static final String CLASSIFIER_MODEL_ASSET = "fall_classifier.ecfm";
+    private FallDetector fallDetector;
+    private AlertDispatcher alertDispatcher;
+    public static final String ACTION_ESCALATE = "com.eldercare.eldercare.action.ESCALATE";
+    // Time the user has to answer a fall alert before emergency services are contacted
+    private static final long ESCALATION_DELAY_MS = 10_000;
+    private EscalationScheduler escalationScheduler;
+    // null when adaptive sampling is off: sensors then always run at full rate
+    private ActivityStateScheduler activityScheduler;
+    private final TriggerEventListener motionTrigger = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            // Trigger callbacks arrive on the main thread; the scheduler belongs to the sensor thread
+            sensorHandler.post(() -> {
+                if (activityScheduler != null) {
+                    activityScheduler.onMotionTrigger(event.timestamp);
+                }
+            });
+        }
+    };
+
+    // Ten minutes of both sensors at 50 Hz; a detection keeps 20 s before and 10 s after it
+    private static final int BLACK_BOX_RECORDS = 60_000;
+    private static final long BLACK_BOX_BEFORE_NS = 20_000_000_000L;
+    private static final long BLACK_BOX_AFTER_NS = 10_000_000_000L;
+    private static final int BLACK_BOX_KEEP_FILES = 20;
+    // null when the ring file cannot be mapped; detection does not depend on it
+    private BlackBoxRecorder blackBox;
+    // File writes that must stay off the sensor thread
+    private ExecutorService ioExecutor;
+    private static final String ADAPTIVE_STATE_FILE = "adaptive_detector.bin";
+    private static final long ADAPTIVE_SAVE_INTERVAL_MS = 15 * 60 * 1000L;
+    private final Runnable saveAdaptiveStateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveAdaptiveState();
+            sensorHandler.postDelayed(this, ADAPTIVE_SAVE_INTERVAL_MS);
+        }
+    };
+
+    // Detections and their outcomes for offline evaluation; null when the file cannot be opened
+    private static final String EVENT_STORE_FILE = "fall_events.bin";
+    // Opened on ioExecutor, since an existing file is scanned first; set once it is ready
+    private volatile FallEventStore eventStore;
+    // Same two-second window for every detector, so stored features are comparable between them.
+    // Only computed for an event, from the last ten seconds of samples: the longest any feature
+    // looks back, as time since impact is capped there
+    private final WindowFeatureExtractor eventFeatures =
+            new WindowFeatureExtractor(WindowFeatureExtractor.samplesFor(2_000_000_000L, FUSION_PERIOD_NS));
+    private final FusedSampleHistory eventHistory =
+            new FusedSampleHistory(WindowFeatureExtractor.samplesFor(10_000_000_000L, FUSION_PERIOD_NS));
+    private final float[] eventFeatureVector = new float[WindowFeatureExtractor.FEATURE_COUNT];
+
+    // Gaps between samples per sensor; checked on the main thread, so a stuck sensor thread shows too
+    private static final int WATCH_ACCELEROMETER = 0;
+    private static final int WATCH_GYROSCOPE = 1;
+    private static final long WATCHDOG_INTERVAL_MS = 5_000;
+    // Every this many stalled checks in a row the whole pipeline is restarted, not just the sensor
+    private static final int WATCHDOG_RESTART_CHECKS = 3;
+    private final SensorWatchdog watchdog = new SensorWatchdog("accelerometer", "gyroscope");
+    private final Runnable watchdogRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkSensors();
+            handler.postDelayed(this, WATCHDOG_INTERVAL_MS);
+        }
+    };
+
+    // Long stretches without movement; null when disabled. Only touched on the sensor thread.
+    // Activity comes from the sampling scheduler and the step counter, and is only looked at
+    // when the single alarm for the next deadline goes off.
+    public static final String ACTION_CHECK_INACTIVITY = "com.eldercare.eldercare.action.CHECK_INACTIVITY";
+    private static final String INACTIVITY_PREFS = "InactivityPrefs";
+    private static final String KEY_LAST_ACTIVITY_MS = "last_activity_ms";
+    // Last activity of the stretch that was last alerted for, so a restart does not alert again
+    private static final String KEY_REPORTED_ACTIVITY_MS = "reported_activity_ms";
+    // Someone resting may take a while to notice the alert, and nothing points to an injury as
+    // urgent as a fall, so the countdown to the emergency action is much longer than for a fall
+    private static final long INACTIVITY_ESCALATION_DELAY_MS = 10 * 60_000L;
+    // Steps only need to be seen by the next deadline, so the step counter may batch for long
+    private static final int STEP_MAX_LATENCY_US = 10 * 60 * 1_000_000;
+    private InactivityDetector inactivityDetector;
+    private Sensor stepCounterSensor;
+    private SensorHub.Subscription stepSubscription;
+    private float lastStepCount = -1;
+    private long inactivityAlarmMs = Long.MAX_VALUE;
+
+    // Cadence and regularity of walking bouts, summed up per local day into GAIT_LOG_FILE
+    private static final String GAIT_LOG_FILE = "gait_daily.bin";
+    private static final long GAIT_DAY_CHECK_INTERVAL_MS = 15 * 60 * 1000L;
+    private final GaitAnalyzer gaitAnalyzer = new GaitAnalyzer(FUSION_PERIOD_NS);
+    private long gaitDay;
+    private final Runnable gaitDayRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (LocalDate.now().toEpochDay() != gaitDay) {
+                saveGaitDay();
+            }
+            sensorHandler.postDelayed(this, GAIT_DAY_CHECK_INTERVAL_MS);
+        }
+    };
 
     private static FallDetectionService instance;
 
@@ -47,32 +202,380 @@ public class FallDetectionService extends Service implements SensorEventListener
     public void onCreate() {
         super.onCreate();
         instance=this;
-        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        gyroscopeSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        ioExecutor = Executors.newSingleThreadExecutor();
+        AlertLatency.restore(this);
+        fallDetector = createDetector(FallDetectionSettings.getDetector(this));
+        sensorHub = SensorHub.get(this);
+        sensorHandler = new Handler(sensorHub.getLooper());
+        sensorManager = sensorHub.getSensorManager();
+        boolean batching = FallDetectionSettings.isBatchingEnabled(this);
+        accelerometerSensor = pickSensor(Sensor.TYPE_ACCELEROMETER, batching);
+        gyroscopeSensor = pickSensor(Sensor.TYPE_GYROSCOPE, batching);
+
+        if (batching && hasFifo(accelerometerSensor) && hasFifo(gyroscopeSensor)) {
+            // Leave one fusion period of the latency budget for processing the batch
+            long budgetUs = FallDetectionSettings.getMaxDetectionLatencyMs(this) * 1000L - SAMPLING_PERIOD_US;
+            maxReportLatencyUs = (int) Math.max(0, budgetUs);
+        }
+        // The ring buffers must hold a whole batch of each sensor
+        int batchSamples = maxReportLatencyUs / SAMPLING_PERIOD_US;
+        sensorFusion = new SensorFusion(FUSION_PERIOD_NS, Math.max(FUSION_BUFFER_SAMPLES, batchSamples * 2), this);
+
+        if (FallDetectionSettings.isAdaptiveSamplingEnabled(this) && accelerometerSensor != null) {
+            activityScheduler = new ActivityStateScheduler(this);
+            significantMotionSensor = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        }
+
+        openBlackBox();
+        File eventFile = new File(getFilesDir(), EVENT_STORE_FILE);
+        ioExecutor.execute(() -> {
+            try {
+                eventStore = new FallEventStore(eventFile, WindowFeatureExtractor.FEATURE_COUNT, ioExecutor);
+            } catch (IOException e) {
+                Log.w(TAG, "Fall event store disabled", e);
+            }
+        });
 
         createNotificationChannel();
 
+        registerSensors(ActivityStateScheduler.STATE_ACTIVE);
+        handler.postDelayed(watchdogRunnable, WATCHDOG_INTERVAL_MS);
+        gaitDay = LocalDate.now().toEpochDay();
+        sensorHandler.postDelayed(gaitDayRunnable, GAIT_DAY_CHECK_INTERVAL_MS);
+        if (FallDetectionSettings.isInactivityEnabled(this)) {
+            inactivityDetector = new InactivityDetector(FallDetectionSettings.getInactivityThresholdsMin(this),
+                    ZoneId.systemDefault());
+            sensorHandler.post(this::startInactivityMonitor);
+        } else {
+            // Switched off since the last start: a pending check must not restart the service
+            ((AlarmManager) getSystemService(Context.ALARM_SERVICE)).cancel(inactivityAlarmIntent());
+        }
+        if (fallDetector instanceof AdaptiveFallDetector) {
+            sensorHandler.postDelayed(saveAdaptiveStateRunnable, ADAPTIVE_SAVE_INTERVAL_MS);
+        }
+
+        // Start foreground notification
+        alertDispatcher = new AlertDispatcher(this);
+        startForeground(2, alertDispatcher.getForegroundNotification());
+
+        escalationScheduler = new EscalationScheduler(this, handler, this::escalate);
+        escalationScheduler.resume();
+    }
+
+    private FallDetector createDetector(String name) {
+        try {
+            if (ClassifierFallDetector.NAME.equals(name)) {
+                try (InputStream in = getAssets().open(CLASSIFIER_MODEL_ASSET)) {
+                    return FallDetectors.create(name, FallClassifier.read(in));
+                }
+            }
+            FallDetector detector = FallDetectors.create(name);
+            if (detector instanceof AdaptiveFallDetector) {
+                loadAdaptiveState((AdaptiveFallDetector) detector);
+            }
+            return detector;
+        } catch (IOException | IllegalArgumentException e) {
+            Log.w(TAG, "Cannot use detector " + name + ", falling back to " + FallDetectors.DEFAULT, e);
+        }
+        return FallDetectors.create(FallDetectors.DEFAULT);
+    }
+
+    /**
+     * The calibration survives restarts; a missing or unreadable file starts from the defaults.
+     */
+    private void loadAdaptiveState(AdaptiveFallDetector detector) {
+        File file = new File(getFilesDir(), ADAPTIVE_STATE_FILE);
+        if (!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            detector.readState(in);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot restore adaptive thresholds", e);
+            detector.reset();
+        }
+    }
+
+    /** Snapshots the state on the sensor thread and writes it on ioExecutor. */
+    private void saveAdaptiveState() {
+        if (!(fallDetector instanceof AdaptiveFallDetector)) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ((AdaptiveFallDetector) fallDetector).writeState(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            return;
+        }
+        final File file = new File(getFilesDir(), ADAPTIVE_STATE_FILE);
+        ioExecutor.execute(() -> {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                bytes.writeTo(out);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot save adaptive thresholds", e);
+                return;
+            }
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Cannot replace " + file);
+            }
+        });
+    }
+
+    /**
+     * Runs on the sensor thread: hands the aggregates since the last save to ioExecutor and
+     * starts a new day. A partial day saved at shutdown is merged with the rest when read.
+     */
+    private void saveGaitDay() {
+        GaitAnalyzer.DaySummary day = gaitAnalyzer.takeDay((int) gaitDay);
+        gaitDay = LocalDate.now().toEpochDay();
+        final File file = new File(getFilesDir(), GAIT_LOG_FILE);
+        ioExecutor.execute(() -> {
+            try {
+                GaitLog.append(file, day);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot save gait summary", e);
+            }
+        });
+    }
+
+    private void openBlackBox() {
+        File dir = new File(getFilesDir(), "blackbox");
+        try {
+            blackBox = new BlackBoxRecorder(new File(dir, "ring.bin"), BLACK_BOX_RECORDS,
+                    new File(dir, "falls"), BLACK_BOX_KEEP_FILES,
+                    BLACK_BOX_BEFORE_NS, BLACK_BOX_AFTER_NS, ioExecutor);
+        } catch (IOException e) {
+            Log.w(TAG, "Black box recorder disabled", e);
+        }
+    }
+
+    /**
+     * ACTIVE: accelerometer and gyroscope at full rate through the fusion stage.
+     * IDLE: accelerometer only at a low rate, plus the significant motion trigger if the
+     * device has one, just enough to notice the phone being picked up. Idle samples are not
+     * batched: the first one that shows motion has to switch back to full rate straight away.
+     * Events are delivered on the SensorHub thread, so UI work on the main thread cannot delay them.
+     */
+    private void registerSensors(int state) {
+        unsubscribeSensors();
+        if (significantMotionSensor != null) {
+            sensorManager.cancelTriggerSensor(motionTrigger, significantMotionSensor);
+        }
+
+        long nowNs = SystemClock.elapsedRealtimeNanos();
+        long maxLatencyNs = maxReportLatencyUs * 1000L;
+        if (state == ActivityStateScheduler.STATE_IDLE) {
+            watchdog.expect(WATCH_ACCELEROMETER, IDLE_SAMPLING_PERIOD_US * 1000L, 0, nowNs);
+            watchdog.expect(WATCH_GYROSCOPE, 0, 0, nowNs);
+            accelerometerSubscription = sensorHub.subscribe(TAG, accelerometerSensor, IDLE_SAMPLING_PERIOD_US,
+                    0, this);
+            if (significantMotionSensor != null) {
+                sensorManager.requestTriggerSensor(motionTrigger, significantMotionSensor);
+            }
+            return;
+        }
+
+        // Samples from before the idle period must not be interpolated against new ones
+        sensorFusion.reset();
+        watchdog.expect(WATCH_ACCELEROMETER, accelerometerSensor != null ? FUSION_PERIOD_NS : 0, maxLatencyNs, nowNs);
+        watchdog.expect(WATCH_GYROSCOPE, gyroscopeSensor != null ? FUSION_PERIOD_NS : 0, maxLatencyNs, nowNs);
         if (accelerometerSensor != null) {
-            sensorManager.registerListener(this, accelerometerSensor, SensorManager.SENSOR_DELAY_GAME);
+            accelerometerSubscription = sensorHub.subscribe(TAG, accelerometerSensor, SAMPLING_PERIOD_US,
+                    maxReportLatencyUs, this);
         }
         if (gyroscopeSensor != null) {
-            sensorManager.registerListener(this, gyroscopeSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            gyroscopeSubscription = sensorHub.subscribe(TAG, gyroscopeSensor, SAMPLING_PERIOD_US,
+                    maxReportLatencyUs, this);
         }
+    }
 
-        // Start foreground notification
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, "fall_channel")
-                .setContentTitle("Fall Detect Active")
-                .setContentText("Eldercare will monitor for falls in the background")
-                .setSmallIcon(R.drawable.warning)
-                .setLargeIcon(BitmapFactory.decodeResource(this.getResources(),R.drawable.eldercare_icon));
-        startForeground(2, builder.build());
+    private void unsubscribeSensors() {
+        sensorHub.unsubscribe(accelerometerSubscription);
+        sensorHub.unsubscribe(gyroscopeSubscription);
+        accelerometerSubscription = null;
+        gyroscopeSubscription = null;
+    }
+
+    /**
+     * Runs on the main thread. A stalled sensor is first registered again; if that does not bring
+     * it back, every WATCHDOG_RESTART_CHECKS checks the listeners and the fusion stage are restarted.
+     */
+    private void checkSensors() {
+        int stalled = watchdog.check(SystemClock.elapsedRealtimeNanos(), SystemClock.uptimeMillis() * 1_000_000L);
+        if (stalled == 0) return;
+        long checks = Math.max(watchdog.getStalledChecks(WATCH_ACCELEROMETER), watchdog.getStalledChecks(WATCH_GYROSCOPE));
+        if (checks % WATCHDOG_RESTART_CHECKS == 0) {
+            Log.w(TAG, "Sensors stalled for " + checks + " checks, restarting the pipeline");
+            watchdog.onRestarted();
+            sensorHandler.post(this::restartSensors);
+        } else if (checks == 1) {
+            Log.w(TAG, "Sensor stalled, registering again: mask " + stalled);
+            watchdog.onReregistered();
+            sensorHandler.post(() -> reregisterSensors(stalled));
+        }
+    }
+
+    private void reregisterSensors(int stalled) {
+        if ((stalled & (1 << WATCH_ACCELEROMETER)) != 0 && accelerometerSubscription != null) {
+            sensorHub.reregister(accelerometerSensor);
+        }
+        if ((stalled & (1 << WATCH_GYROSCOPE)) != 0 && gyroscopeSubscription != null) {
+            sensorHub.reregister(gyroscopeSensor);
+        }
+    }
+
+    /**
+     * Drops pending batches and partial fusion state, then subscribes from scratch; the hub
+     * registers the sensors again even if another subscriber kept them registered.
+     */
+    private void restartSensors() {
+        sensorHandler.removeCallbacks(drainRunnable);
+        drainScheduled = false;
+        sensorFusion.reset();
+        registerSensors(currentState());
+        reregisterSensors((1 << WATCH_ACCELEROMETER) | (1 << WATCH_GYROSCOPE));
+    }
+
+    private int currentState() {
+        return activityScheduler != null ? activityScheduler.getState() : ActivityStateScheduler.STATE_ACTIVE;
+    }
+
+    @Override
+    public void onStateChanged(int newState, long timestampNs) {
+        Log.i(TAG, "Sampling mode -> " + ActivityStateScheduler.stateName(newState)
+                + ", transition " + activityScheduler.getTransitions() + ", idle "
+                + activityScheduler.getTimeInStateNs(ActivityStateScheduler.STATE_IDLE, timestampNs) / 1_000_000_000L
+                + " s, active "
+                + activityScheduler.getTimeInStateNs(ActivityStateScheduler.STATE_ACTIVE, timestampNs) / 1_000_000_000L
+                + " s");
+        registerSensors(newState);
+        if (inactivityDetector != null) {
+            noteActivity(toWallMs(activityScheduler.getLastMotionNs()));
+            saveLastActivity();
+        }
+    }
+
+    /**
+     * Runs on the sensor thread. A service restarted after being killed continues from the
+     * persisted last activity, so the alarm that restarted it can still alert.
+     */
+    private void startInactivityMonitor() {
+        SharedPreferences prefs = getSharedPreferences(INACTIVITY_PREFS, MODE_PRIVATE);
+        long lastActivityMs = prefs.getLong(KEY_LAST_ACTIVITY_MS, System.currentTimeMillis());
+        inactivityDetector.onActivity(lastActivityMs);
+        if (prefs.getLong(KEY_REPORTED_ACTIVITY_MS, Long.MIN_VALUE) == lastActivityMs) {
+            inactivityDetector.markReported();
+        }
+        stepCounterSensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+        if (stepCounterSensor != null) {
+            stepSubscription = sensorHub.subscribe(TAG, stepCounterSensor, SensorManager.SENSOR_DELAY_NORMAL,
+                    STEP_MAX_LATENCY_US, this);
+        }
+        scheduleInactivityCheck();
+    }
+
+    /** Only stores the time; the alarm is moved when it goes off, not on every activity. */
+    private void noteActivity(long wallMs) {
+        inactivityDetector.onActivity(wallMs);
+        if (inactivityAlarmMs == Long.MAX_VALUE) {
+            // Nothing pending after an alert: the next stretch needs its own alarm
+            scheduleInactivityCheck();
+        }
+    }
+
+    /** Runs on the sensor thread when the inactivity alarm goes off. */
+    private void checkInactivity() {
+        if (inactivityDetector == null) return;
+        if (activityScheduler != null && activityScheduler.getLastMotionNs() != Long.MIN_VALUE) {
+            inactivityDetector.onActivity(toWallMs(activityScheduler.getLastMotionNs()));
+        }
+        long nowMs = System.currentTimeMillis();
+        if (inactivityDetector.check(nowMs)) {
+            Log.i(TAG, "No movement for " + (nowMs - inactivityDetector.getLastActivityMs()) / 60_000 + " min");
+            long nowNs = SystemClock.elapsedRealtimeNanos();
+            FallEventStore store = eventStore;
+            if (store != null) {
+                eventHistory.replay(eventFeatures);
+                eventFeatures.copyFeatures(eventFeatureVector);
+                store.appendDetection(nowMs, nowNs, InactivityDetector.NAME, eventFeatureVector);
+            }
+            saveReported(this, inactivityDetector.getLastActivityMs());
+            handler.post(this::sendInactivityAlert);
+        }
+        saveLastActivity();
+        scheduleInactivityCheck();
+    }
+
+    /**
+     * Runs on the main thread. A fall countdown that is already running is left alone, since it
+     * is the shorter one.
+     */
+    private void sendInactivityAlert() {
+        if (!escalationScheduler.isActive()) {
+            escalationScheduler.start(INACTIVITY_ESCALATION_DELAY_MS, AlertDispatcher.ALERT_INACTIVITY);
+        }
+        if (!alertDispatcher.dispatchInactivity()) {
+            Log.w(TAG, "Cannot show the inactivity alert, notifications are not allowed");
+        }
+    }
+
+    private static void saveReported(Context context, long lastActivityMs) {
+        context.getSharedPreferences(INACTIVITY_PREFS, MODE_PRIVATE).edit()
+                .putLong(KEY_REPORTED_ACTIVITY_MS, lastActivityMs)
+                .apply();
+    }
+
+    private void scheduleInactivityCheck() {
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        inactivityAlarmMs = inactivityDetector.getDeadlineMs();
+        if (inactivityAlarmMs == Long.MAX_VALUE) {
+            alarmManager.cancel(inactivityAlarmIntent());
+            return;
+        }
+        // Only an exact alarm may start the killed service again from the background on Android 12+;
+        // an inexact one is checked without the service, see onInactivityAlarm()
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.S || alarmManager.canScheduleExactAlarms()) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, inactivityAlarmMs, inactivityAlarmIntent());
+        } else {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, inactivityAlarmMs, inactivityAlarmIntent());
+        }
+    }
+
+    private PendingIntent inactivityAlarmIntent() {
+        Intent intent = new Intent(this, InactivityReceiver.class);
+        return PendingIntent.getBroadcast(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    private void saveLastActivity() {
+        getSharedPreferences(INACTIVITY_PREFS, MODE_PRIVATE).edit()
+                .putLong(KEY_LAST_ACTIVITY_MS, inactivityDetector.getLastActivityMs())
+                .apply();
+    }
+
+    private static long toWallMs(long elapsedNs) {
+        return System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - elapsedNs) / 1_000_000L;
+    }
+
+    /**
+     * In batched mode prefer the wake-up variant: the hub then wakes the CPU once per full batch
+     * instead of dropping samples while it sleeps.
+     */
+    private Sensor pickSensor(int type, boolean batching) {
+        if (batching) {
+            Sensor wakeUp = sensorManager.getDefaultSensor(type, true);
+            if (hasFifo(wakeUp)) {
+                return wakeUp;
+            }
+        }
+        return sensorManager.getDefaultSensor(type);
+    }
+
+    private static boolean hasFifo(Sensor sensor) {
+        return sensor != null && sensor.getFifoMaxEventCount() > 0;
     }
 
     private void createNotificationChannel() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             NotificationChannel channel = new NotificationChannel(
-                    "fall_channel",
+                    AlertDispatcher.CHANNEL_ID,
                     "Fall Detection",
                     NotificationManager.IMPORTANCE_HIGH // Banner + sound/vibration
             );
@@ -84,111 +587,344 @@ public class FallDetectionService extends Service implements SensorEventListener
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_ESCALATE.equals(intent.getAction())) {
+            escalationScheduler.onAlarm();
+        } else if (intent != null && ACTION_CHECK_INACTIVITY.equals(intent.getAction())) {
+            sensorHandler.post(this::checkInactivity);
+        }
         return START_STICKY; // keep running unless explicitly stopped
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        sensorManager.unregisterListener(this);
-        cancelAutoLaunch();
+        unsubscribeSensors();
+        if (significantMotionSensor != null) {
+            sensorManager.cancelTriggerSensor(motionTrigger, significantMotionSensor);
+        }
+        sensorHandler.removeCallbacks(drainRunnable);
+        sensorHandler.removeCallbacks(saveAdaptiveStateRunnable);
+        sensorHandler.removeCallbacks(gaitDayRunnable);
+        // A running countdown stays persisted, with its alarm, for the next instance to resume
+        handler.removeCallbacksAndMessages(null);
+        alertDispatcher.release();
+        // Events already queued on the sensor thread are handled before state is saved and closed
+        sensorHandler.post(this::releaseSensorState);
         instance = null;
     }
 
+    private void releaseSensorState() {
+        saveAdaptiveState();
+        saveGaitDay();
+        if (inactivityDetector != null) {
+            // Stopped on purpose: a later start must not count the time in between as inactivity
+            sensorHub.unsubscribe(stepSubscription);
+            ((AlarmManager) getSystemService(Context.ALARM_SERVICE)).cancel(inactivityAlarmIntent());
+            getSharedPreferences(INACTIVITY_PREFS, MODE_PRIVATE).edit().remove(KEY_LAST_ACTIVITY_MS).apply();
+            inactivityDetector = null;
+        }
+        if (blackBox != null) {
+            try {
+                blackBox.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot close black box recorder", e);
+            }
+            blackBox = null;
+        }
+        ioExecutor.shutdown();
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return null; // not binding to activity
     }
 
     @Override
-    public void onSensorChanged(SensorEvent event) {
-        long now = System.currentTimeMillis();
+    public void onSample(Sensor sensor, long timestampNs, float[] v) {
+        int type = sensor.getType();
+        if (type == Sensor.TYPE_STEP_COUNTER) {
+            // The first event only reports the count so far
+            if (lastStepCount >= 0 && v[0] > lastStepCount && inactivityDetector != null) {
+                noteActivity(toWallMs(timestampNs));
+            }
+            lastStepCount = v[0];
+            return;
+        }
 
-        if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            float ax = event.values[0];
-            float ay = event.values[1];
-            float az = event.values[2];
-            float accelMag = (float) Math.sqrt(ax*ax + ay*ay + az*az);
+        // TraceFormat sensor codes match the Sensor.TYPE_* values
+        if (type == Sensor.TYPE_ACCELEROMETER) {
+            watchdog.onSample(WATCH_ACCELEROMETER, timestampNs);
+        } else if (type == Sensor.TYPE_GYROSCOPE) {
+            watchdog.onSample(WATCH_GYROSCOPE, timestampNs);
+        }
 
-            if (accelMag > IMPACT_THRESHOLD) {
-                lastImpactTime = now;
+        if (blackBox != null && (type == Sensor.TYPE_ACCELEROMETER || type == Sensor.TYPE_GYROSCOPE)) {
+            blackBox.record(timestampNs, (byte) type, v[0], v[1], v[2]);
+        }
+
+        if (activityScheduler != null && activityScheduler.getState() == ActivityStateScheduler.STATE_IDLE) {
+            // Gyroscope events still in flight from before the switch are ignored
+            if (type == Sensor.TYPE_ACCELEROMETER) {
+                activityScheduler.onAccelerometer(timestampNs, v[0], v[1], v[2]);
+                checkIdleImpact(timestampNs, v[0], v[1], v[2]);
             }
+            return;
         }
 
-        if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-            float gx = event.values[0];
-            float gy = event.values[1];
-            float gz = event.values[2];
-            float gyroMag = (float) Math.sqrt(gx*gx + gy*gy + gz*gz);
+        if (type == Sensor.TYPE_ACCELEROMETER) {
+            sensorFusion.addAccelerometer(timestampNs, v[0], v[1], v[2]);
+        } else if (type == Sensor.TYPE_GYROSCOPE) {
+            sensorFusion.addGyroscope(timestampNs, v[0], v[1], v[2]);
+        } else {
+            return;
+        }
 
-            // Check: gyro spike + recent impact
-            if (gyroMag > GYRO_THRESHOLD && (now - lastImpactTime) < WINDOW_MS) {
-                if ((now - lastFallTime) > COOLDOWN_MS) {
-                    lastFallTime = now;
-                    sendFallNotification();
-                }
-            }
+        if (maxReportLatencyUs == 0) {
+            sensorFusion.drain();
+        } else if (!drainScheduled) {
+            // A batch is delivered back to back; process it in one go once the burst is over
+            drainScheduled = true;
+            sensorHandler.post(drainRunnable);
         }
     }
 
     @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    public void onFusedSample(long timestampNs, float ax, float ay, float az, float gx, float gy, float gz,
+                              float accelPeakSq, float gyroPeakSq) {
+        if (activityScheduler != null) {
+            activityScheduler.onAccelerometer(timestampNs, ax, ay, az);
+        }
+        eventHistory.add(timestampNs, ax, ay, az, gx, gy, gz);
+        gaitAnalyzer.onSample(timestampNs, ax, ay, az);
+        if (fallDetector.onSample(timestampNs, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq)) {
+            onFallDetected(timestampNs);
+        }
+    }
 
-    private void sendFallNotification() {
-        cancelAutoLaunch();
+    /**
+     * Runs on the sensor thread. An impact on an idle sample has already switched the scheduler
+     * back to full rate, but the fused samples only start once the sensors are registered again,
+     * so the impact itself is handed to the detector here, with the gyroscope (off while idle)
+     * as zero. A fall from rest then still has its impact inside the detector's window.
+     */
+    private void checkIdleImpact(long timestampNs, float x, float y, float z) {
+        if (x * x + y * y + z * z < IDLE_IMPACT_THRESHOLD_SQ) return;
+        eventHistory.add(timestampNs, x, y, z, 0f, 0f, 0f);
+        if (fallDetector.onSample(timestampNs, x, y, z, 0f, 0f, 0f)) {
+            onFallDetected(timestampNs);
+        }
+    }
 
-        if (isAppInForeground()) {
-            Intent dialogIntent = new Intent(this, V_HomePage.class);
-            dialogIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-            dialogIntent.putExtra("SHOW_DIALOG", true);
-            startActivity(dialogIntent);
+    private void onFallDetected(long timestampNs) {
+        if (blackBox != null) {
+            blackBox.freeze(timestampNs);
+        }
+        FallEventStore store = eventStore;
+        if (store != null) {
+            eventHistory.replay(eventFeatures);
+            eventFeatures.copyFeatures(eventFeatureVector);
+            store.appendDetection(System.currentTimeMillis(), timestampNs,
+                    fallDetector.getName(), eventFeatureVector);
+        }
+        long detectedNs = SystemClock.elapsedRealtimeNanos();
+        AlertLatency.SENSOR_TO_DETECTION.record(detectedNs - timestampNs);
+        handler.post(() -> sendFallNotification(timestampNs, detectedNs));
+    }
+
+    /**
+     * Runs on the main thread. sensorTimestampNs is the fused sample that triggered the
+     * detection and detectedNs when the sensor thread decided, so the hand-off counts as dispatch.
+     */
+    private void sendFallNotification(long sensorTimestampNs, long detectedNs) {
+        // The countdown runs even if the alert could not be shown
+        escalationScheduler.start(ESCALATION_DELAY_MS, AlertDispatcher.ALERT_FALL);
+        if (alertDispatcher.dispatch(sensorTimestampNs, detectedNs)) {
+            AlertLatency.save(this);
+        }
+    }
+
+    private void escalate(int alert, long latenessMs) {
+        Log.i(TAG, "Escalating unanswered " + (alert == AlertDispatcher.ALERT_INACTIVITY ? "inactivity" : "fall")
+                + " alert, " + latenessMs + " ms late");
+        recordOutcome(FallEventStore.OUTCOME_AUTO_ESCALATED);
+        if (!alertDispatcher.escalate(alert)) {
+            Log.w(TAG, "Cannot show the escalation, notifications are not allowed");
+        }
+        AlertLatency.save(this);
+    }
+
+    /**
+     * Prints the metrics for adb shell dumpsys activity service
+     * com.eldercare.eldercare/.service.FallDetectionService. Runs on a binder thread, so each part
+     * of the snapshot is taken on the thread that owns its state instead of reading live fields.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        try {
+            writer.print(snapshotOn(handler, this::dumpMainThreadMetrics));
+            writer.print(snapshotOn(sensorHandler, this::dumpSensorThreadMetrics));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            writer.println("dump_failed=" + e);
+        }
+        writer.flush();
+    }
+
+    private static String snapshotOn(Handler owner, Callable<String> part)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        FutureTask<String> task = new FutureTask<>(part);
+        if (owner == null || !owner.post(task)) return "";
+        return task.get(DUMP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs on the main thread, which owns the escalation countdown. */
+    private String dumpMainThreadMetrics() {
+        StringBuilder out = new StringBuilder();
+        out.append("escalation_remaining_ms=").append(escalationScheduler.getRemainingMs()).append('\n');
+        return out.toString();
+    }
+
+    /**
+     * Runs on the sensor thread, which owns the detector, the scheduler, gait and inactivity.
+     * The watchdog, the hub, the stores and the latency histograms may be read from any thread.
+     */
+    private String dumpSensorThreadMetrics() {
+        StringBuilder out = new StringBuilder();
+        long nowNs = SystemClock.elapsedRealtimeNanos();
+        out.append("detector=").append(fallDetector.getName()).append('\n');
+        out.append("max_report_latency_us=").append(maxReportLatencyUs).append('\n');
+        if (fallDetector instanceof StagedFallDetector) {
+            ((StagedFallDetector) fallDetector).dump(out);
+        } else if (fallDetector instanceof AdaptiveFallDetector) {
+            ((AdaptiveFallDetector) fallDetector).dump(out);
+        }
+        if (activityScheduler != null) {
+            activityScheduler.dump(out, nowNs);
+        }
+        watchdog.dump(out, nowNs);
+        gaitAnalyzer.dump(out);
+        if (inactivityDetector != null) {
+            inactivityDetector.dump(out, System.currentTimeMillis());
+        }
+        sensorHub.dump(out);
+        if (blackBox != null) {
+            blackBox.dump(out);
+        }
+        FallEventStore store = eventStore;
+        if (store != null) {
+            store.dump(out);
+        }
+        AlertLatency.dump(out);
+        return out.toString();
+    }
+
+    /**
+     * Records what the user made of the latest alert, see FallEventStore.OUTCOME_*.
+     * Ignored when the service is not running or the alert already has an outcome.
+     */
+    public static void recordOutcome(int outcome) {
+        FallDetectionService service = instance;
+        FallEventStore store = service != null ? service.eventStore : null;
+        if (store != null) {
+            store.appendOutcome(System.currentTimeMillis(), outcome);
+        }
+    }
+
+    /**
+     * Stops the escalation countdown of the current alert, whether or not the service is running.
+     */
+    public static void cancelEscalation(Context context) {
+        FallDetectionService service = instance;
+        if (service != null) {
+            service.escalationScheduler.cancel();
+        } else {
+            EscalationScheduler.cancelPersisted(context);
+        }
+    }
+
+    /**
+     * Delivers the escalation alarm. A running service handles it directly. A killed one is
+     * started again, which Android 12+ only allows in the background for an exact alarm; without
+     * the exact alarm permission the start is refused and the escalation is shown from here.
+     * Runs on the main thread.
+     */
+    public static void onEscalationAlarm(Context context) {
+        FallDetectionService service = instance;
+        if (service != null) {
+            service.escalationScheduler.onAlarm();
             return;
         }
+        Intent serviceIntent = new Intent(context, FallDetectionService.class);
+        serviceIntent.setAction(ACTION_ESCALATE);
+        try {
+            ContextCompat.startForegroundService(context, serviceIntent);
+        } catch (IllegalStateException e) {
+            // ForegroundServiceStartNotAllowedException on Android 12+
+            Log.w(TAG, "Cannot restart the service for the escalation", e);
+            int alert = EscalationScheduler.takeDuePersisted(context);
+            if (alert >= 0) {
+                AlertDispatcher dispatcher = new AlertDispatcher(context.getApplicationContext());
+                if (!dispatcher.escalate(alert)) {
+                    Log.w(TAG, "Cannot show the escalation, notifications are not allowed");
+                }
+                dispatcher.release();
+            }
+        }
+    }
+
+    /**
+     * Delivers the inactivity alarm. A running service checks directly. A killed one is started
+     * again, which Android 12+ only allows in the background for an exact alarm; when the start
+     * is refused the check runs here, on the persisted last activity, and an alert gets its
+     * countdown from the escalation alarm alone. Runs on the main thread.
+     */
+    public static void onInactivityAlarm(Context context) {
+        FallDetectionService service = instance;
+        if (service != null) {
+            service.sensorHandler.post(service::checkInactivity);
+            return;
+        }
+        Intent serviceIntent = new Intent(context, FallDetectionService.class);
+        serviceIntent.setAction(ACTION_CHECK_INACTIVITY);
+        try {
+            ContextCompat.startForegroundService(context, serviceIntent);
+        } catch (IllegalStateException e) {
+            // ForegroundServiceStartNotAllowedException on Android 12+
+            Log.w(TAG, "Cannot restart the service for the inactivity check", e);
+            checkInactivityWithoutService(context);
+        }
+    }
 
-        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+    private static void checkInactivityWithoutService(Context context) {
+        if (!FallDetectionSettings.isInactivityEnabled(context)) return;
+        SharedPreferences prefs = context.getSharedPreferences(INACTIVITY_PREFS, MODE_PRIVATE);
+        long lastActivityMs = prefs.getLong(KEY_LAST_ACTIVITY_MS, Long.MIN_VALUE);
+        if (lastActivityMs == Long.MIN_VALUE
+                || prefs.getLong(KEY_REPORTED_ACTIVITY_MS, Long.MIN_VALUE) == lastActivityMs) {
             return;
         }
+        InactivityDetector detector = new InactivityDetector(
+                FallDetectionSettings.getInactivityThresholdsMin(context), ZoneId.systemDefault());
+        detector.onActivity(lastActivityMs);
+        if (!detector.check(System.currentTimeMillis())) return;
+
+        saveReported(context, lastActivityMs);
+        EscalationScheduler.startPersisted(context, INACTIVITY_ESCALATION_DELAY_MS, AlertDispatcher.ALERT_INACTIVITY);
+        AlertDispatcher dispatcher = new AlertDispatcher(context.getApplicationContext());
+        if (!dispatcher.dispatchInactivity()) {
+            Log.w(TAG, "Cannot show the inactivity alert, notifications are not allowed");
+        }
+        dispatcher.release();
+    }
 
-        Intent activityIntent = new Intent(this, V_HomePage.class);
-        activityIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        activityIntent.putExtra("SHOW_DIALOG", true);
-
-        PendingIntent activityPendingIntent = PendingIntent.getActivity(
-                this, 0, activityIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        Intent dismissIntent = new Intent(this, NotificationDismissReceiver.class);
-        PendingIntent dismissPendingIntent = PendingIntent.getBroadcast(
-                this, 0, dismissIntent,
-                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
-        );
-
-        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, "fall_channel")
-                .setContentTitle("Fall Detected!")
-                .setContentText("Please press on this notification to open Eldercare or dismiss if this is a false fall trigger.")
-                .setSmallIcon(R.drawable.eldercare_notif_small_icon)
-                .setLargeIcon(BitmapFactory.decodeResource(this.getResources(),R.drawable.eldercare_icon))
-                .setDefaults(NotificationCompat.DEFAULT_ALL)
-                .setPriority(NotificationCompat.PRIORITY_HIGH)
-                .setAutoCancel(true)
-                .setContentIntent(activityPendingIntent)
-                .setDeleteIntent(dismissPendingIntent);
-
-        NotificationManagerCompat.from(this).notify(NOTIFICATION_ID, builder.build());
-    }
-    private boolean isAppInForeground() {
-        android.app.ActivityManager.RunningAppProcessInfo appProcessInfo =
-                new android.app.ActivityManager.RunningAppProcessInfo();
-        android.app.ActivityManager.getMyMemoryState(appProcessInfo);
-        return appProcessInfo.importance ==
-                android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
-    }
-
-    public static void cancelAutoLaunch() {
-        if (instance != null && instance.autoLaunchRunnable != null) {
-            instance.handler.removeCallbacks(instance.autoLaunchRunnable);
-            instance.autoLaunchRunnable = null;
+    /**
+     * The alert is on screen: leaves the user at least the full countdown to answer it.
+     */
+    public static void onAlertShown() {
+        FallDetectionService service = instance;
+        if (service != null) {
+            service.escalationScheduler.extendTo(ESCALATION_DELAY_MS);
         }
     }
 
@@ -0,0 +1,107 @@
+package com.eldercare.eldercare.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.eldercare.eldercare.detection.FallDetectors;
+import com.eldercare.eldercare.detection.InactivityDetector;
+
+/**
+ * Persisted options for FallDetectionService.
+ * Changes take effect the next time the service is created.
+ */
+public class FallDetectionSettings {
+
+    private static final String PREFERENCE_NAME = "FallDetectionPrefs";
+    private static final String KEY_BATCHING_ENABLED = "batching_enabled";
+    private static final String KEY_MAX_DETECTION_LATENCY_MS = "max_detection_latency_ms";
+    private static final String KEY_ADAPTIVE_SAMPLING_ENABLED = "adaptive_sampling_enabled";
+    private static final String KEY_DETECTOR = "detector";
+    private static final String KEY_INACTIVITY_ENABLED = "inactivity_enabled";
+    private static final String KEY_INACTIVITY_THRESHOLDS_MIN = "inactivity_thresholds_min";
+
+    // Worst case between a fall and its detection when the sensor hub batches samples; every
+    // alert may come this much later, so it is kept to about one second
+    public static final int DEFAULT_MAX_DETECTION_LATENCY_MS = 1000;
+
+    /**
+     * Whether samples may be buffered in the sensor hub FIFO and delivered in blocks. Off by
+     * default: batching lets the CPU sleep between blocks and saves battery, but delays every
+     * fall alert by up to getMaxDetectionLatencyMs(), so it is only for users who choose that.
+     */
+    public static boolean isBatchingEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_BATCHING_ENABLED, false);
+    }
+
+    public static void setBatchingEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_BATCHING_ENABLED, enabled).apply();
+    }
+
+    public static int getMaxDetectionLatencyMs(Context context) {
+        return prefs(context).getInt(KEY_MAX_DETECTION_LATENCY_MS, DEFAULT_MAX_DETECTION_LATENCY_MS);
+    }
+
+    public static void setMaxDetectionLatencyMs(Context context, int latencyMs) {
+        prefs(context).edit().putInt(KEY_MAX_DETECTION_LATENCY_MS, latencyMs).apply();
+    }
+
+    /**
+     * Whether sampling drops to the low-rate idle mode while the phone lies still
+     */
+    public static boolean isAdaptiveSamplingEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_ADAPTIVE_SAMPLING_ENABLED, true);
+    }
+
+    public static void setAdaptiveSamplingEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_ADAPTIVE_SAMPLING_ENABLED, enabled).apply();
+    }
+
+    /**
+     * Name of the detection engine, see FallDetectors
+     */
+    public static String getDetector(Context context) {
+        return prefs(context).getString(KEY_DETECTOR, FallDetectors.DEFAULT);
+    }
+
+    public static void setDetector(Context context, String name) {
+        prefs(context).edit().putString(KEY_DETECTOR, name).apply();
+    }
+
+    /**
+     * Whether a long stretch without movement raises an alert too. Off by default: a phone left
+     * on a table looks the same as a person who cannot get up, so the alert is only for users
+     * who carry the phone all day and choose it.
+     */
+    public static boolean isInactivityEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_INACTIVITY_ENABLED, false);
+    }
+
+    public static void setInactivityEnabled(Context context, boolean enabled) {
+        prefs(context).edit().putBoolean(KEY_INACTIVITY_ENABLED, enabled).apply();
+    }
+
+    /**
+     * Minutes without movement that raise an alert, per hour of day (0 = never in that hour)
+     */
+    public static int[] getInactivityThresholdsMin(Context context) {
+        String stored = prefs(context).getString(KEY_INACTIVITY_THRESHOLDS_MIN, null);
+        if (stored != null) {
+            try {
+                return InactivityDetector.parseThresholds(stored);
+            } catch (IllegalArgumentException e) {
+                // fall through to the defaults
+            }
+        }
+        return InactivityDetector.DEFAULT_THRESHOLDS_MIN.clone();
+    }
+
+    public static void setInactivityThresholdsMin(Context context, int[] thresholdsMin) {
+        prefs(context).edit()
+                .putString(KEY_INACTIVITY_THRESHOLDS_MIN, InactivityDetector.formatThresholds(thresholdsMin))
+                .apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,343 @@
+package com.eldercare.eldercare.service;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Owns every sensor listener registration of the app. Each sensor is registered once, at the
+ * fastest rate and shortest batching latency any subscriber asked for, and its events are fanned
+ * out to the subscribers on the hub thread. Continuous sensors are thinned to the rate each
+ * subscriber requested; on-change sensors deliver every event.
+ *
+ * Subscribers either take the stream (Subscriber) or only need the newest value (LatestValue,
+ * readable from any thread without locking). Delivery count and callback time are kept per
+ * subscription, see dump().
+ *
+ * subscribe() and unsubscribe() can be called from any thread; the change is applied on the hub
+ * thread, in order with the events it delivers.
+ */
+public final class SensorHub implements SensorEventListener {
+
+    /** Called on the hub thread; values is only valid during the call. */
+    public interface Subscriber {
+        void onSample(Sensor sensor, long timestampNs, float[] values);
+    }
+
+    private static SensorHub instance;
+
+    private final SensorManager sensorManager;
+    private final Handler handler;
+    // Only touched on the hub thread
+    private final Map<Sensor, Registration> registrations = new IdentityHashMap<>();
+    // Copy of registrations.values() for dump(), replaced whenever a registration changes
+    private Registration[] registrationSnapshot = new Registration[0];
+
+    public static synchronized SensorHub get(Context context) {
+        if (instance == null) {
+            instance = new SensorHub(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SensorHub(Context context) {
+        sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        // Fall detection runs on this thread, so it gets the priority that detection needs
+        HandlerThread thread = new HandlerThread("SensorHub", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public SensorManager getSensorManager() {
+        return sensorManager;
+    }
+
+    /** The hub thread, for subscribers that keep working on the thread their samples arrive on. */
+    public Looper getLooper() {
+        return handler.getLooper();
+    }
+
+    /**
+     * periodUs is a sampling period in microseconds or one of the SensorManager.SENSOR_DELAY_*
+     * constants, as for SensorManager.registerListener().
+     */
+    public Subscription subscribe(String name, Sensor sensor, int periodUs, int maxLatencyUs, Subscriber subscriber) {
+        Subscription subscription = new Subscription(name, sensor, toPeriodUs(periodUs), maxLatencyUs, subscriber);
+        runOnHubThread(() -> add(subscription));
+        return subscription;
+    }
+
+    /** Keeps cell up to date with the newest event of sensor while subscribed. */
+    public Subscription subscribe(String name, Sensor sensor, int periodUs, LatestValue cell) {
+        return subscribe(name, sensor, periodUs, 0, cell::write);
+    }
+
+    public void unsubscribe(Subscription subscription) {
+        if (subscription != null) {
+            runOnHubThread(() -> remove(subscription));
+        }
+    }
+
+    /** Registers the sensor again with unchanged settings, for a sensor that stopped delivering. */
+    public void reregister(Sensor sensor) {
+        runOnHubThread(() -> {
+            Registration registration = registrations.get(sensor);
+            if (registration != null) {
+                sensorManager.unregisterListener(this, sensor);
+                registration.periodUs = -1;
+                registration.update();
+            }
+        });
+    }
+
+    /** The rates SensorManager uses for the SENSOR_DELAY_* constants, so they compare with plain periods. */
+    private static int toPeriodUs(int period) {
+        switch (period) {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                return 0;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return 20_000;
+            case SensorManager.SENSOR_DELAY_UI:
+                return 66_667;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return 200_000;
+            default:
+                return period;
+        }
+    }
+
+    private void runOnHubThread(Runnable action) {
+        if (Looper.myLooper() == handler.getLooper()) {
+            action.run();
+        } else {
+            handler.post(action);
+        }
+    }
+
+    private void add(Subscription subscription) {
+        Registration registration = registrations.get(subscription.sensor);
+        if (registration == null) {
+            registration = new Registration(subscription.sensor);
+            registrations.put(subscription.sensor, registration);
+        }
+        registration.add(subscription);
+    }
+
+    private void remove(Subscription subscription) {
+        Registration registration = registrations.get(subscription.sensor);
+        if (registration == null || !registration.remove(subscription)) return;
+        if (registration.subscriptions.length == 0) {
+            sensorManager.unregisterListener(this, subscription.sensor);
+            registrations.remove(subscription.sensor);
+            publishSnapshot();
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        Registration registration = registrations.get(event.sensor);
+        if (registration == null) return; // in flight from before the last subscriber left
+        registration.events++;
+        for (Subscription subscription : registration.subscriptions) {
+            subscription.deliver(event, registration.periodNs());
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+    /** Registrations against subscriptions per sensor, then each subscriber's share of the work. */
+    public void dump(StringBuilder out) {
+        // The map belongs to the hub thread; a snapshot of a few fields is enough for a report
+        Registration[] snapshot;
+        synchronized (this) {
+            snapshot = registrationSnapshot;
+        }
+        int subscriptions = 0;
+        for (Registration registration : snapshot) subscriptions += registration.subscriptions.length;
+        out.append("sensor_hub_registrations=").append(snapshot.length).append('\n');
+        out.append("sensor_hub_subscriptions=").append(subscriptions).append('\n');
+        for (Registration registration : snapshot) {
+            String prefix = "sensor_hub_" + registration.key;
+            out.append(prefix).append("_period_us=").append(registration.periodUs).append('\n');
+            out.append(prefix).append("_max_latency_us=").append(registration.maxLatencyUs).append('\n');
+            out.append(prefix).append("_events=").append(registration.events).append('\n');
+            for (Subscription subscription : registration.subscriptions) {
+                String key = prefix + "_" + subscription.name;
+                long deliveries = subscription.deliveries;
+                out.append(key).append("_deliveries=").append(deliveries).append('\n');
+                out.append(key).append("_mean_cost_us=")
+                        .append(deliveries == 0 ? 0 : subscription.costNs / deliveries / 1000f).append('\n');
+            }
+        }
+    }
+
+    private void publishSnapshot() {
+        Registration[] snapshot = registrations.values().toArray(new Registration[0]);
+        synchronized (this) {
+            registrationSnapshot = snapshot;
+        }
+    }
+
+    private final class Registration {
+        final Sensor sensor;
+        final String key;
+        final boolean onChange;
+        // Written on the hub thread, read by dump()
+        volatile Subscription[] subscriptions = new Subscription[0];
+        volatile int periodUs = -1;
+        volatile int maxLatencyUs = -1;
+        volatile long events;
+
+        Registration(Sensor sensor) {
+            this.sensor = sensor;
+            this.key = sensor.getStringType().replace("android.sensor.", "").replace('.', '_')
+                    + (sensor.isWakeUpSensor() ? "_wakeup" : "");
+            this.onChange = sensor.getReportingMode() == Sensor.REPORTING_MODE_ON_CHANGE;
+        }
+
+        void add(Subscription subscription) {
+            List<Subscription> list = new ArrayList<>(subscriptions.length + 1);
+            for (Subscription s : subscriptions) list.add(s);
+            list.add(subscription);
+            subscriptions = list.toArray(new Subscription[0]);
+            update();
+        }
+
+        boolean remove(Subscription subscription) {
+            List<Subscription> list = new ArrayList<>(subscriptions.length);
+            for (Subscription s : subscriptions) {
+                if (s != subscription) list.add(s);
+            }
+            if (list.size() == subscriptions.length) return false;
+            subscriptions = list.toArray(new Subscription[0]);
+            if (subscriptions.length > 0) {
+                update();
+            }
+            return true;
+        }
+
+        /** Registers at the fastest requested rate and shortest requested latency, if that changed. */
+        void update() {
+            int period = Integer.MAX_VALUE;
+            int latency = Integer.MAX_VALUE;
+            for (Subscription s : subscriptions) {
+                period = Math.min(period, s.periodUs);
+                latency = Math.min(latency, s.maxLatencyUs);
+            }
+            if (period != periodUs || latency != maxLatencyUs) {
+                if (periodUs >= 0) {
+                    sensorManager.unregisterListener(SensorHub.this, sensor);
+                }
+                periodUs = period;
+                maxLatencyUs = latency;
+                sensorManager.registerListener(SensorHub.this, sensor, period, latency, handler);
+            }
+            publishSnapshot();
+        }
+
+        /** 0 for on-change sensors, which must not be thinned. */
+        long periodNs() {
+            return onChange ? 0 : periodUs * 1000L;
+        }
+    }
+
+    public static final class Subscription {
+        final String name;
+        final Sensor sensor;
+        final int periodUs;
+        final int maxLatencyUs;
+        private final Subscriber subscriber;
+        private long lastDeliveredNs = Long.MIN_VALUE;
+        volatile long deliveries;
+        volatile long costNs;
+
+        Subscription(String name, Sensor sensor, int periodUs, int maxLatencyUs, Subscriber subscriber) {
+            this.name = name;
+            this.sensor = sensor;
+            this.periodUs = periodUs;
+            this.maxLatencyUs = maxLatencyUs;
+            this.subscriber = subscriber;
+        }
+
+        void deliver(SensorEvent event, long registeredPeriodNs) {
+            // A slower subscriber takes an event once its own period is up, within half a registered period
+            if (registeredPeriodNs > 0 && lastDeliveredNs != Long.MIN_VALUE
+                    && event.timestamp - lastDeliveredNs < periodUs * 1000L - registeredPeriodNs / 2) {
+                return;
+            }
+            lastDeliveredNs = event.timestamp;
+            long startNs = System.nanoTime();
+            subscriber.onSample(event.sensor, event.timestamp, event.values);
+            costNs += System.nanoTime() - startNs;
+            deliveries++;
+        }
+    }
+
+    /**
+     * Newest event of a sensor: a timestamp and up to three values. Written by the hub thread,
+     * read from any thread without locks; read() retries while a write is in progress.
+     */
+    public static final class LatestValue {
+        private static final int SEQUENCE = 0;
+        private static final int TIMESTAMP = 1;
+        private static final int VALUES = 2;
+        private static final int MAX_VALUES = 3;
+
+        private final AtomicLongArray slots = new AtomicLongArray(VALUES + MAX_VALUES);
+
+        public LatestValue() {
+            slots.set(TIMESTAMP, Long.MIN_VALUE);
+        }
+
+        void write(Sensor sensor, long timestampNs, float[] values) {
+            long sequence = slots.get(SEQUENCE);
+            slots.set(SEQUENCE, sequence + 1); // odd while writing
+            slots.set(TIMESTAMP, timestampNs);
+            int count = Math.min(values.length, MAX_VALUES);
+            for (int i = 0; i < count; i++) {
+                slots.set(VALUES + i, Float.floatToRawIntBits(values[i]));
+            }
+            slots.set(SEQUENCE, sequence + 2);
+        }
+
+        public boolean hasValue() {
+            return slots.get(TIMESTAMP) != Long.MIN_VALUE;
+        }
+
+        /** One value of the newest event, or fallback before the first event. */
+        public float get(int index, float fallback) {
+            if (!hasValue()) return fallback;
+            return Float.intBitsToFloat((int) slots.get(VALUES + index));
+        }
+
+        /**
+         * Copies the values of the newest event into out and returns its timestamp, or
+         * Long.MIN_VALUE before the first event. The values and timestamp belong to one event.
+         */
+        public long read(float[] out) {
+            while (true) {
+                long sequence = slots.get(SEQUENCE);
+                if ((sequence & 1) != 0) continue;
+                long timestampNs = slots.get(TIMESTAMP);
+                int count = Math.min(out.length, MAX_VALUES);
+                for (int i = 0; i < count; i++) {
+                    out[i] = Float.intBitsToFloat((int) slots.get(VALUES + i));
+                }
+                if (slots.get(SEQUENCE) == sequence) return timestampNs;
+            }
+        }
+    }
+}
@@ -5,12 +5,14 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.PointF;
 import android.os.Handler;
 import android.util.AttributeSet;
 import android.view.View;
+import com.google.mlkit.vision.face.Face;
+import com.google.mlkit.vision.face.FaceContour;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
 
 public class FaceOverlayView extends View {
     private Paint meshPaint;
@@ -21,8 +23,14 @@ public class FaceOverlayView extends View {
     private boolean isScanning = false;
     private float scanLineY = 0f;
 
-    private List<FacePoint> facePoints;
-    private List<FaceLine> faceLines;
+    // Contours of the detected face in frame coordinates, drawn scaled to the view
+    private final List<float[]> contours = new ArrayList<>();
+    private final List<Boolean> closedContours = new ArrayList<>();
+    private final Path contourPath = new Path();
+    private float frameWidth = 1f;
+    private float frameHeight = 1f;
+    private boolean mirrored = false;
+
     private Handler animationHandler;
     private Runnable scanAnimationRunnable;
 
@@ -62,66 +70,7 @@ public class FaceOverlayView extends View {
         pointPaint.setAlpha(180);
         pointPaint.setAntiAlias(true);
 
-        facePoints = new ArrayList<>();
-        faceLines = new ArrayList<>();
         animationHandler = new Handler();
-
-        generateFaceMesh();
-    }
-
-    private void generateFaceMesh() {
-        int centerX = 0;
-        int centerY = 0;
-
-        float scale = 1.8f;
-
-        facePoints.add(new FacePoint(centerX, (centerY - 120) * scale));
-        facePoints.add(new FacePoint((centerX - 60) * scale, (centerY - 100) * scale));
-        facePoints.add(new FacePoint((centerX + 60) * scale, (centerY - 100) * scale));
-        facePoints.add(new FacePoint((centerX - 80) * scale, (centerY - 60) * scale));
-        facePoints.add(new FacePoint((centerX + 80) * scale, (centerY - 60) * scale));
-        facePoints.add(new FacePoint((centerX - 90) * scale, centerY));
-        facePoints.add(new FacePoint((centerX + 90) * scale, centerY));
-        facePoints.add(new FacePoint((centerX - 85) * scale, (centerY + 40) * scale));
-        facePoints.add(new FacePoint((centerX + 85) * scale, (centerY + 40) * scale));
-        facePoints.add(new FacePoint((centerX - 70) * scale, (centerY + 80) * scale));
-        facePoints.add(new FacePoint((centerX + 70) * scale, (centerY + 80) * scale));
-        facePoints.add(new FacePoint((centerX - 40) * scale, (centerY + 110) * scale));
-        facePoints.add(new FacePoint((centerX + 40) * scale, (centerY + 110) * scale));
-        facePoints.add(new FacePoint(centerX, (centerY + 120) * scale));
-
-        facePoints.add(new FacePoint((centerX - 50) * scale, (centerY - 60) * scale));
-        facePoints.add(new FacePoint((centerX + 50) * scale, (centerY - 60) * scale));
-        facePoints.add(new FacePoint(centerX, (centerY - 20) * scale));
-        facePoints.add(new FacePoint(centerX, (centerY + 20) * scale));
-        facePoints.add(new FacePoint((centerX - 30) * scale, (centerY + 60) * scale));
-        facePoints.add(new FacePoint((centerX + 30) * scale, (centerY + 60) * scale));
-
-        faceLines.add(new FaceLine(0, 1));
-        faceLines.add(new FaceLine(0, 2));
-        faceLines.add(new FaceLine(1, 3));
-        faceLines.add(new FaceLine(2, 4));
-        faceLines.add(new FaceLine(3, 5));
-        faceLines.add(new FaceLine(4, 6));
-        faceLines.add(new FaceLine(5, 7));
-        faceLines.add(new FaceLine(6, 8));
-        faceLines.add(new FaceLine(7, 9));
-        faceLines.add(new FaceLine(8, 10));
-        faceLines.add(new FaceLine(9, 11));
-        faceLines.add(new FaceLine(10, 12));
-        faceLines.add(new FaceLine(11, 13));
-        faceLines.add(new FaceLine(12, 13));
-
-        faceLines.add(new FaceLine(14, 16));
-        faceLines.add(new FaceLine(15, 16));
-        faceLines.add(new FaceLine(16, 17));
-        faceLines.add(new FaceLine(17, 18));
-        faceLines.add(new FaceLine(17, 19));
-        faceLines.add(new FaceLine(18, 11));
-        faceLines.add(new FaceLine(19, 12));
-
-        faceLines.add(new FaceLine(3, 14));
-        faceLines.add(new FaceLine(4, 15));
     }
 
     public void setFaceDetected(boolean detected) {
@@ -129,6 +78,34 @@ public class FaceOverlayView extends View {
         invalidate();
     }
 
+    /**
+     * Shows the contours of a face found in an upright frame of frameWidth x frameHeight, or
+     * clears the overlay for null. mirrored flips them left to right, as a front camera preview is.
+     */
+    public void setFace(Face face, int frameWidth, int frameHeight, boolean mirrored) {
+        contours.clear();
+        closedContours.clear();
+        if (face != null) {
+            for (FaceContour contour : face.getAllContours()) {
+                List<PointF> points = contour.getPoints();
+                if (points.isEmpty()) continue;
+                float[] xy = new float[points.size() * 2];
+                for (int i = 0; i < points.size(); i++) {
+                    xy[2 * i] = points.get(i).x;
+                    xy[2 * i + 1] = points.get(i).y;
+                }
+                contours.add(xy);
+                int type = contour.getFaceContourType();
+                closedContours.add(type == FaceContour.FACE || type == FaceContour.LEFT_EYE
+                        || type == FaceContour.RIGHT_EYE);
+            }
+        }
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.mirrored = mirrored;
+        setFaceDetected(face != null);
+    }
+
     public void startScanAnimation() {
         isScanning = true;
         scanLineY = 0f;
@@ -165,25 +142,28 @@ public class FaceOverlayView extends View {
             return;
         }
 
-        int centerX = getWidth() / 2;
-        int centerY = getHeight() / 2;
-
-        for (FaceLine line : faceLines) {
-            FacePoint p1 = facePoints.get(line.startIndex);
-            FacePoint p2 = facePoints.get(line.endIndex);
-
-            float x1 = centerX + p1.x;
-            float y1 = centerY + p1.y;
-            float x2 = centerX + p2.x;
-            float y2 = centerY + p2.y;
-
-            canvas.drawLine(x1, y1, x2, y2, meshPaint);
-        }
-
-        for (FacePoint point : facePoints) {
-            float x = centerX + point.x;
-            float y = centerY + point.y;
-            canvas.drawCircle(x, y, 5f, pointPaint);
+        // The preview fills the view and is centred, cropping whichever sides overflow
+        float scale = Math.max(getWidth() / frameWidth, getHeight() / frameHeight);
+        float offsetX = (getWidth() - frameWidth * scale) / 2f;
+        float offsetY = (getHeight() - frameHeight * scale) / 2f;
+
+        for (int c = 0; c < contours.size(); c++) {
+            float[] xy = contours.get(c);
+            contourPath.reset();
+            for (int i = 0; i < xy.length; i += 2) {
+                float x = (mirrored ? frameWidth - xy[i] : xy[i]) * scale + offsetX;
+                float y = xy[i + 1] * scale + offsetY;
+                if (i == 0) {
+                    contourPath.moveTo(x, y);
+                } else {
+                    contourPath.lineTo(x, y);
+                }
+                canvas.drawCircle(x, y, 3f, pointPaint);
+            }
+            if (closedContours.get(c)) {
+                contourPath.close();
+            }
+            canvas.drawPath(contourPath, meshPaint);
         }
 
         if (isScanning) {
@@ -192,22 +172,4 @@ public class FaceOverlayView extends View {
             scanLinePaint.setAlpha((int)(100 + Math.abs(Math.sin(scanLineY / 50) * 100)));
         }
     }
-
-    private static class FacePoint {
-        float x, y;
-
-        FacePoint(float x, float y) {
-            this.x = x;
-            this.y = y;
-        }
-    }
-
-    private static class FaceLine {
-        int startIndex, endIndex;
-
-        FaceLine(int start, int end) {
-            this.startIndex = start;
-            this.endIndex = end;
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.eldercare.eldercare.utils;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Turns a YUV_420_888 camera frame into an upright, mirrored if asked, JPEG of at most the
+ * requested size: one pass into an NV21 buffer (YuvTransform), then YuvImage encodes straight
+ * into a JPEG buffer. Both buffers are kept, so repeated scans allocate almost nothing and no
+ * Bitmap is ever made. Not thread-safe.
+ */
+public class FrameEncoder {
+
+    // Room for a 480x640 face at quality 50 without growing
+    private static final int INITIAL_JPEG_BYTES = 64 * 1024;
+
+    private final YuvTransform transform = new YuvTransform();
+    private final JpegBuffer jpeg = new JpegBuffer();
+
+    /** Encodes the frame and returns the JPEG length; the bytes are in getJpeg() until the next call. */
+    public int encode(YuvFrameCopy frame, int rotationDegrees, boolean mirror,
+                      int maxWidth, int maxHeight, int quality) {
+        int[] size = YuvTransform.fitSize(frame.getWidth(), frame.getHeight(), rotationDegrees, maxWidth, maxHeight);
+        transform.transform(frame.getWidth(), frame.getHeight(),
+                frame.getYPlane(), frame.getYRowStride(),
+                frame.getUPlane(), frame.getVPlane(), frame.getUvRowStride(), frame.getUvPixelStride(),
+                rotationDegrees, mirror, size[0], size[1]);
+
+        jpeg.reset();
+        YuvImage yuvImage = new YuvImage(transform.getNv21(), ImageFormat.NV21, size[0], size[1], null);
+        if (!yuvImage.compressToJpeg(new Rect(0, 0, size[0], size[1]), quality, jpeg)) {
+            throw new IllegalStateException("JPEG encoding failed");
+        }
+        return jpeg.size();
+    }
+
+    /** The last JPEG from index 0; only the first getJpegLength() bytes belong to it. */
+    public byte[] getJpeg() {
+        return jpeg.buffer();
+    }
+
+    public int getJpegLength() {
+        return jpeg.size();
+    }
+
+    public int getWidth() {
+        return transform.getWidth();
+    }
+
+    public int getHeight() {
+        return transform.getHeight();
+    }
+
+    /** A ByteArrayOutputStream that hands out its buffer instead of a copy. */
+    private static final class JpegBuffer extends ByteArrayOutputStream {
+        JpegBuffer() {
+            super(INITIAL_JPEG_BYTES);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
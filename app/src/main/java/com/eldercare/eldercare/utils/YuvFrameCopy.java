@@ -0,0 +1,87 @@
+package com.eldercare.eldercare.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A copy of a YUV_420_888 frame's planes, so a frame can be kept after the camera takes its
+ * image back. The buffers are kept and only grow, so copying frames of one size allocates
+ * nothing after the first. Not thread-safe.
+ */
+public class YuvFrameCopy {
+
+    private ByteBuffer yPlane = ByteBuffer.allocate(0);
+    private ByteBuffer uPlane = ByteBuffer.allocate(0);
+    private ByteBuffer vPlane = ByteBuffer.allocate(0);
+    private int width;
+    private int height;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+    private boolean hasFrame = false;
+
+    /** Copies the planes whole, strides included; their positions are left alone. */
+    public void copy(int width, int height, ByteBuffer yPlane, int yRowStride,
+                     ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+        this.yPlane = copyPlane(yPlane, this.yPlane);
+        this.uPlane = copyPlane(uPlane, this.uPlane);
+        this.vPlane = copyPlane(vPlane, this.vPlane);
+        this.width = width;
+        this.height = height;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        hasFrame = true;
+    }
+
+    public void clear() {
+        hasFrame = false;
+    }
+
+    public boolean hasFrame() {
+        return hasFrame;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public ByteBuffer getYPlane() {
+        return yPlane;
+    }
+
+    public ByteBuffer getUPlane() {
+        return uPlane;
+    }
+
+    public ByteBuffer getVPlane() {
+        return vPlane;
+    }
+
+    public int getYRowStride() {
+        return yRowStride;
+    }
+
+    public int getUvRowStride() {
+        return uvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return uvPixelStride;
+    }
+
+    private static ByteBuffer copyPlane(ByteBuffer source, ByteBuffer target) {
+        ByteBuffer from = source.duplicate();
+        from.rewind();
+        if (target.capacity() < from.remaining()) {
+            target = ByteBuffer.allocate(from.remaining());
+        }
+        target.clear();
+        target.put(from);
+        target.flip();
+        return target;
+    }
+}
@@ -0,0 +1,196 @@
+package com.eldercare.eldercare.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rotates, mirrors and scales a YUV_420_888 frame into NV21 in one pass: every output pixel is
+ * read once from the source planes, with no intermediate image. The output buffer and the
+ * lookup tables are kept and reused while the sizes stay the same.
+ *
+ * Scaling picks the nearest source pixel, which is meant for frames the camera already
+ * delivered close to the output size. Not thread-safe.
+ */
+public class YuvTransform {
+
+    private byte[] nv21 = new byte[0];
+    private int width;
+    private int height;
+
+    // Source offset of output pixel (x, y) = lumaRows[y] + lumaColumns[x], likewise for chroma
+    private int[] lumaColumns = new int[0];
+    private int[] lumaRows = new int[0];
+    private int[] chromaColumns = new int[0];
+    private int[] chromaRows = new int[0];
+    // The transform the tables were built for: source size and strides, rotation, mirror, output size
+    private final int[] tableParams = new int[8];
+    private boolean tablesBuilt = false;
+
+    /**
+     * The output size for a source frame turned by rotationDegrees, scaled down to fit within
+     * maxWidth x maxHeight with its aspect ratio kept, never scaled up. Both sides are even, as
+     * NV21 needs. Returns {width, height}.
+     */
+    public static int[] fitSize(int sourceWidth, int sourceHeight, int rotationDegrees, int maxWidth, int maxHeight) {
+        boolean quarterTurn = rotationDegrees % 180 != 0;
+        int turnedWidth = quarterTurn ? sourceHeight : sourceWidth;
+        int turnedHeight = quarterTurn ? sourceWidth : sourceHeight;
+        float scale = Math.min(1f, Math.min((float) maxWidth / turnedWidth, (float) maxHeight / turnedHeight));
+        int width = Math.max(2, Math.round(turnedWidth * scale) & ~1);
+        int height = Math.max(2, Math.round(turnedHeight * scale) & ~1);
+        return new int[]{width, height};
+    }
+
+    /**
+     * Writes the source frame, turned clockwise by rotationDegrees (a multiple of 90) and then
+     * mirrored left to right if asked, as width x height NV21 into getNv21(). width and height
+     * must be even. Reads the planes with absolute gets, so their positions are left alone.
+     */
+    public void transform(int sourceWidth, int sourceHeight,
+                          ByteBuffer yPlane, int yRowStride,
+                          ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                          int rotationDegrees, boolean mirror, int width, int height) {
+        if ((width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("NV21 needs an even size, got " + width + "x" + height);
+        }
+        int rotation = ((rotationDegrees % 360) + 360) % 360;
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotationDegrees);
+        }
+        int frameBytes = width * height * 3 / 2;
+        if (nv21.length < frameBytes) {
+            nv21 = new byte[frameBytes];
+        }
+        this.width = width;
+        this.height = height;
+        buildTables(sourceWidth, sourceHeight, yRowStride, uvRowStride, uvPixelStride, rotation, mirror);
+
+        int out = 0;
+        for (int y = 0; y < height; y++) {
+            int rowOffset = lumaRows[y];
+            for (int x = 0; x < width; x++) {
+                nv21[out++] = yPlane.get(rowOffset + lumaColumns[x]);
+            }
+        }
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        for (int y = 0; y < chromaHeight; y++) {
+            int rowOffset = chromaRows[y];
+            for (int x = 0; x < chromaWidth; x++) {
+                int index = rowOffset + chromaColumns[x];
+                nv21[out++] = vPlane.get(index);
+                nv21[out++] = uPlane.get(index);
+            }
+        }
+    }
+
+    /** Holds the last frame from index 0; may be longer than the frame. */
+    public byte[] getNv21() {
+        return nv21;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    private void buildTables(int sourceWidth, int sourceHeight, int yRowStride, int uvRowStride,
+                             int uvPixelStride, int rotation, boolean mirror) {
+        int[] p = tableParams;
+        if (tablesBuilt && p[0] == sourceWidth && p[1] == sourceHeight && p[2] == yRowStride && p[3] == uvRowStride
+                && p[4] == uvPixelStride && p[5] == rotation && p[6] == (mirror ? 1 : 0)
+                && p[7] == width * 65536 + height) {
+            return;
+        }
+
+        if (lumaColumns.length < width) {
+            lumaColumns = new int[width];
+            chromaColumns = new int[width / 2];
+        }
+        if (lumaRows.length < height) {
+            lumaRows = new int[height];
+            chromaRows = new int[height / 2];
+        }
+        boolean quarterTurn = rotation % 180 != 0;
+        int turnedWidth = quarterTurn ? sourceHeight : sourceWidth;
+        int turnedHeight = quarterTurn ? sourceWidth : sourceHeight;
+
+        for (int x = 0; x < width; x++) {
+            int turnedX = (int) ((x + 0.5f) * turnedWidth / width);
+            if (mirror) turnedX = turnedWidth - 1 - turnedX;
+            // With a quarter turn, an output column walks along a source row
+            switch (rotation) {
+                case 0:
+                    lumaColumns[x] = turnedX;
+                    break;
+                case 90:
+                    lumaColumns[x] = (sourceHeight - 1 - turnedX) * yRowStride;
+                    break;
+                case 180:
+                    lumaColumns[x] = sourceWidth - 1 - turnedX;
+                    break;
+                default:
+                    lumaColumns[x] = turnedX * yRowStride;
+                    break;
+            }
+            if ((x & 1) == 0) {
+                chromaColumns[x / 2] = chromaOffset(rotation, turnedX, sourceWidth, sourceHeight, uvRowStride,
+                        uvPixelStride, true);
+            }
+        }
+        for (int y = 0; y < height; y++) {
+            int turnedY = (int) ((y + 0.5f) * turnedHeight / height);
+            switch (rotation) {
+                case 0:
+                    lumaRows[y] = turnedY * yRowStride;
+                    break;
+                case 90:
+                    lumaRows[y] = turnedY;
+                    break;
+                case 180:
+                    lumaRows[y] = (sourceHeight - 1 - turnedY) * yRowStride;
+                    break;
+                default:
+                    lumaRows[y] = sourceWidth - 1 - turnedY;
+                    break;
+            }
+            if ((y & 1) == 0) {
+                chromaRows[y / 2] = chromaOffset(rotation, turnedY, sourceWidth, sourceHeight, uvRowStride,
+                        uvPixelStride, false);
+            }
+        }
+        p[0] = sourceWidth;
+        p[1] = sourceHeight;
+        p[2] = yRowStride;
+        p[3] = uvRowStride;
+        p[4] = uvPixelStride;
+        p[5] = rotation;
+        p[6] = mirror ? 1 : 0;
+        p[7] = width * 65536 + height;
+        tablesBuilt = true;
+    }
+
+    /** Chroma part of the source offset for a coordinate of the turned frame, on the given axis. */
+    private static int chromaOffset(int rotation, int turned, int sourceWidth, int sourceHeight,
+                                    int uvRowStride, int uvPixelStride, boolean xAxis) {
+        int sourceColumn = -1;
+        int sourceRow = -1;
+        switch (rotation) {
+            case 0:
+                if (xAxis) sourceColumn = turned; else sourceRow = turned;
+                break;
+            case 90:
+                if (xAxis) sourceRow = sourceHeight - 1 - turned; else sourceColumn = turned;
+                break;
+            case 180:
+                if (xAxis) sourceColumn = sourceWidth - 1 - turned; else sourceRow = sourceHeight - 1 - turned;
+                break;
+            default:
+                if (xAxis) sourceRow = turned; else sourceColumn = sourceWidth - 1 - turned;
+                break;
+        }
+        return sourceColumn >= 0 ? (sourceColumn >> 1) * uvPixelStride : (sourceRow >> 1) * uvRowStride;
+    }
+}
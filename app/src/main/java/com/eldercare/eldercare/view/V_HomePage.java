@@ -8,8 +8,6 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.net.Uri;
 import android.os.Bundle;
@@ -34,17 +32,23 @@ import androidx.lifecycle.ViewModelProvider;
 import com.eldercare.eldercare.R;
 import com.eldercare.eldercare.activity.EmergencyActivity;
 import com.eldercare.eldercare.activity.FaceScanActivity;
+import com.eldercare.eldercare.detection.FallEventStore;
+import com.eldercare.eldercare.service.AlertLatency;
 import com.eldercare.eldercare.service.FallDetectionService;
+import com.eldercare.eldercare.service.SensorHub;
 import com.eldercare.eldercare.utils.LocaleHelper;
 import com.eldercare.eldercare.viewmodel.VM_HomePage;
 
-public class V_HomePage extends BaseActivity implements SensorEventListener {
+public class V_HomePage extends BaseActivity {
 
-    private SensorManager sensorManager;
+    private SensorHub sensorHub;
     private Sensor lightSensor;
     private Sensor tempSensor;
-    private float lightLevel;
-    private float temperature;
+    // Kept current by the hub thread while the activity is resumed; read on the main thread
+    private final SensorHub.LatestValue lightLevel = new SensorHub.LatestValue();
+    private final SensorHub.LatestValue temperature = new SensorHub.LatestValue();
+    private SensorHub.Subscription lightSubscription;
+    private SensorHub.Subscription tempSubscription;
     private CardView facialAnalysis, emergency, emergServices, aiDoctor;
     private VM_HomePage viewModel;
     private ImageButton btnLanguage; // Language switcher button
@@ -52,6 +56,7 @@ public class V_HomePage extends BaseActivity implements SensorEventListener {
     private static final String KEY_LANGUAGE_SELECTED = "language_selected_manual";
 
 
+    private AlertDialog fallDialog;
     private TextView emergencyCardText;
     private boolean emergencyIsPressed = false;
     private long emergencyPressStartTime = 0L;
@@ -118,14 +123,12 @@ public class V_HomePage extends BaseActivity implements SensorEventListener {
         setContentView(R.layout.activity_main);
 
         // Initialize sensors
-        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-        lightSensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
-        tempSensor = sensorManager.getDefaultSensor(Sensor.TYPE_AMBIENT_TEMPERATURE);
+        sensorHub = SensorHub.get(this);
+        lightSensor = sensorHub.getSensorManager().getDefaultSensor(Sensor.TYPE_LIGHT);
+        tempSensor = sensorHub.getSensorManager().getDefaultSensor(Sensor.TYPE_AMBIENT_TEMPERATURE);
         if(tempSensor == null) {
             Toast.makeText(this, R.string.temp_sensor_unavailable, Toast.LENGTH_LONG).show();
         }
-        lightLevel = -1.0f;
-        temperature = -1.0f;
 
         // Initialize UI elements
         facialAnalysis = findViewById(R.id.facial_analysis_btn);
@@ -256,36 +259,22 @@ public class V_HomePage extends BaseActivity implements SensorEventListener {
     protected void onResume() {
         super.onResume();
         if (lightSensor != null) {
-            sensorManager.registerListener(this, lightSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            lightSubscription = sensorHub.subscribe("home_light", lightSensor, SensorManager.SENSOR_DELAY_NORMAL, lightLevel);
         }
         if (tempSensor != null) {
-            sensorManager.registerListener(this, tempSensor, SensorManager.SENSOR_DELAY_NORMAL);
+            tempSubscription = sensorHub.subscribe("home_temperature", tempSensor, SensorManager.SENSOR_DELAY_NORMAL, temperature);
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        sensorManager.unregisterListener(this);
+        sensorHub.unsubscribe(lightSubscription);
+        sensorHub.unsubscribe(tempSubscription);
+        lightSubscription = null;
+        tempSubscription = null;
     }
 
-    @Override
-    public void onSensorChanged(SensorEvent event) {
-        if (event.sensor.getType() == Sensor.TYPE_LIGHT) {
-            lightLevel = event.values[0];
-        } else if (event.sensor.getType() == Sensor.TYPE_AMBIENT_TEMPERATURE) {
-            if(event.values != null && event.values.length>0){
-                temperature = event.values[0];
-                if(temperature > 100 || temperature < -100){
-                    temperature = -1.0f;
-                }
-            }
-        }
-    }
-
-    @Override
-    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-
     @Override
     protected void onNewIntent(Intent intent) {
         super.onNewIntent(intent);
@@ -298,6 +287,16 @@ public class V_HomePage extends BaseActivity implements SensorEventListener {
             if (show) showFallDetectDialog();
         });
 
+        viewModel.escalate.observe(this, escalate -> {
+            if (escalate) {
+                if (fallDialog != null && fallDialog.isShowing()) {
+                    fallDialog.dismiss();
+                }
+                viewModel.onEscalationHandled();
+                activateEmergencyService();
+            }
+        });
+
         viewModel.startFallService.observe(this, start -> {
             if (start) {
                 Intent serviceIntent = new Intent(this, FallDetectionService.class);
@@ -329,37 +328,44 @@ public class V_HomePage extends BaseActivity implements SensorEventListener {
         AlertDialog dialog = builder.create();
         dialog.getWindow().setBackgroundDrawableResource(R.drawable.dialog_fall_detect_bg);
         dialog.show();
-
-        android.os.Handler handler = new android.os.Handler();
-        Runnable autoLaunch = () -> {
-            if (dialog.isShowing()) {
-                dialog.dismiss();
-                activateEmergencyService();
-            }
-        };
-
-        handler.postDelayed(autoLaunch, 10_000);
+        fallDialog = dialog;
+        AlertLatency.onDialogShown(this, getIntent());
+        // Unanswered, FallDetectionService escalates once its countdown runs out
 
         Button cancelBtn = dialogView.findViewById(R.id.fall_detect_cancel_btn);
         Button confirmBtn = dialogView.findViewById(R.id.fall_detect_confirm_btn);
 
         cancelBtn.setOnClickListener(v -> {
             dialog.dismiss();
+            FallDetectionService.cancelEscalation(this);
+            FallDetectionService.recordOutcome(FallEventStore.OUTCOME_DISMISSED);
         });
 
         confirmBtn.setOnClickListener(v -> {
             dialog.dismiss();
+            FallDetectionService.cancelEscalation(this);
+            FallDetectionService.recordOutcome(FallEventStore.OUTCOME_CONFIRMED);
             activateEmergencyService();
         });
+
+        // Back or a tap outside closes the dialog without escalating, which is a dismissal too
+        dialog.setOnCancelListener(d -> {
+            FallDetectionService.cancelEscalation(this);
+            FallDetectionService.recordOutcome(FallEventStore.OUTCOME_DISMISSED);
+        });
     }
 
     private void activateEmergencyService() {
         Intent smsIntent = new Intent(Intent.ACTION_SENDTO);
         smsIntent.setData(Uri.parse("smsto:000"));
+        float temp = temperature.get(0, -1.0f);
+        if(temp > 100 || temp < -100){
+            temp = -1.0f;
+        }
         smsIntent.putExtra("sms_body", String.format(
                 getString(R.string.emergency_sms_body),
-                temperature,
-                lightLevel
+                temp,
+                lightLevel.get(0, -1.0f)
         ));
         startActivity(smsIntent);
     }
@@ -15,6 +15,9 @@ public class VM_HomePage extends AndroidViewModel {
     private final MutableLiveData<Boolean> _showFallDialog = new MutableLiveData<>();
     public LiveData<Boolean> showFallDialog = _showFallDialog;
 
+    private final MutableLiveData<Boolean> _escalate = new MutableLiveData<>();
+    public LiveData<Boolean> escalate = _escalate;
+
     private final MutableLiveData<Boolean> _startFallService = new MutableLiveData<>();
     public LiveData<Boolean> startFallService = _startFallService;
 
@@ -27,9 +30,17 @@ public class VM_HomePage extends AndroidViewModel {
     }
 
     public void handleIntent(Intent intent) {
-        if (intent != null && intent.getBooleanExtra("SHOW_DIALOG", false)) {
-            FallDetectionService.cancelAutoLaunch();
+        if (intent != null && intent.getBooleanExtra("ESCALATE", false)) {
+            intent.removeExtra("ESCALATE");
+            _escalate.setValue(true);
+        } else if (intent != null && intent.getBooleanExtra("SHOW_DIALOG", false)) {
+            // The escalation countdown keeps running in the service while the dialog is up
+            FallDetectionService.onAlertShown();
             _showFallDialog.setValue(true);
         }
     }
+
+    public void onEscalationHandled() {
+        _escalate.setValue(false);
+    }
 }
\ No newline at end of file
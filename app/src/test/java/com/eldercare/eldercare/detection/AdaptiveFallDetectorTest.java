@@ -0,0 +1,132 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveFallDetectorTest {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD_NS = 20_000_000L;
+    // Every fifth sample is sketched, so this is just enough movement to calibrate
+    private static final int CALIBRATION_SAMPLES = (int) AdaptiveFallDetector.MIN_SKETCH_SAMPLES * 5;
+
+    private AdaptiveFallDetector detector;
+    private Random random;
+    private long timestampNs;
+
+    @Before
+    public void setUp() {
+        detector = new AdaptiveFallDetector();
+        random = new Random(1);
+        timestampNs = 0;
+    }
+
+    @Test
+    public void usesTheGlobalThresholdsUntilCalibrated() {
+        move(CALIBRATION_SAMPLES - 5, 1.2f * G, 2f * G, 0.5f, 2.5f);
+        assertEquals(ThresholdFallDetector.IMPACT_THRESHOLD, detector.getImpactThreshold(), 0);
+        assertEquals(ThresholdFallDetector.GYRO_THRESHOLD, detector.getGyroThreshold(), 0);
+    }
+
+    @Test
+    public void followsThe99thPercentileOfMovement() {
+        move(CALIBRATION_SAMPLES, 1.2f * G, 2f * G, 0.5f, 2.5f);
+        assertEquals(AdaptiveFallDetector.IMPACT_MARGIN * 1.992f * G, detector.getImpactThreshold(), 0.05f * G);
+        assertEquals(AdaptiveFallDetector.GYRO_MARGIN * 2.48f, detector.getGyroThreshold(), 0.05f);
+    }
+
+    @Test
+    public void clampsTheThresholds() {
+        move(CALIBRATION_SAMPLES, 2f * G, 4f * G, 4f, 6f);
+        assertEquals(AdaptiveFallDetector.MAX_IMPACT_THRESHOLD, detector.getImpactThreshold(), 0);
+        assertEquals(AdaptiveFallDetector.MAX_GYRO_THRESHOLD, detector.getGyroThreshold(), 0);
+
+        detector.reset();
+        move(CALIBRATION_SAMPLES, 1.1f * G, 1.15f * G, 0.35f, 0.4f);
+        assertEquals(AdaptiveFallDetector.MIN_IMPACT_THRESHOLD, detector.getImpactThreshold(), 0);
+        assertEquals(AdaptiveFallDetector.MIN_GYRO_THRESHOLD, detector.getGyroThreshold(), 0);
+    }
+
+    @Test
+    public void ignoresTimeAtRest() {
+        for (int i = 0; i < CALIBRATION_SAMPLES * 2; i++) sample(0, 0, G, 0.01f);
+        assertEquals(ThresholdFallDetector.IMPACT_THRESHOLD, detector.getImpactThreshold(), 0);
+    }
+
+    @Test
+    public void keepsTheCalibrationAcrossDays() {
+        move(CALIBRATION_SAMPLES, 1.2f * G, 2f * G, 0.5f, 2.5f);
+        float impact = detector.getImpactThreshold();
+        // A quiet next day is too short to count, and the average from the first one stays
+        timestampNs += AdaptiveFallDetector.DAY_NS;
+        move(1000, 1.2f * G, 1.3f * G, 0.5f, 0.6f);
+        assertEquals(impact, detector.getImpactThreshold(), 0);
+    }
+
+    @Test
+    public void restoresTheCalibrationFromItsState() throws IOException {
+        move(CALIBRATION_SAMPLES, 1.2f * G, 2f * G, 0.5f, 2.5f);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        detector.writeState(new DataOutputStream(bytes));
+
+        AdaptiveFallDetector restored = new AdaptiveFallDetector();
+        restored.readState(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(detector.getImpactThreshold(), restored.getImpactThreshold(), 0);
+        assertEquals(detector.getGyroThreshold(), restored.getGyroThreshold(), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAForeignState() throws IOException {
+        detector.readState(new DataInputStream(new ByteArrayInputStream(new byte[300])));
+    }
+
+    @Test
+    public void detectsARotationShortlyAfterAnImpactOnce() {
+        for (int i = 0; i < 50; i++) assertFalse(sample(0, 0, G, 0));
+        assertFalse(sample(0, 0, 3.5f * G, 0));
+        assertFalse(sample(0, 0, G, 1f));
+        assertTrue(sample(0, 0, G, 4f));
+        // Within the cooldown the same pattern does not alert again
+        assertFalse(sample(0, 0, 3.5f * G, 0));
+        assertFalse(sample(0, 0, G, 4f));
+    }
+
+    @Test
+    public void ignoresARotationLongAfterTheImpact() {
+        sample(0, 0, 3.5f * G, 0);
+        for (int i = 0; i < 50; i++) sample(0, 0, G, 0);
+        assertFalse(sample(0, 0, G, 4f));
+    }
+
+    @Test
+    public void detectsFromTheRawPeaksBetweenFusedSamples() {
+        assertFalse(detector.onSample(0, 0, 0, G, 0, 0, 0, 3.5f * G * 3.5f * G, 0));
+        assertTrue(detector.onSample(PERIOD_NS, 0, 0, G, 0, 0, 0, G * G, 16f));
+    }
+
+    /** Movement with |a| and |ω| drawn uniformly from the given ranges, never a fall. */
+    private void move(int samples, float accelFrom, float accelTo, float gyroFrom, float gyroTo) {
+        for (int i = 0; i < samples; i++) {
+            float a = accelFrom + random.nextFloat() * (accelTo - accelFrom);
+            float w = gyroFrom + random.nextFloat() * (gyroTo - gyroFrom);
+            // The sketch reads the fused values; a zero rotation peak keeps the checks quiet
+            detector.onSample(timestampNs, 0, 0, a, w, 0, 0, a * a, 0);
+            timestampNs += PERIOD_NS;
+        }
+    }
+
+    private boolean sample(float ax, float ay, float az, float gx) {
+        boolean fall = detector.onSample(timestampNs, ax, ay, az, gx, 0, 0);
+        timestampNs += PERIOD_NS;
+        return fall;
+    }
+}
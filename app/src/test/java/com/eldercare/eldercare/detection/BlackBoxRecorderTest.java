@@ -0,0 +1,140 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class BlackBoxRecorderTest {
+
+    private static final long PERIOD_NS = 20_000_000L;
+    private static final long SPAN_NS = 1_500_000_000L;
+    private static final long S = 1_000_000_000L;
+
+    private File dir;
+    private File freezeDir;
+    private BlackBoxRecorder recorder;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("blackbox").toFile();
+        freezeDir = new File(dir, "frozen");
+        recorder = open();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        recorder.close();
+        deleteRecursively(dir);
+    }
+
+    @Test
+    public void keepsBothSensorsOfABatchedSpanInTimestampOrder() throws IOException {
+        // One sensor's batch after the other's, 50 samples (1 s) each, as the FIFO delivers them
+        long batchNs = 50 * PERIOD_NS;
+        for (long batch = 0; batch < 8; batch++) {
+            long from = batch * batchNs;
+            for (long t = from; t < from + batchNs; t += PERIOD_NS) {
+                recorder.record(t, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+            }
+            if (batch == 3) recorder.freeze(3 * S + 500_000_000L);
+            for (long t = from; t < from + batchNs; t += PERIOD_NS) {
+                recorder.record(t + 1, TraceFormat.SENSOR_GYROSCOPE, 0.1f, 0, 0);
+            }
+        }
+
+        File[] frozen = frozenFiles();
+        assertEquals(1, frozen.length);
+        int accel = 0;
+        int gyro = 0;
+        long previous = Long.MIN_VALUE;
+        try (TraceReader reader = TraceReader.open(frozen[0])) {
+            while (reader.next()) {
+                assertTrue(reader.getTimestampNs() >= previous);
+                previous = reader.getTimestampNs();
+                if (reader.getSensor() == TraceFormat.SENSOR_ACCELEROMETER) accel++;
+                else gyro++;
+            }
+        }
+        // 2 s to 5 s inclusive for the accelerometer; the gyroscope is 1 ns late, so not at 5 s
+        assertEquals(151, accel);
+        assertEquals(150, gyro);
+        assertEquals(1, recorder.getFrozenCount());
+    }
+
+    @Test
+    public void waitsForEverySensorToPassTheSpan() {
+        for (long t = 0; t <= 2 * S; t += PERIOD_NS) {
+            recorder.record(t, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+            recorder.record(t + 1, TraceFormat.SENSOR_GYROSCOPE, 0, 0, 0);
+        }
+        recorder.freeze(2 * S);
+        for (long t = 2 * S; t <= 4 * S; t += PERIOD_NS) {
+            recorder.record(t, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+        }
+        assertEquals(0, frozenFiles().length);
+        recorder.record(4 * S, TraceFormat.SENSOR_GYROSCOPE, 0, 0, 0);
+        assertEquals(1, frozenFiles().length);
+    }
+
+    @Test
+    public void givesUpOnASensorThatWentQuiet() {
+        for (long t = 0; t <= 2 * S; t += PERIOD_NS) {
+            recorder.record(t, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+            recorder.record(t + 1, TraceFormat.SENSOR_GYROSCOPE, 0, 0, 0);
+        }
+        recorder.freeze(2 * S);
+        // Only the accelerometer goes on; one whole span after the end it is written anyway
+        for (long t = 2 * S; t < 2 * S + 2 * SPAN_NS; t += PERIOD_NS) {
+            recorder.record(t, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+        }
+        assertEquals(0, frozenFiles().length);
+        recorder.record(2 * S + 2 * SPAN_NS, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+        assertEquals(1, frozenFiles().length);
+    }
+
+    @Test
+    public void resumesTheRingAfterAReopen() throws IOException {
+        for (int i = 0; i < 300; i++) {
+            recorder.record(i * PERIOD_NS, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+        }
+        recorder.close();
+        recorder = open();
+        assertEquals(300, recorder.getWritten());
+    }
+
+    @Test
+    public void keepsOnlyTheNewestFrozenFiles() {
+        long t = 0;
+        for (int fall = 0; fall < 5; fall++) {
+            recorder.freeze(t + S);
+            for (long end = t + 3 * S; t <= end; t += PERIOD_NS) {
+                recorder.record(t, TraceFormat.SENSOR_ACCELEROMETER, 0, 0, 9.81f);
+            }
+        }
+        assertEquals(5, recorder.getFrozenCount());
+        assertEquals(3, frozenFiles().length);
+    }
+
+    private BlackBoxRecorder open() throws IOException {
+        return new BlackBoxRecorder(new File(dir, "ring.bin"), 1000, freezeDir, 3, SPAN_NS, SPAN_NS, Runnable::run);
+    }
+
+    private File[] frozenFiles() {
+        File[] files = freezeDir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,108 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class FallClassifierTest {
+
+    // Unit tests run in the module directory
+    private static final String MODEL_SOURCE = "models/fall_classifier.txt";
+    private static final String MODEL_ASSET = "src/main/assets/fall_classifier.ecfm";
+
+    @Test
+    public void bundledModelIsCompiledFromItsSource() throws IOException {
+        FallClassifier model;
+        try (Reader in = new FileReader(MODEL_SOURCE)) {
+            model = FallClassifier.readText(in);
+        }
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        model.write(compiled);
+        assertArrayEquals(Files.readAllBytes(Paths.get(MODEL_ASSET)), compiled.toByteArray());
+    }
+
+    @Test
+    public void bundledModelNeedsAnImpactAndRotationOrAllOtherCues() throws IOException {
+        FallClassifier model;
+        try (InputStream in = new FileInputStream(MODEL_ASSET)) {
+            model = FallClassifier.read(in);
+        }
+        int[] scratch = new int[model.getFeatureCount()];
+        assertTrue(model.isFall(model.score(features(30f, 4f, 0, 0), scratch)));
+        assertTrue(model.isFall(model.score(features(30f, 1f, 200, 3000), scratch)));
+        assertFalse(model.isFall(model.score(features(30f, 1f, 200, 0), scratch)));
+        assertFalse(model.isFall(model.score(features(30f, 1f, 0, 3000), scratch)));
+        assertFalse(model.isFall(model.score(features(15f, 6f, 400, 5000), scratch)));
+    }
+
+    @Test
+    public void textFormRoundTripsForBothModelTypes() throws IOException {
+        float[] scales = {100f, 10f, 100f, 100f, 1f, 100f, 1f, 1f, 1f};
+        FallClassifier logistic = FallClassifier.logistic(scales, -700, new int[]{0, 1, 2, 3, 4, 5, 6, 7, -8}, 100);
+        FallClassifier trees;
+        try (InputStream in = new FileInputStream(MODEL_ASSET)) {
+            trees = FallClassifier.read(in);
+        }
+        for (FallClassifier model : new FallClassifier[]{logistic, trees}) {
+            StringBuilder text = new StringBuilder();
+            model.writeText(text);
+            FallClassifier parsed = FallClassifier.readText(new StringReader(text.toString()));
+            assertArrayEquals(bytes(model), bytes(parsed));
+        }
+    }
+
+    @Test
+    public void logisticScoreIsTheWeightedSum() throws IOException {
+        FallClassifier model = FallClassifier.readText(new StringReader(
+                "type logistic\nthreshold 0\nscale f0 1\nscale f1 2\nbias -256\nweight f0 512\nweight f1 256\n"));
+        // -256 + (512 * 3 + 256 * 4) >> 8
+        assertEquals(-256 + 10, model.score(new float[]{3f, 2f}, new int[2]));
+    }
+
+    @Test
+    public void rejectsMalformedText() {
+        String[] broken = {
+                "type trees\nthreshold 1\nscale mean 1\ntree\nleaf 1 5\n",
+                "type trees\nthreshold 1\nscale mean 1\ntree\nnode 0 no_such_feature 1 1 2\n",
+                "type trees\nscale mean 1\ntree\nleaf 0 5\n",
+                "type trees\nthreshold 1\nscale variance 1\ntree\nleaf 0 5\n",
+                // A child before its parent would loop
+                "type trees\nthreshold 1\nscale mean 1\ntree\nleaf 0 1\nnode 1 mean 5 0 0\n",
+                "type forest\nthreshold 1\nscale mean 1\n",
+        };
+        for (String text : broken) {
+            try {
+                FallClassifier.readText(new StringReader(text));
+                fail("Accepted: " + text);
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    private static float[] features(float peakMagnitude, float peakGyro, float freeFallMs, float stillnessMs) {
+        float[] features = new float[WindowFeatureExtractor.FEATURE_COUNT];
+        features[WindowFeatureExtractor.FEATURE_MEAN] = 9.81f;
+        features[WindowFeatureExtractor.FEATURE_PEAK_MAGNITUDE] = peakMagnitude;
+        features[WindowFeatureExtractor.FEATURE_PEAK_GYRO] = peakGyro;
+        features[WindowFeatureExtractor.FEATURE_FREE_FALL_MS] = freeFallMs;
+        features[WindowFeatureExtractor.FEATURE_STILLNESS_MS] = stillnessMs;
+        return features;
+    }
+
+    private static byte[] bytes(FallClassifier model) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        model.write(out);
+        return out.toByteArray();
+    }
+}
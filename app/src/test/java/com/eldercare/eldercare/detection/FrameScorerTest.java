@@ -0,0 +1,129 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FrameScorerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // Padded like most camera buffers
+    private static final int ROW_STRIDE = 704;
+    // The face as it lies in the plane
+    private static final int LEFT = 100;
+    private static final int TOP = 80;
+    private static final int RIGHT = 300;
+    private static final int BOTTOM = 330;
+
+    private final FrameScorer scorer = new FrameScorer();
+    private ByteBuffer plane;
+
+    @Before
+    public void setUp() {
+        plane = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+    }
+
+    @Test
+    public void findsTheFaceInTheFrameForEveryRotation() {
+        // Detail only on the face, so a face box in the wrong place scores as blurred
+        fill(128);
+        texture(LEFT, TOP, RIGHT, BOTTOM, 128, 60, 0);
+        float upright = scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, 0, LEFT, TOP, RIGHT, BOTTOM);
+        assertTrue(scorer.getSharpness() > 1000);
+
+        int[][] faces = {
+                {HEIGHT - BOTTOM, LEFT, HEIGHT - TOP, RIGHT},
+                {WIDTH - RIGHT, HEIGHT - BOTTOM, WIDTH - LEFT, HEIGHT - TOP},
+                {TOP, WIDTH - RIGHT, BOTTOM, WIDTH - LEFT},
+        };
+        for (int i = 0; i < faces.length; i++) {
+            int rotation = 90 * (i + 1);
+            int[] f = faces[i];
+            assertEquals("rotation " + rotation, upright,
+                    scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, rotation, f[0], f[1], f[2], f[3]), 0);
+        }
+        assertEquals((float) (RIGHT - LEFT) * (BOTTOM - TOP) / (WIDTH * HEIGHT), scorer.getFaceFraction(), 1e-6f);
+    }
+
+    @Test
+    public void ranksFlawedFramesBelowAGoodOne() {
+        fill(128);
+        texture(LEFT, TOP, RIGHT, BOTTOM, 128, 60, 0);
+        float good = faceScore();
+
+        texture(LEFT, TOP, RIGHT, BOTTOM, 128, 60, 4);
+        assertTrue("blurred", faceScore() < good);
+
+        texture(LEFT, TOP, RIGHT, BOTTOM, 30, 12, 0);
+        assertTrue("dark", faceScore() < good);
+
+        texture(LEFT, TOP, RIGHT, BOTTOM, 235, 30, 0);
+        assertTrue("clipped", faceScore() < good);
+        assertTrue(scorer.getClippedFraction() > 0.3f);
+
+        texture(LEFT, TOP, RIGHT, BOTTOM, 128, 60, 0);
+        assertTrue("small face", scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, 0, LEFT, TOP, LEFT + 60, TOP + 60) < good);
+
+        texture(0, 0, WIDTH, HEIGHT, 128, 60, 0);
+        assertTrue("no face", scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, 0, 0, 0, 0, 0) < good);
+        assertEquals(0, scorer.getFaceFraction(), 0);
+    }
+
+    @Test
+    public void measuresTheMedianBrightness() {
+        fill(90);
+        scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, 0, LEFT, TOP, RIGHT, BOTTOM);
+        assertEquals(90, scorer.getMedianLuma());
+        assertEquals(0, scorer.getSharpness(), 0);
+        assertEquals(0, scorer.getClippedFraction(), 0);
+    }
+
+    @Test
+    public void clipsAFaceReachingPastTheFrame() {
+        fill(128);
+        texture(0, 0, WIDTH, HEIGHT, 128, 60, 0);
+        float score = scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, 90, -50, -50, HEIGHT + 50, WIDTH + 50);
+        assertTrue(score > 0);
+        assertTrue(scorer.getFaceFraction() <= 1f);
+        assertEquals(0, plane.position());
+    }
+
+    private float faceScore() {
+        return scorer.score(plane, ROW_STRIDE, WIDTH, HEIGHT, 0, LEFT, TOP, RIGHT, BOTTOM);
+    }
+
+    private void fill(int luma) {
+        for (int i = 0; i < plane.capacity(); i++) plane.put(i, (byte) luma);
+    }
+
+    /** Random detail around a mean, box-blurred over the given radius. */
+    private void texture(int left, int top, int right, int bottom, int mean, int spread, int blur) {
+        Random random = new Random(1);
+        int w = right - left;
+        int h = bottom - top;
+        int[] noise = new int[w * h];
+        for (int i = 0; i < noise.length; i++) noise[i] = (int) (random.nextGaussian() * spread);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int sum = 0;
+                int n = 0;
+                for (int dy = -blur; dy <= blur; dy++) {
+                    for (int dx = -blur; dx <= blur; dx++) {
+                        int sx = x + dx;
+                        int sy = y + dy;
+                        if (sx < 0 || sy < 0 || sx >= w || sy >= h) continue;
+                        sum += noise[sy * w + sx];
+                        n++;
+                    }
+                }
+                int luma = Math.max(0, Math.min(255, mean + sum / n));
+                plane.put((top + y) * ROW_STRIDE + left + x, (byte) luma);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FusedSampleHistoryTest {
+
+    private static final long PERIOD_NS = 20_000_000L;
+
+    @Test
+    public void replayGivesTheStreamedFeatures() {
+        WindowFeatureExtractor streamed = new WindowFeatureExtractor(100);
+        WindowFeatureExtractor replayed = new WindowFeatureExtractor(100);
+        FusedSampleHistory history = new FusedSampleHistory(500);
+        float[] expected = new float[WindowFeatureExtractor.FEATURE_COUNT];
+        float[] actual = new float[WindowFeatureExtractor.FEATURE_COUNT];
+        Random random = new Random(7);
+
+        long timestampNs = 0;
+        for (int i = 0; i < 2000; i++) {
+            timestampNs += PERIOD_NS;
+            // A drop and an impact now and then among ordinary movement
+            float scale = i % 400 < 15 ? 0.05f : i % 400 == 15 ? 3.5f : 1f;
+            float ax = (float) random.nextGaussian() * scale;
+            float ay = (float) random.nextGaussian() * scale;
+            float az = 9.81f * scale + (float) random.nextGaussian();
+            float gx = (float) random.nextGaussian();
+            streamed.update(timestampNs, ax, ay, az, gx, 0f, 0f);
+            history.add(timestampNs, ax, ay, az, gx, 0f, 0f);
+
+            if (i % 97 == 0) {
+                streamed.copyFeatures(expected);
+                history.replay(replayed);
+                replayed.copyFeatures(actual);
+                for (int f = 0; f < expected.length; f++) {
+                    assertEquals("feature " + f + " at " + i, expected[f], actual[f], 1e-3f * Math.max(1f, Math.abs(expected[f])));
+                }
+            }
+        }
+        assertEquals(500, history.size());
+    }
+
+    @Test
+    public void clearEmptiesTheHistory() {
+        FusedSampleHistory history = new FusedSampleHistory(4);
+        history.add(1, 0f, 0f, 9.81f, 0f, 0f, 0f);
+        history.clear();
+        assertEquals(0, history.size());
+        WindowFeatureExtractor features = new WindowFeatureExtractor(4);
+        history.replay(features);
+        assertEquals(0, features.size());
+    }
+}
@@ -0,0 +1,101 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GaitAnalyzerTest {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD_NS = 20_000_000L;
+
+    private GaitAnalyzer analyzer;
+    private long timestampNs;
+
+    @Before
+    public void setUp() {
+        analyzer = new GaitAnalyzer(PERIOD_NS);
+        timestampNs = 0;
+    }
+
+    @Test
+    public void measuresTheCadenceOfWalksFrom70To180StepsPerMinute() {
+        for (int spm = 70; spm <= 180; spm += 10) {
+            analyzer.reset();
+            walk(20f, spm, 0f, new Random(spm));
+            assertTrue("walking at " + spm, analyzer.isWalking());
+            assertEquals("cadence at " + spm, spm, analyzer.getCadence(), spm * 0.05f);
+        }
+    }
+
+    @Test
+    public void countsABoutOfLongEnoughWalking() {
+        walk(20f, 110, 0.1f, new Random(1));
+        GaitAnalyzer.DaySummary day = analyzer.takeDay(1);
+        assertEquals(1, day.bouts);
+        assertEquals(110, day.getCadenceMean(), 5.5f);
+        assertTrue(day.getStrideRegularity() >= GaitAnalyzer.MIN_STRIDE_REGULARITY);
+    }
+
+    @Test
+    public void survivesRandomSignalsWithoutWalking() {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 50; trial++) {
+            analyzer.reset();
+            // Noise of every strength, white and smoothed, so the autocorrelation peaks can all
+            // be negative
+            float sd = 0.5f + random.nextFloat() * 6f;
+            float smoothing = random.nextFloat() * 0.9f;
+            float previous = 0;
+            for (int i = 0; i < 30 * 50; i++) {
+                previous = smoothing * previous + (1 - smoothing) * (float) random.nextGaussian() * sd;
+                sample(0, 0, G + previous);
+            }
+        }
+        for (int trial = 0; trial < 50; trial++) {
+            analyzer.reset();
+            // Square waves and single spikes
+            int period = 2 + random.nextInt(120);
+            for (int i = 0; i < 30 * 50; i++) {
+                float a = random.nextInt(200) == 0 ? 5 * G : ((i / period) % 2 == 0 ? G + 3 : G - 3);
+                sample(0, 0, a);
+            }
+        }
+    }
+
+    @Test
+    public void standingStillIsNotWalking() {
+        walk(10f, 100, 0f, new Random(3));
+        for (int i = 0; i < 10 * 50; i++) sample(0, 0, G);
+        assertFalse(analyzer.isWalking());
+    }
+
+    @Test
+    public void aGapInTheSamplesEndsTheBout() {
+        walk(10f, 100, 0f, new Random(4));
+        assertTrue(analyzer.isWalking());
+        timestampNs += 60_000_000_000L;
+        sample(0, 0, G);
+        assertFalse(analyzer.isWalking());
+    }
+
+    /** Vertical bounce once per step, slightly stronger on one foot, plus noise. */
+    private void walk(float seconds, int stepsPerMinute, float noise, Random random) {
+        double stepHz = stepsPerMinute / 60.0;
+        for (int i = 0; i < seconds * 50; i++) {
+            double t = i * PERIOD_NS / 1e9;
+            double bounce = 2.5 * Math.sin(2 * Math.PI * stepHz * t)
+                    + 0.4 * Math.sin(Math.PI * stepHz * t);
+            sample(0.5f * (float) Math.cos(Math.PI * stepHz * t), 0,
+                    G + (float) bounce + noise * (float) random.nextGaussian());
+        }
+    }
+
+    private void sample(float x, float y, float z) {
+        analyzer.onSample(timestampNs, x, y, z);
+        timestampNs += PERIOD_NS;
+    }
+}
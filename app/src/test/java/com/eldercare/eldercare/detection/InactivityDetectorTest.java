@@ -0,0 +1,91 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.Assert.*;
+
+public class InactivityDetectorTest {
+
+    private static final ZoneId UTC = ZoneOffset.UTC;
+
+    @Test
+    public void daytimeStretchAlertsAfterTheThreshold() {
+        InactivityDetector detector = new InactivityDetector(InactivityDetector.DEFAULT_THRESHOLDS_MIN, UTC);
+        detector.onActivity(at(1, 10, 0));
+        assertEquals(at(1, 13, 0), detector.getDeadlineMs());
+    }
+
+    @Test
+    public void nightDoesNotCountTowardsTheMorning() {
+        InactivityDetector detector = new InactivityDetector(InactivityDetector.DEFAULT_THRESHOLDS_MIN, UTC);
+        // Last movement before getting up: the count starts at 09:00, when alerts are on again
+        detector.onActivity(at(1, 5, 30));
+        assertEquals(at(1, 12, 0), detector.getDeadlineMs());
+        assertFalse(detector.check(at(1, 9, 0)));
+    }
+
+    @Test
+    public void eveningStretchRestartsAfterTheNight() {
+        InactivityDetector detector = new InactivityDetector(InactivityDetector.DEFAULT_THRESHOLDS_MIN, UTC);
+        detector.onActivity(at(1, 21, 30));
+        assertEquals(at(2, 12, 0), detector.getDeadlineMs());
+    }
+
+    @Test
+    public void higherThresholdLaterInTheDayMovesTheDeadline() {
+        InactivityDetector detector = new InactivityDetector(InactivityDetector.DEFAULT_THRESHOLDS_MIN, UTC);
+        // 180 min would be 20:30, but from 20:00 the threshold is 240 min
+        detector.onActivity(at(1, 17, 30));
+        assertEquals(at(1, 21, 30), detector.getDeadlineMs());
+    }
+
+    @Test
+    public void alertsOncePerStretch() {
+        InactivityDetector detector = new InactivityDetector(InactivityDetector.DEFAULT_THRESHOLDS_MIN, UTC);
+        detector.onActivity(at(1, 10, 0));
+        assertFalse(detector.check(at(1, 12, 59)));
+        assertTrue(detector.check(at(1, 13, 0)));
+        assertFalse(detector.check(at(1, 14, 0)));
+        assertEquals(Long.MAX_VALUE, detector.getDeadlineMs());
+
+        detector.onActivity(at(1, 14, 0));
+        assertEquals(at(1, 17, 0), detector.getDeadlineMs());
+        detector.markReported();
+        assertFalse(detector.check(at(1, 18, 0)));
+    }
+
+    @Test
+    public void olderActivityIsIgnored() {
+        InactivityDetector detector = new InactivityDetector(InactivityDetector.DEFAULT_THRESHOLDS_MIN, UTC);
+        detector.onActivity(at(1, 11, 0));
+        detector.onActivity(at(1, 10, 0));
+        assertEquals(at(1, 11, 0), detector.getLastActivityMs());
+    }
+
+    @Test
+    public void allHoursOffNeverAlerts() {
+        InactivityDetector detector = new InactivityDetector(new int[InactivityDetector.HOURS], UTC);
+        detector.onActivity(at(1, 10, 0));
+        assertEquals(Long.MAX_VALUE, detector.getDeadlineMs());
+        assertFalse(detector.check(at(5, 10, 0)));
+    }
+
+    @Test
+    public void thresholdsRoundTripThroughText() {
+        String text = InactivityDetector.formatThresholds(InactivityDetector.DEFAULT_THRESHOLDS_MIN);
+        assertArrayEquals(InactivityDetector.DEFAULT_THRESHOLDS_MIN, InactivityDetector.parseThresholds(text));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheWrongNumberOfThresholds() {
+        InactivityDetector.parseThresholds("0,0,0");
+    }
+
+    private static long at(int day, int hour, int minute) {
+        return LocalDateTime.of(2024, 3, day, hour, minute).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
@@ -0,0 +1,134 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void recordsZeroOneAndEveryPowerOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(0);
+        histogram.record(1);
+        for (int bit = 0; bit < 63; bit++) {
+            histogram.record(1L << bit);
+        }
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2 + 63 + 1, histogram.getCount());
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void bucketHoldsItsValue() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(1, LatencyHistogram.bucketOf(1));
+        for (int bit = 0; bit < 63; bit++) {
+            long value = 1L << bit;
+            assertBucketHolds(value);
+            assertBucketHolds(value - 1);
+            if (bit > 0) assertBucketHolds(value + 1);
+        }
+        assertBucketHolds(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void bucketsGrowWithTheValue() {
+        int previous = -1;
+        for (int bit = 0; bit < 63; bit++) {
+            int bucket = LatencyHistogram.bucketOf(1L << bit);
+            assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+        assertTrue(LatencyHistogram.bucketOf(Long.MAX_VALUE) > previous);
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void percentileIsWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            histogram.record(nanos * 1_000_000L);
+        }
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500_000_000L);
+        assertTrue(p50 <= 500_000_000L * 107 / 100);
+        assertEquals(1_000_000_000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void mergesASavedHistogramIntoANewOne() throws IOException {
+        LatencyHistogram earlier = new LatencyHistogram("test");
+        for (long nanos = 1; nanos <= 500; nanos++) {
+            earlier.record(nanos * 1_000_000L);
+        }
+        earlier.record(5_000_000_000L);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        earlier.write(new DataOutputStream(bytes));
+
+        LatencyHistogram later = new LatencyHistogram("test");
+        for (long nanos = 501; nanos <= 1000; nanos++) {
+            later.record(nanos * 1_000_000L);
+        }
+        later.merge(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        LatencyHistogram all = new LatencyHistogram("test");
+        for (long nanos = 1; nanos <= 1000; nanos++) {
+            all.record(nanos * 1_000_000L);
+        }
+        all.record(5_000_000_000L);
+        assertEquals(all.getCount(), later.getCount());
+        assertEquals(5_000_000_000L, later.getMax());
+        for (double p : new double[]{50, 90, 99, 100}) {
+            assertEquals(all.getPercentile(p), later.getPercentile(p));
+        }
+        StringBuilder expected = new StringBuilder();
+        all.dump(expected);
+        StringBuilder merged = new StringBuilder();
+        later.dump(merged);
+        assertEquals(expected.toString(), merged.toString());
+    }
+
+    @Test
+    public void ignoresACorruptRecord() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(1_000_000L);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(2);
+            out.writeShort(100);
+            out.writeLong(3);
+            out.writeShort(60_000);
+            out.writeLong(1);
+            histogram.merge(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, histogram.getCount());
+    }
+
+    private static void assertBucketHolds(long value) {
+        int bucket = LatencyHistogram.bucketOf(value);
+        assertTrue(LatencyHistogram.upperBoundOf(bucket) >= value);
+        if (bucket > 0) {
+            assertTrue(LatencyHistogram.upperBoundOf(bucket - 1) < value);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrientationEstimatorTest {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD_NS = 20_000_000L;
+
+    private OrientationEstimator estimator;
+    private long timestampNs;
+
+    @Before
+    public void setUp() {
+        estimator = new OrientationEstimator();
+        timestampNs = 0;
+    }
+
+    @Test
+    public void startsFromTheAccelerometer() {
+        float[][] directions = {{0, 0, 1}, {0, 1, 0}, {1, 0, 0}, {-0.6f, 0.48f, 0.64f}, {0.3f, -0.4f, -0.866f}};
+        for (float[] d : directions) {
+            estimator.reset();
+            assertFalse(estimator.isInitialised());
+            sample(G * d[0], G * d[1], G * d[2], 0, 0, 0);
+            assertTrue(estimator.isInitialised());
+            assertGravity(d[0], d[1], d[2], 1e-3f);
+        }
+    }
+
+    @Test
+    public void doesNotStartDuringFreeFallOrImpact() {
+        sample(0, 0, 0.5f, 0, 0, 0);
+        sample(0, 0, 3 * G, 0, 0, 0);
+        assertFalse(estimator.isInitialised());
+    }
+
+    @Test
+    public void integratesTheGyroscopeWithoutAGravityReference() {
+        sample(0, 0, G, 0, 0, 0);
+        // A quarter turn about x over one second, in free-fall so only the gyroscope counts
+        for (int i = 0; i < 50; i++) sample(0, 0, 0, (float) (Math.PI / 2), 0, 0);
+        assertGravity(0, 1, 0, 0.01f);
+    }
+
+    @Test
+    public void followsATurnThatBothSensorsAgreeOn() {
+        float rate = 1.5f;
+        sample(0, 0, G, 0, 0, 0);
+        for (int i = 1; i <= 50; i++) {
+            double angle = rate * i * PERIOD_NS / 1e9;
+            sample(0, G * (float) Math.sin(angle), G * (float) Math.cos(angle), rate, 0, 0);
+            // Within about a degree; Euler integration lags a little
+            assertTrue(estimator.cosineTo(0, (float) Math.sin(angle), (float) Math.cos(angle)) > Math.cos(0.02));
+        }
+    }
+
+    @Test
+    public void freeFallAndImpactDoNotTiltTheEstimate() {
+        for (int i = 0; i < 50; i++) sample(0, G * 0.6f, G * 0.8f, 0, 0, 0);
+        // Half a second of free-fall, then a 5 g impact from the side
+        for (int i = 0; i < 25; i++) sample(0.2f, 0.3f, 0.1f, 0, 0, 0);
+        for (int i = 0; i < 3; i++) sample(5 * G, 0, 0, 0, 0, 0);
+        assertGravity(0, 0.6f, 0.8f, 1e-3f);
+    }
+
+    @Test
+    public void convergesOnGravityDespiteAGyroscopeBias() {
+        sample(0, 0, G, 0, 0, 0);
+        for (int i = 0; i < 50 * 20; i++) sample(0, 0, G, 0.02f, -0.01f, 0.03f);
+        // The proportional gain leaves a small steady error of about bias / kp
+        assertTrue(estimator.cosineTo(0, 0, 1) > Math.cos(0.05));
+    }
+
+    @Test
+    public void restartsFromTheAccelerometerAfterAGap() {
+        sample(0, 0, G, 0, 0, 0);
+        timestampNs += 2_000_000_000L;
+        sample(G, 0, 0, 0, 0, 0);
+        assertGravity(1, 0, 0, 1e-3f);
+    }
+
+    private void assertGravity(float x, float y, float z, float delta) {
+        assertEquals(x, estimator.getGravityX(), delta);
+        assertEquals(y, estimator.getGravityY(), delta);
+        assertEquals(z, estimator.getGravityZ(), delta);
+    }
+
+    private void sample(float ax, float ay, float az, float gx, float gy, float gz) {
+        estimator.update(timestampNs, ax, ay, az, gx, gy, gz);
+        timestampNs += PERIOD_NS;
+    }
+}
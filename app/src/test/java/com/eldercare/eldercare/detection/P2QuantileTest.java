@@ -0,0 +1,88 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class P2QuantileTest {
+
+    @Test
+    public void isExactForTheFirstFewValues() {
+        P2Quantile median = new P2Quantile(0.5);
+        assertTrue(Double.isNaN(median.getQuantile()));
+        median.add(3);
+        assertEquals(3, median.getQuantile(), 0);
+        median.add(1);
+        median.add(2);
+        assertEquals(2, median.getQuantile(), 0);
+        assertEquals(3, median.getCount());
+    }
+
+    @Test
+    public void tracksQuantilesOfCommonDistributions() {
+        double[] quantiles = {0.5, 0.9, 0.99};
+        for (double p : quantiles) {
+            for (int distribution = 0; distribution < 3; distribution++) {
+                Random random = new Random(distribution);
+                P2Quantile sketch = new P2Quantile(p);
+                double[] values = new double[100_000];
+                for (int i = 0; i < values.length; i++) {
+                    double u = random.nextDouble();
+                    values[i] = distribution == 0 ? u
+                            : distribution == 1 ? random.nextGaussian()
+                            : -Math.log(1 - u);
+                    sketch.add(values[i]);
+                }
+                Arrays.sort(values);
+                double exact = values[(int) (p * (values.length - 1))];
+                double spread = values[values.length - 1] - values[0];
+                assertEquals("p=" + p + " distribution " + distribution, exact, sketch.getQuantile(), 0.01 * spread);
+            }
+        }
+    }
+
+    @Test
+    public void continuesIdenticallyAfterARoundTrip() throws IOException {
+        Random random = new Random(5);
+        P2Quantile original = new P2Quantile(0.99);
+        for (int i = 0; i < 1000; i++) original.add(random.nextGaussian());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        original.write(new DataOutputStream(bytes));
+        assertEquals(128, bytes.size());
+        P2Quantile restored = new P2Quantile(0.99);
+        restored.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        for (int i = 0; i < 1000; i++) {
+            double x = random.nextGaussian();
+            original.add(x);
+            restored.add(x);
+        }
+        assertEquals(original.getCount(), restored.getCount());
+        assertEquals(original.getQuantile(), restored.getQuantile(), 0);
+    }
+
+    @Test
+    public void startsOverAfterReset() {
+        P2Quantile sketch = new P2Quantile(0.9);
+        for (int i = 0; i < 100; i++) sketch.add(i);
+        sketch.reset();
+        assertEquals(0, sketch.getCount());
+        assertTrue(Double.isNaN(sketch.getQuantile()));
+        for (int i = 0; i < 1000; i++) sketch.add(-i);
+        assertEquals(-100, sketch.getQuantile(), 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsQuantilesOutsideTheOpenInterval() {
+        new P2Quantile(1.0);
+    }
+}
@@ -0,0 +1,136 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PulseEstimatorTest {
+
+    private static final float FPS = 30f;
+    private static final float SECONDS = 15f;
+
+    @Test
+    public void findsThePulseInTheSkinColour() {
+        for (float bpm = 50f; bpm <= 180f; bpm += 10f) {
+            PulseEstimator estimator = new PulseEstimator(SECONDS, FPS);
+            Random random = new Random((long) bpm);
+            long timeNs = 0;
+            while (!estimator.isFull()) {
+                // Frame times jitter by a few milliseconds, as they do from a camera
+                timeNs += (long) (1e9 / FPS) + random.nextInt(4_000_000) - 2_000_000;
+                double beat = Math.sin(2 * Math.PI * bpm / 60.0 * timeNs / 1e9);
+                // The blood volume pulse shows most in green; noise of the same size as the pulse
+                float r = (float) (180 + 0.3 * beat + random.nextGaussian() * 0.3);
+                float g = (float) (120 + 0.6 * beat + random.nextGaussian() * 0.3);
+                float b = (float) (100 + 0.2 * beat + random.nextGaussian() * 0.3);
+                assertTrue(estimator.addSample(timeNs, r, g, b));
+            }
+            assertEquals("at " + bpm + " bpm", bpm, estimator.estimate(), 2f);
+            assertTrue(estimator.isReliable());
+        }
+    }
+
+    @Test
+    public void readsTheMeanColourOfTheRegion() {
+        int width = 64;
+        int height = 48;
+        int uvWidth = width / 2;
+        int uvHeight = height / 2;
+        ByteBuffer y = ByteBuffer.allocate(width * height);
+        ByteBuffer u = ByteBuffer.allocate(uvWidth * uvHeight * 2);
+        ByteBuffer v = ByteBuffer.allocate(uvWidth * uvHeight * 2);
+        PulseEstimator estimator = new PulseEstimator(SECONDS, FPS);
+        float bpm = 75f;
+        long timeNs = 0;
+        while (!estimator.isFull()) {
+            timeNs += (long) (1e9 / FPS);
+            double beat = Math.sin(2 * Math.PI * bpm / 60.0 * timeNs / 1e9);
+            // Outside the region the frame flickers at another rate, which must not leak in
+            double flicker = Math.sin(2 * Math.PI * 2.5 * timeNs / 1e9);
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    boolean inside = col >= 16 && col < 48 && row >= 8 && row < 40;
+                    y.put(row * width + col, (byte) (inside ? 140 + Math.round(2 * beat) : 90 + Math.round(20 * flicker)));
+                }
+            }
+            for (int row = 0; row < uvHeight; row++) {
+                for (int col = 0; col < uvWidth; col++) {
+                    boolean inside = col >= 8 && col < 24 && row >= 4 && row < 20;
+                    int index = row * uvWidth * 2 + col * 2;
+                    u.put(index, (byte) (inside ? 110 - Math.round(2 * beat) : 128));
+                    v.put(index, (byte) (inside ? 150 : 128 + Math.round(20 * flicker)));
+                }
+            }
+            assertTrue(estimator.addFrame(timeNs, y, width, u, v, uvWidth * 2, 2, 16, 8, 48, 40));
+        }
+        assertEquals(bpm, estimator.estimate(), 2f);
+        assertEquals(0, y.position());
+    }
+
+    @Test
+    public void needsEnoughSecondsForAnEstimate() {
+        PulseEstimator estimator = new PulseEstimator(SECONDS, FPS);
+        long timeNs = 0;
+        for (int i = 0; i < (PulseEstimator.MIN_SECONDS - 1) * FPS; i++) {
+            timeNs += (long) (1e9 / FPS);
+            estimator.addSample(timeNs, 180, (float) (120 + Math.sin(i * 0.25)), 100);
+        }
+        assertTrue(Float.isNaN(estimator.estimate()));
+        assertFalse(estimator.isReliable());
+    }
+
+    @Test
+    public void flatColourHasNoPulse() {
+        PulseEstimator estimator = new PulseEstimator(SECONDS, FPS);
+        long timeNs = 0;
+        while (!estimator.isFull()) {
+            timeNs += (long) (1e9 / FPS);
+            estimator.addSample(timeNs, 180, 120, 100);
+        }
+        assertTrue(Float.isNaN(estimator.estimate()));
+        assertFalse(estimator.isReliable());
+    }
+
+    @Test
+    public void rejectsFramesOutOfOrderAndOverCapacity() {
+        PulseEstimator estimator = new PulseEstimator(1f, 10f);
+        assertTrue(estimator.addSample(100, 1, 1, 1));
+        assertFalse(estimator.addSample(100, 1, 1, 1));
+        assertFalse(estimator.addSample(50, 1, 1, 1));
+        long timeNs = 100;
+        while (!estimator.isFull()) {
+            timeNs += 100_000_000L;
+            assertTrue(estimator.addSample(timeNs, 1, 1, 1));
+        }
+        assertFalse(estimator.addSample(timeNs + 100_000_000L, 1, 1, 1));
+        estimator.reset();
+        assertEquals(0, estimator.getFrameCount());
+        assertTrue(estimator.addSample(1, 1, 1, 1));
+    }
+
+    @Test
+    public void skinRegionIsTheCheeksOfTheFaceInThePlaneAsItLies() {
+        int[] region = new int[4];
+        // Upright face (100, 200)-(300, 400); its cheeks are (140, 290)-(260, 340)
+        assertTrue(PulseEstimator.skinRegion(640, 480, 0, 100, 200, 300, 400, region));
+        assertArrayEquals(new int[] {140, 290, 260, 340}, region);
+        assertTrue(PulseEstimator.skinRegion(640, 480, 90, 100, 200, 300, 400, region));
+        assertArrayEquals(new int[] {290, 220, 340, 340}, region);
+        assertTrue(PulseEstimator.skinRegion(640, 480, 180, 100, 200, 300, 400, region));
+        assertArrayEquals(new int[] {380, 140, 500, 190}, region);
+        assertTrue(PulseEstimator.skinRegion(640, 480, 270, 100, 200, 300, 400, region));
+        assertArrayEquals(new int[] {300, 140, 350, 260}, region);
+    }
+
+    @Test
+    public void skinRegionIsClippedToThePlane() {
+        int[] region = new int[4];
+        assertTrue(PulseEstimator.skinRegion(640, 480, 0, -100, 200, 200, 500, region));
+        assertArrayEquals(new int[] {0, 335, 140, 410}, region);
+        assertFalse(PulseEstimator.skinRegion(640, 480, 0, 0, 0, 0, 0, region));
+        assertFalse(PulseEstimator.skinRegion(640, 480, 0, 700, 100, 900, 300, region));
+    }
+}
@@ -0,0 +1,119 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SensorFusionTest {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD_NS = 20_000_000L;
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void interpolatesBothStreamsOntoTheTicks() {
+        List<float[]> fused = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        SensorFusion fusion = new SensorFusion(PERIOD_NS, 64,
+                (t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq) -> {
+                    times.add(t);
+                    fused.add(new float[] {ax, gx});
+                });
+        // Accelerometer every 10 ms from 3 ms, gyroscope every 15 ms from 0, both ramps in ms
+        for (long t = 3; t <= 103; t += 10) fusion.addAccelerometer(t * MS, t, 0, 0);
+        for (long t = 0; t <= 105; t += 15) fusion.addGyroscope(t * MS, t, 0, 0);
+        fusion.drain();
+
+        // Both cover 3..103 ms, so the ticks are 20, 40, 60, 80 and 100 ms
+        assertEquals(5, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            long tick = (i + 1) * 20;
+            assertEquals(tick * MS, (long) times.get(i));
+            assertEquals(tick, fused.get(i)[0], 1e-3f);
+            assertEquals(tick, fused.get(i)[1], 1e-3f);
+        }
+        // Nothing is emitted twice
+        assertEquals(0, fusion.drain());
+    }
+
+    @Test
+    public void aSpikeBetweenTwoTicksSurvivesAsThePeak() {
+        // A one-sample impact on a 200 Hz accelerometer, at every phase against the 20 ms ticks
+        for (long phaseMs = 0; phaseMs < 20; phaseMs += 5) {
+            float[] peak = {0};
+            float[] fusedMax = {0};
+            SensorFusion fusion = new SensorFusion(PERIOD_NS, 256,
+                    (t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq) -> {
+                        peak[0] = Math.max(peak[0], accelPeakSq);
+                        fusedMax[0] = Math.max(fusedMax[0], ax * ax + ay * ay + az * az);
+                        assertTrue(accelPeakSq >= ax * ax + ay * ay + az * az);
+                    });
+            long spikeNs = 200 * MS + phaseMs * MS;
+            for (long t = 0; t <= 400 * MS; t += 5 * MS) {
+                fusion.addAccelerometer(t, 0, 0, t == spikeNs ? 40f : G);
+                fusion.addGyroscope(t, 0, 0, 0);
+                fusion.drain();
+            }
+            assertEquals("phase " + phaseMs, 40f * 40f, peak[0], 1e-2f);
+            if (phaseMs == 10) assertTrue(fusedMax[0] < 30f * 30f);
+        }
+    }
+
+    @Test
+    public void thresholdDetectorSeesAnImpactAtAnyPhase() {
+        for (long phaseMs = 0; phaseMs < 20; phaseMs += 5) {
+            FallDetector detector = new ThresholdFallDetector();
+            int[] detections = {0};
+            SensorFusion fusion = new SensorFusion(PERIOD_NS, 256,
+                    (t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq) -> {
+                        if (detector.onSample(t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq)) {
+                            detections[0]++;
+                        }
+                    });
+            long spikeNs = 1_000 * MS + phaseMs * MS;
+            for (long t = 0; t <= 3_000 * MS; t += 5 * MS) {
+                fusion.addAccelerometer(t, 0, 0, t == spikeNs ? 40f : G);
+                // Tumbling for a while after the impact
+                boolean turning = t > spikeNs && t < spikeNs + 300 * MS;
+                fusion.addGyroscope(t, turning ? 4f : 0f, 0, 0);
+                fusion.drain();
+            }
+            assertEquals("phase " + phaseMs, 1, detections[0]);
+        }
+    }
+
+    @Test
+    public void startsOverWhenAStreamWasOverwritten() {
+        List<Long> times = new ArrayList<>();
+        SensorFusion fusion = new SensorFusion(PERIOD_NS, 8,
+                (t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq) -> times.add(t));
+        for (long t = 0; t <= 40 * MS; t += 10 * MS) {
+            fusion.addAccelerometer(t, 0, 0, G);
+            fusion.addGyroscope(t, 0, 0, 0);
+        }
+        fusion.drain();
+        // The gyroscope stalls while the accelerometer runs on and wraps its buffer
+        for (long t = 50 * MS; t <= 500 * MS; t += 10 * MS) fusion.addAccelerometer(t, 0, 0, G);
+        for (long t = 50 * MS; t <= 500 * MS; t += 10 * MS) fusion.addGyroscope(t, 0, 0, 0);
+        fusion.drain();
+        for (int i = 1; i < times.size(); i++) {
+            assertTrue(times.get(i) > times.get(i - 1));
+            assertEquals(0, times.get(i) % PERIOD_NS);
+        }
+        assertEquals(500 * MS, (long) times.get(times.size() - 1));
+    }
+
+    @Test
+    public void countsSamplesOutOfOrder() {
+        SensorFusion fusion = new SensorFusion(PERIOD_NS, 8,
+                (t, ax, ay, az, gx, gy, gz, accelPeakSq, gyroPeakSq) -> { });
+        fusion.addAccelerometer(10, 0, 0, G);
+        fusion.addAccelerometer(10, 0, 0, G);
+        fusion.addGyroscope(10, 0, 0, 0);
+        fusion.addGyroscope(5, 0, 0, 0);
+        assertEquals(2, fusion.getDroppedSamples());
+    }
+}
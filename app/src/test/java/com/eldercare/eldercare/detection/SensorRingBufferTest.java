@@ -0,0 +1,71 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SensorRingBufferTest {
+
+    @Test
+    public void roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(8, new SensorRingBuffer(5).capacity());
+        assertEquals(8, new SensorRingBuffer(8).capacity());
+        assertEquals(2, new SensorRingBuffer(1).capacity());
+    }
+
+    @Test
+    public void interpolatesBetweenSamplesAndNotOutsideThem() {
+        SensorRingBuffer buffer = new SensorRingBuffer(8);
+        float[] out = new float[3];
+        assertFalse(buffer.interpolate(0, out));
+        buffer.add(100, 0, 10, -10);
+        buffer.add(200, 10, 20, -20);
+        assertTrue(buffer.interpolate(125, out));
+        assertArrayEquals(new float[] {2.5f, 12.5f, -12.5f}, out, 1e-5f);
+        assertTrue(buffer.interpolate(200, out));
+        assertArrayEquals(new float[] {10, 20, -20}, out, 1e-5f);
+        assertFalse(buffer.interpolate(99, out));
+        assertFalse(buffer.interpolate(201, out));
+        // Going back in time is allowed, only slower
+        assertTrue(buffer.interpolate(100, out));
+        assertArrayEquals(new float[] {0, 10, -10}, out, 1e-5f);
+    }
+
+    @Test
+    public void dropsSamplesThatAreNotNewer() {
+        SensorRingBuffer buffer = new SensorRingBuffer(4);
+        assertTrue(buffer.add(100, 1, 0, 0));
+        assertFalse(buffer.add(100, 2, 0, 0));
+        assertFalse(buffer.add(50, 2, 0, 0));
+        assertEquals(1, buffer.size());
+    }
+
+    @Test
+    public void keepsOnlyTheNewestSamplesWhenFull() {
+        SensorRingBuffer buffer = new SensorRingBuffer(4);
+        for (int i = 1; i <= 10; i++) buffer.add(i * 10, i, 0, 0);
+        assertEquals(4, buffer.size());
+        assertEquals(70, buffer.oldestTimestamp());
+        assertEquals(100, buffer.latestTimestamp());
+        float[] out = new float[3];
+        assertFalse(buffer.interpolate(65, out));
+        assertTrue(buffer.interpolate(85, out));
+        assertEquals(8.5f, out[0], 1e-5f);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void peakIsTheLargestSampleInTheRange() {
+        SensorRingBuffer buffer = new SensorRingBuffer(16);
+        assertEquals(0, buffer.peakSquared(0, 100), 0);
+        for (int i = 0; i < 10; i++) buffer.add(i * 10, 0, 0, i == 5 ? 40 : 1);
+        // (40, 60] holds the spike at 50, (0, 40] and (50, 90] do not
+        assertEquals(1600, buffer.peakSquared(40, 60), 1e-3f);
+        assertEquals(1, buffer.peakSquared(0, 40), 1e-3f);
+        assertEquals(1, buffer.peakSquared(50, 90), 1e-3f);
+        assertEquals(0, buffer.peakSquared(90, 200), 0);
+        // Ranges may also go back
+        assertEquals(1600, buffer.peakSquared(-1, 1000), 1e-3f);
+    }
+}
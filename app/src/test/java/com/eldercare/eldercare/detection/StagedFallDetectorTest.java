@@ -0,0 +1,96 @@
+package com.eldercare.eldercare.detection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StagedFallDetectorTest {
+
+    private static final float G = 9.81f;
+    private static final long PERIOD_NS = 20_000_000L;
+
+    private StagedFallDetector detector;
+    private long timestampNs;
+    private int detections;
+
+    @Before
+    public void setUp() {
+        detector = new StagedFallDetector();
+        timestampNs = 0;
+        detections = 0;
+    }
+
+    @Test
+    public void detectsDropImpactAndLyingStill() {
+        hold(2f, 0, G, 0);
+        // Tips over by a quarter turn about x while falling
+        feed(0.3f, 0, 1f, 0, (float) (Math.PI / 2 / 0.3), 0, 0);
+        feed(0.04f, 0, 0, 3.5f * G, 0, 0, 0);
+        hold(5f, 0, 0, G);
+        assertEquals(1, detections);
+        assertEquals(StagedFallDetector.STAGE_IDLE, detector.getStage());
+        assertEquals(1, detector.getEntries(StagedFallDetector.STAGE_FALL));
+    }
+
+    @Test
+    public void ignoresAPhoneDroppedAndPickedUpInTheSameAttitude() {
+        hold(2f, 0, 0, G);
+        feed(0.3f, 0, 0, 1f, 0, 0, 0);
+        feed(0.04f, 0, 0, 3.5f * G, 0, 0, 0);
+        hold(5f, 0, 0, G);
+        assertEquals(0, detections);
+    }
+
+    @Test
+    public void ignoresMovingAgainBeforeTheInactivityPeriodEnds() {
+        hold(2f, 0, G, 0);
+        feed(0.3f, 0, 1f, 0, (float) (Math.PI / 2 / 0.3), 0, 0);
+        feed(0.04f, 0, 0, 3.5f * G, 0, 0, 0);
+        hold(2f, 0, 0, G);
+        // Getting up
+        feed(1f, 2f, 4f, 12f, 1f, 1f, 0);
+        hold(5f, 0, G, 0);
+        assertEquals(0, detections);
+    }
+
+    @Test
+    public void impactWithoutFreeFallIsNotAFall() {
+        hold(2f, 0, G, 0);
+        feed(0.04f, 0, 0, 3.5f * G, 0, 0, 0);
+        hold(5f, 0, 0, G);
+        assertEquals(0, detections);
+        assertEquals(0, detector.getEntries(StagedFallDetector.STAGE_IMPACT));
+    }
+
+    @Test
+    public void freeFallTimesOutWithoutImpact() {
+        hold(2f, 0, G, 0);
+        feed(0.3f, 0, 1f, 0, 0, 0, 0);
+        assertEquals(StagedFallDetector.STAGE_FREE_FALL, detector.getStage());
+        hold(2f, 0, G, 0);
+        assertEquals(StagedFallDetector.STAGE_IDLE, detector.getStage());
+        assertEquals(0, detections);
+    }
+
+    @Test
+    public void resetReturnsToIdle() {
+        hold(2f, 0, G, 0);
+        feed(0.3f, 0, 1f, 0, 0, 0, 0);
+        detector.reset();
+        assertEquals(StagedFallDetector.STAGE_IDLE, detector.getStage());
+        assertEquals(0, detector.getEntries(StagedFallDetector.STAGE_FREE_FALL));
+    }
+
+    private void hold(float seconds, float ax, float ay, float az) {
+        feed(seconds, ax, ay, az, 0, 0, 0);
+    }
+
+    private void feed(float seconds, float ax, float ay, float az, float gx, float gy, float gz) {
+        int samples = Math.max(1, Math.round(seconds * 1e9f / PERIOD_NS));
+        for (int i = 0; i < samples; i++) {
+            timestampNs += PERIOD_NS;
+            if (detector.onSample(timestampNs, ax, ay, az, gx, gy, gz)) detections++;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.eldercare.eldercare.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class YuvTransformTest {
+
+    // Odd-looking sizes and padded strides, as camera buffers have
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 8;
+    private static final int Y_ROW_STRIDE = 16;
+    private static final int UV_ROW_STRIDE = 16;
+    private static final int UV_PIXEL_STRIDE = 2;
+
+    private final ByteBuffer yPlane = ByteBuffer.allocate(Y_ROW_STRIDE * HEIGHT);
+    private final ByteBuffer uPlane = ByteBuffer.allocate(UV_ROW_STRIDE * HEIGHT / 2);
+    private final ByteBuffer vPlane = ByteBuffer.allocate(UV_ROW_STRIDE * HEIGHT / 2);
+
+    public YuvTransformTest() {
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                yPlane.put(row * Y_ROW_STRIDE + col, (byte) luma(col, row));
+            }
+        }
+        for (int row = 0; row < HEIGHT / 2; row++) {
+            for (int col = 0; col < WIDTH / 2; col++) {
+                uPlane.put(row * UV_ROW_STRIDE + col * UV_PIXEL_STRIDE, (byte) (col * 16 + row));
+                vPlane.put(row * UV_ROW_STRIDE + col * UV_PIXEL_STRIDE, (byte) (200 - col * 16 - row));
+            }
+        }
+    }
+
+    @Test
+    public void everyRotationAndMirrorMapsEachPixel() {
+        YuvTransform transform = new YuvTransform();
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            for (boolean mirror : new boolean[]{false, true}) {
+                int width = rotation % 180 == 0 ? WIDTH : HEIGHT;
+                int height = rotation % 180 == 0 ? HEIGHT : WIDTH;
+                transform.transform(WIDTH, HEIGHT, yPlane, Y_ROW_STRIDE, uPlane, vPlane, UV_ROW_STRIDE,
+                        UV_PIXEL_STRIDE, rotation, mirror, width, height);
+                assertEquals(width, transform.getWidth());
+                assertEquals(height, transform.getHeight());
+                byte[] nv21 = transform.getNv21();
+                String label = rotation + (mirror ? " mirrored" : "");
+
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int[] source = sourceOf(x, y, rotation, mirror, width);
+                        assertEquals(label + " at " + x + "," + y,
+                                luma(source[0], source[1]), nv21[y * width + x] & 0xff);
+                    }
+                }
+                // Each NV21 chroma pair belongs to the top-left pixel of its 2x2 block
+                int chroma = width * height;
+                for (int y = 0; y < height / 2; y++) {
+                    for (int x = 0; x < width / 2; x++) {
+                        int[] source = sourceOf(2 * x, 2 * y, rotation, mirror, width);
+                        int index = (source[1] / 2) * UV_ROW_STRIDE + (source[0] / 2) * UV_PIXEL_STRIDE;
+                        int out = chroma + (y * width / 2 + x) * 2;
+                        assertEquals(label, vPlane.get(index), nv21[out]);
+                        assertEquals(label, uPlane.get(index), nv21[out + 1]);
+                    }
+                }
+            }
+        }
+        assertEquals(0, yPlane.position());
+    }
+
+    @Test
+    public void halfSizePicksEveryOtherPixel() {
+        YuvTransform transform = new YuvTransform();
+        transform.transform(WIDTH, HEIGHT, yPlane, Y_ROW_STRIDE, uPlane, vPlane, UV_ROW_STRIDE,
+                UV_PIXEL_STRIDE, 0, false, WIDTH / 2, HEIGHT / 2);
+        byte[] nv21 = transform.getNv21();
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                assertEquals(luma(2 * x + 1, 2 * y + 1), nv21[y * WIDTH / 2 + x] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void reusesTheOutputBuffer() {
+        YuvTransform transform = new YuvTransform();
+        transform.transform(WIDTH, HEIGHT, yPlane, Y_ROW_STRIDE, uPlane, vPlane, UV_ROW_STRIDE,
+                UV_PIXEL_STRIDE, 90, true, HEIGHT, WIDTH);
+        byte[] first = transform.getNv21();
+        transform.transform(WIDTH, HEIGHT, yPlane, Y_ROW_STRIDE, uPlane, vPlane, UV_ROW_STRIDE,
+                UV_PIXEL_STRIDE, 0, false, WIDTH, HEIGHT);
+        assertSame(first, transform.getNv21());
+        assertEquals(luma(0, 0), first[0] & 0xff);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnOddSize() {
+        new YuvTransform().transform(WIDTH, HEIGHT, yPlane, Y_ROW_STRIDE, uPlane, vPlane, UV_ROW_STRIDE,
+                UV_PIXEL_STRIDE, 0, false, WIDTH - 1, HEIGHT);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsARotationOffTheQuarterTurns() {
+        new YuvTransform().transform(WIDTH, HEIGHT, yPlane, Y_ROW_STRIDE, uPlane, vPlane, UV_ROW_STRIDE,
+                UV_PIXEL_STRIDE, 45, false, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void fitSizeKeepsTheAspectRatioAndNeverScalesUp() {
+        assertArrayEquals(new int[]{480, 640}, YuvTransform.fitSize(1280, 960, 90, 480, 640));
+        assertArrayEquals(new int[]{480, 360}, YuvTransform.fitSize(1280, 960, 0, 480, 640));
+        assertArrayEquals(new int[]{320, 240}, YuvTransform.fitSize(320, 240, 180, 480, 640));
+        int[] odd = YuvTransform.fitSize(641, 481, 270, 480, 640);
+        assertEquals(0, odd[0] & 1);
+        assertEquals(0, odd[1] & 1);
+    }
+
+    private static int luma(int col, int row) {
+        return row * WIDTH + col;
+    }
+
+    /** Source column and row of output pixel (x, y): mirrored first, then turned back. */
+    private static int[] sourceOf(int x, int y, int rotation, boolean mirror, int width) {
+        int turnedX = mirror ? width - 1 - x : x;
+        switch (rotation) {
+            case 0:
+                return new int[]{turnedX, y};
+            case 90:
+                return new int[]{y, HEIGHT - 1 - turnedX};
+            case 180:
+                return new int[]{WIDTH - 1 - turnedX, HEIGHT - 1 - y};
+            default:
+                return new int[]{WIDTH - 1 - y, turnedX};
+        }
+    }
+}
@@ -8,8 +8,9 @@ from datetime import datetime
 app = Flask(__name__)
 CORS(app)
 
-def mock_face_analysis(image_data: str):
-    """Simulate ML facial analysis (symmetry, pallor, tension, etc.)"""
+def mock_face_analysis(image_data):
+    """Simulate ML facial analysis (symmetry, pallor, tension, etc.)
+    image_data is the Base64 string of the JSON route or the JPEG bytes of the upload route."""
     length = len(image_data)
     symmetry_score = random.uniform(0.6, 1.0)
     pallor_detected = random.random() < 0.2
@@ -125,6 +126,35 @@ HEALTH_CONDITIONS = {
 # ==============================================
 # Routes
 # ==============================================
+def build_scan_response(image_data, language, timestamp):
+    """Runs the analysis and builds the reply shared by both upload routes."""
+    if language not in ['en', 'id']:
+        language = 'en'
+
+    print(f"Received face scan at {datetime.fromtimestamp(timestamp/1000)} | Lang: {language}")
+
+    # Simulate ML processing delay
+    time.sleep(1)
+
+    # Use mock ML logic to select condition
+    detected_key = mock_face_analysis(image_data)
+    result = HEALTH_CONDITIONS.get(detected_key, HEALTH_CONDITIONS["healthy"])
+
+    lang_data = result[language]
+
+    return {
+        'success': True,
+        'message': lang_data['message'],
+        'healthy': result['healthy'],
+        'conditions': lang_data['conditions'],
+        'confidence': result['confidence'],
+        'recommendations': lang_data['recommendations'],
+        'scan_id': f"SCAN_{timestamp}",
+        'language': language,
+        'processed_at': datetime.now().isoformat()
+    }
+
+
 @app.route('/api/face-scan', methods=['POST'])
 def face_scan():
     try:
@@ -140,34 +170,9 @@ def face_scan():
         language = data.get('language', 'en')
         timestamp = data.get('timestamp', int(time.time() * 1000))
         
-        if language not in ['en', 'id']:
-            language = 'en'
-        
-        print(f"Received face scan at {datetime.fromtimestamp(timestamp/1000)} | Lang: {language}")
         print(f"Image data length: {len(image_data)} characters")
         
-        # Simulate ML processing delay
-        time.sleep(1)
-        
-        # Use mock ML logic to select condition
-        detected_key = mock_face_analysis(image_data)
-        result = HEALTH_CONDITIONS.get(detected_key, HEALTH_CONDITIONS["healthy"])
-        
-        lang_data = result[language]
-        
-        response = {
-            'success': True,
-            'message': lang_data['message'],
-            'healthy': result['healthy'],
-            'conditions': lang_data['conditions'],
-            'confidence': result['confidence'],
-            'recommendations': lang_data['recommendations'],
-            'scan_id': f"SCAN_{timestamp}",
-            'language': language,
-            'processed_at': datetime.now().isoformat()
-        }
-        
-        return jsonify(response), 200
+        return jsonify(build_scan_response(image_data, language, timestamp)), 200
         
     except Exception as e:
         print(f"Error processing face scan: {str(e)}")
@@ -177,6 +182,41 @@ def face_scan():
         }), 500
 
 
+@app.route('/api/face-scan/upload', methods=['POST'])
+def face_scan_upload():
+    """Multipart upload: the JPEG as the 'image' file part, 'timestamp' and 'language' as fields."""
+    try:
+        image = request.files.get('image')
+        if image is None:
+            return jsonify({
+                'success': False,
+                'message': 'No image file provided'
+            }), 400
+
+        image_bytes = image.read()
+        if not image_bytes.startswith(b'\xff\xd8'):
+            return jsonify({
+                'success': False,
+                'message': 'Image is not a JPEG'
+            }), 400
+
+        language = request.form.get('language', 'en')
+        timestamp = request.form.get('timestamp', type=int)
+        if timestamp is None:
+            timestamp = int(time.time() * 1000)
+
+        print(f"Image size: {len(image_bytes)} bytes ({image.mimetype})")
+
+        return jsonify(build_scan_response(image_bytes, language, timestamp)), 200
+
+    except Exception as e:
+        print(f"Error processing face scan upload: {str(e)}")
+        return jsonify({
+            'success': False,
+            'message': f'Error processing scan: {str(e)}'
+        }), 500
+
+
 @app.route('/api/health', methods=['GET'])
 def health_check():
     return jsonify({
@@ -193,6 +233,7 @@ def home():
         'version': '2.0',
         'endpoints': {
             'POST /api/face-scan': 'Upload face scan for analysis (supports language: en/id)',
+            'POST /api/face-scan/upload': 'Upload face scan as a multipart JPEG (fields: image, timestamp, language)',
             'GET /api/health': 'Health check endpoint'
         }
     }), 200